@@ -3,9 +3,14 @@ CREATE TABLE IF NOT EXISTS cicloCompensacion (
     numeroCiclo INTEGER UNIQUE,
     estado VARCHAR(20),              -- OPEN, CLOSED, SETTLED
     fechaApertura TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-    fechaCierre TIMESTAMP
+    fechaCierre TIMESTAMP,
+    detalleCorte BIGINT              -- Ultimo idDetalle al cortar el ciclo
 );
 
+-- Historial paginado por keyset (numeroCiclo UNIQUE ya indexa el recorrido sin filtros)
+CREATE INDEX IF NOT EXISTS ixCicloEstadoNumero ON cicloCompensacion (estado, numeroCiclo);
+CREATE INDEX IF NOT EXISTS ixCicloApertura ON cicloCompensacion (fechaApertura);
+
 CREATE TABLE IF NOT EXISTS detalleCompensacion (
     idDetalle BIGSERIAL PRIMARY KEY,
     idInstruccion UUID,
@@ -15,9 +20,35 @@ CREATE TABLE IF NOT EXISTS detalleCompensacion (
     bicEmisor VARCHAR(20),           -- Clasificación rápida
     bicReceptor VARCHAR(20),         -- Clasificación rápida
     monto NUMERIC(18,2),
-    estadoLiquidacion VARCHAR(20)    -- INCLUIDO, EXCLUIDO
+    estadoLiquidacion VARCHAR(20),   -- INCLUIDO, EXCLUIDO
+    idInstruccionDuplicada UUID      -- Clave de un detalle repetido, apartado del índice único
 );
 
+-- Recorrido del neteo al cierre (cursor por ciclo)
+CREATE INDEX IF NOT EXISTS ixDetalleCiclo ON detalleCompensacion (idCiclo, idDetalle);
+
+-- Informe de detalles por BIC: cada rama (emisor / receptor) se lee ya ordenada
+-- por bic e idDetalle y se mezclan sin ordenar el ciclo completo
+CREATE INDEX IF NOT EXISTS ixDetalleCicloEmisor ON detalleCompensacion (idCiclo, bicEmisor, idDetalle);
+CREATE INDEX IF NOT EXISTS ixDetalleCicloReceptor ON detalleCompensacion (idCiclo, bicReceptor, idDetalle);
+
+-- Idempotencia: una instrucción se contabiliza una sola vez (NULL no colisiona).
+-- En bases anteriores al índice, cada instrucción repetida conserva su primer
+-- detalle; los demás ceden la clave a idInstruccionDuplicada sin borrarse y, fuera
+-- de ciclos ya CERRADOS, quedan EXCLUIDOS del neteo. El filtro sobre pg_indexes no
+-- depende de la fila: el UPDATE solo recorre la tabla mientras el índice no existe.
+UPDATE detalleCompensacion d
+SET idInstruccionDuplicada = d.idInstruccion,
+    idInstruccion = NULL,
+    estadoLiquidacion = CASE
+        WHEN (SELECT c.estado FROM cicloCompensacion c WHERE c.idCiclo = d.idCiclo) = 'CERRADO'
+            THEN d.estadoLiquidacion
+        ELSE 'EXCLUIDO' END
+WHERE NOT EXISTS (SELECT 1 FROM pg_indexes WHERE indexname = 'uxdetalleinstruccion')
+  AND EXISTS (SELECT 1 FROM detalleCompensacion o
+              WHERE o.idInstruccion = d.idInstruccion AND o.idDetalle < d.idDetalle);
+CREATE UNIQUE INDEX IF NOT EXISTS uxDetalleInstruccion ON detalleCompensacion (idInstruccion);
+
 CREATE TABLE IF NOT EXISTS posicionInstitucion (
     idPosicion BIGSERIAL PRIMARY KEY,
     idCiclo INTEGER REFERENCES cicloCompensacion(idCiclo),
@@ -27,10 +58,63 @@ CREATE TABLE IF NOT EXISTS posicionInstitucion (
     posicionNeta NUMERIC(18,2)
 );
 
+-- Clave de la acumulación atómica (INSERT ... ON CONFLICT). En bases existentes,
+-- consolidar antes las filas duplicadas por (idCiclo, bic).
+CREATE UNIQUE INDEX IF NOT EXISTS uxPosicionCicloBic ON posicionInstitucion (idCiclo, bic);
+
 CREATE TABLE IF NOT EXISTS archivoLiquidacion (
     idArchivo BIGSERIAL PRIMARY KEY,
     idCiclo INTEGER REFERENCES cicloCompensacion(idCiclo),
     nombreArchivo VARCHAR(255),
-    contenidoXml TEXT,               -- XML SIN FIRMA
+    contenidoXml TEXT,               -- XML SIN FIRMA (solo archivos anteriores al almacén en disco)
+    contenidoGzip BYTEA,             -- copia durable del archivo comprimido, origen de verdad
+    rutaArchivo VARCHAR(255),        -- relativa a compensacion.archivos.directorio
+    tamanoBytes BIGINT,              -- tamaño y SHA-256 del XML sin comprimir
+    checksumSha256 VARCHAR(64),
+    compresion VARCHAR(10),          -- gzip: archivo comprimido en disco
     fechaGeneracion TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
+ALTER TABLE archivoLiquidacion ADD COLUMN IF NOT EXISTS contenidoGzip BYTEA;
+
+-- Cargas asíncronas de archivos (/api/v2/compensation/upload)
+CREATE TABLE IF NOT EXISTS trabajoCarga (
+    idTrabajo UUID PRIMARY KEY,
+    nombreArchivo VARCHAR(255),
+    rutaArchivo VARCHAR(500),
+    fechaCompensacion VARCHAR(20),
+    estado VARCHAR(20),              -- PENDIENTE, PROCESANDO, COMPLETADO, FALLIDO
+    tamanoArchivo BIGINT,
+    tamanoTramo BIGINT,
+    nodo VARCHAR(100),               -- réplica que procesa la carga
+    arrendadoHasta TIMESTAMP,        -- otra réplica solo la retoma al vencer
+    bytesConfirmados BIGINT,         -- fin del último tramo confirmado
+    lineasConfirmadas BIGINT,
+    registrosLeidos BIGINT,
+    registrosInsertados BIGINT,
+    registrosRechazados BIGINT,
+    errores TEXT,
+    mensajeError VARCHAR(500),
+    fechaCreacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    fechaInicio TIMESTAMP,
+    fechaActualizacion TIMESTAMP,
+    fechaFin TIMESTAMP
+);
+ALTER TABLE trabajoCarga ADD COLUMN IF NOT EXISTS nodo VARCHAR(100);
+ALTER TABLE trabajoCarga ADD COLUMN IF NOT EXISTS arrendadoHasta TIMESTAMP;
+
+-- Bandeja de salida hacia MS-CONTABILIDAD (se escribe en la transacción de cierre)
+CREATE TABLE IF NOT EXISTS mensajeSalida (
+    idMensaje UUID PRIMARY KEY,      -- Idempotency-Key del envío
+    tipo VARCHAR(40),                -- LIQUIDACION_CICLO
+    idCiclo INTEGER REFERENCES cicloCompensacion(idCiclo),
+    parte INTEGER,
+    totalPartes INTEGER,
+    carga TEXT,                      -- cuerpo JSON de la parte
+    estado VARCHAR(20),              -- PENDIENTE, ENVIADO, FALLIDO
+    intentos INTEGER DEFAULT 0,
+    proximoIntento TIMESTAMP,
+    ultimoError VARCHAR(500),
+    fechaCreacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    fechaEnvio TIMESTAMP
+);
+CREATE INDEX IF NOT EXISTS ixMensajeSalidaPendiente ON mensajeSalida (estado, proximoIntento);
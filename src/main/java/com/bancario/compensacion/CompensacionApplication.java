@@ -2,7 +2,6 @@ package com.bancario.compensacion;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -14,9 +13,4 @@ public class CompensacionApplication {
 		SpringApplication.run(CompensacionApplication.class, args);
 	}
 
-	@Bean
-	public org.springframework.scheduling.TaskScheduler taskScheduler() {
-		return new org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler();
-	}
-
 }
@@ -0,0 +1,32 @@
+package com.bancario.compensacion.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Ejecutor acotado de cargas asíncronas de archivos: hilos fijos y cola limitada
+ * para que una ráfaga de uploads no agote la memoria ni el pool de conexiones.
+ */
+@Configuration
+public class CargaConfig {
+
+    @Value("${compensacion.carga.hilos:2}")
+    private int hilos;
+
+    @Value("${compensacion.carga.cola:20}")
+    private int cola;
+
+    @Bean
+    public ThreadPoolTaskExecutor cargaExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setQueueCapacity(cola);
+        executor.setThreadNamePrefix("carga-");
+        // Al apagar se interrumpen los trabajos; se retoman desde su último tramo confirmado
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
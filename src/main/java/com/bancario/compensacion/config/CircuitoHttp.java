@@ -0,0 +1,110 @@
+package com.bancario.compensacion.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cortocircuito para un servicio remoto.
+ *
+ * Tras {@code fallosParaAbrir} fallos consecutivos (error de E/S o 5xx) el circuito
+ * se abre y las llamadas fallan de inmediato durante {@code abiertoMs}, sin ocupar
+ * conexiones ni hilos. Vencido ese plazo se deja pasar una sola llamada de prueba:
+ * si responde, el circuito se cierra; si falla, vuelve a abrirse.
+ */
+@Slf4j
+public class CircuitoHttp implements ClientHttpRequestInterceptor {
+
+    public enum Estado { CERRADO, ABIERTO, SEMIABIERTO }
+
+    /**
+     * IOException para que RestTemplate la trate como cualquier fallo de conexión
+     * (ResourceAccessException) y el llamador reintente más tarde.
+     */
+    public static class CircuitoAbiertoException extends IOException {
+        public CircuitoAbiertoException(String nombre) {
+            super("Circuito " + nombre + " abierto: llamada rechazada sin contactar al servicio");
+        }
+    }
+
+    private final String nombre;
+    private final int fallosParaAbrir;
+    private final long abiertoMs;
+
+    private final AtomicInteger fallosConsecutivos = new AtomicInteger();
+    // 0 = cerrado; si no, instante (ms) a partir del cual se admite la llamada de prueba
+    private final AtomicLong abiertoHasta = new AtomicLong();
+    private final AtomicInteger pruebasEnCurso = new AtomicInteger();
+
+    public CircuitoHttp(String nombre, int fallosParaAbrir, long abiertoMs) {
+        this.nombre = nombre;
+        this.fallosParaAbrir = fallosParaAbrir;
+        this.abiertoMs = abiertoMs;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        boolean prueba = admitir();
+        try {
+            ClientHttpResponse respuesta = execution.execute(request, body);
+            if (respuesta.getStatusCode().is5xxServerError()) {
+                registrarFallo();
+            } else {
+                registrarExito();
+            }
+            return respuesta;
+        } catch (IOException | RuntimeException e) {
+            registrarFallo();
+            throw e;
+        } finally {
+            if (prueba) {
+                pruebasEnCurso.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return true si la llamada es la de prueba del estado semiabierto.
+     */
+    private boolean admitir() throws CircuitoAbiertoException {
+        long hasta = abiertoHasta.get();
+        if (hasta == 0) {
+            return false;
+        }
+        if (System.currentTimeMillis() < hasta || !pruebasEnCurso.compareAndSet(0, 1)) {
+            throw new CircuitoAbiertoException(nombre);
+        }
+        return true;
+    }
+
+    private void registrarExito() {
+        fallosConsecutivos.set(0);
+        if (abiertoHasta.getAndSet(0) != 0) {
+            log.info("Circuito {} cerrado: el servicio vuelve a responder", nombre);
+        }
+    }
+
+    private void registrarFallo() {
+        int fallos = fallosConsecutivos.incrementAndGet();
+        if (fallos >= fallosParaAbrir || abiertoHasta.get() != 0) {
+            abiertoHasta.set(System.currentTimeMillis() + abiertoMs);
+            log.warn("Circuito {} abierto tras {} fallo(s) consecutivo(s); nueva prueba en {} ms",
+                    nombre, fallos, abiertoMs);
+        }
+    }
+
+    public Estado estado() {
+        long hasta = abiertoHasta.get();
+        if (hasta == 0) {
+            return Estado.CERRADO;
+        }
+        return System.currentTimeMillis() < hasta ? Estado.ABIERTO : Estado.SEMIABIERTO;
+    }
+}
@@ -0,0 +1,72 @@
+package com.bancario.compensacion.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import javax.sql.DataSource;
+
+/**
+ * Planificador de tareas (@Scheduled y cierres automáticos de ciclo) y límite de
+ * conexiones para peticiones HTTP en modo de hilos virtuales.
+ *
+ * Con spring.threads.virtual.enabled=true cada ejecución corre en un hilo virtual;
+ * en otro caso se usa un ThreadPoolTaskScheduler de plataforma con
+ * compensacion.hilos.tareas hilos, para que un volcado o un despacho lento no
+ * retrase al resto de tareas ni al cierre automático del ciclo.
+ */
+@Slf4j
+@Configuration
+public class HilosConfig {
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean hilosVirtuales;
+
+    @Value("${compensacion.hilos.tareas:6}")
+    private int hilosTareas;
+
+    /**
+     * En modo virtual Tomcat deja de acotar la concurrencia con su pool de hilos, así
+     * que el límite pasa a la frontera de la base de datos (LimiteConexionesDataSource).
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+    public static BeanPostProcessor limiteConexionesHttp(
+            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int conexiones,
+            @Value("${compensacion.hilos.reserva-conexiones:3}") int reserva,
+            @Value("${compensacion.hilos.conexiones-http:0}") int conexionesHttp,
+            @Value("${compensacion.hilos.espera-ms:5000}") long esperaMs) {
+        int permitidas = conexionesHttp > 0 ? conexionesHttp : Math.max(1, conexiones - reserva);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String nombre) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof LimiteConexionesDataSource)) {
+                    log.info("Hilos virtuales: las peticiones HTTP usan hasta {} conexiones ({} en el pool, {} reservadas)",
+                            permitidas, conexiones, reserva);
+                    return new LimiteConexionesDataSource(dataSource, permitidas, esperaMs);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public TaskScheduler taskScheduler() {
+        if (hilosVirtuales) {
+            SimpleAsyncTaskScheduler scheduler = new SimpleAsyncTaskScheduler();
+            scheduler.setVirtualThreads(true);
+            scheduler.setThreadNamePrefix("tarea-");
+            return scheduler;
+        }
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(hilosTareas);
+        scheduler.setThreadNamePrefix("tarea-");
+        return scheduler;
+    }
+}
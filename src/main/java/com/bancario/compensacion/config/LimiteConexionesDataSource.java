@@ -0,0 +1,104 @@
+package com.bancario.compensacion.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Límite de conexiones que pueden tener a la vez las peticiones HTTP en modo de
+ * hilos virtuales.
+ *
+ * Solo se limita a quien pide una conexión: las peticiones que no tocan la base de
+ * datos (SSE, sondas, informes en caché) no esperan nunca. Las que sí la piden
+ * comparten las conexiones del pool menos la reserva, de modo que el consumidor
+ * de RabbitMQ y las tareas programadas siempre encuentran una libre. La espera es
+ * en orden de llegada hasta espera-ms; sin cupo se lanza
+ * SQLTransientConnectionException, que se responde con 503.
+ */
+@Slf4j
+public class LimiteConexionesDataSource extends DelegatingDataSource {
+
+    private final Semaphore cupos;
+    private final long esperaMs;
+
+    public LimiteConexionesDataSource(DataSource destino, int conexionesHttp, long esperaMs) {
+        super(destino);
+        this.cupos = new Semaphore(conexionesHttp, true);
+        this.esperaMs = esperaMs;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return limitar(() -> super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String usuario, String clave) throws SQLException {
+        return limitar(() -> super.getConnection(usuario, clave));
+    }
+
+    private Connection limitar(Apertura apertura) throws SQLException {
+        if (RequestContextHolder.getRequestAttributes() == null) {
+            return apertura.abrir();
+        }
+        boolean admitida;
+        try {
+            admitida = cupos.tryAcquire(esperaMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitida = false;
+        }
+        if (!admitida) {
+            log.warn("[COMPENSACION] Sin conexiones libres para peticiones HTTP tras {} ms", esperaMs);
+            throw new SQLTransientConnectionException("Sin conexiones libres para peticiones HTTP");
+        }
+        try {
+            return liberarAlCerrar(apertura.abrir());
+        } catch (SQLException | RuntimeException e) {
+            cupos.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Devuelve el cupo al cerrar la conexión, una sola vez aunque se cierre varias.
+     */
+    private Connection liberarAlCerrar(Connection conexion) {
+        AtomicBoolean liberada = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, metodo, args) -> {
+                    if ("close".equals(metodo.getName()) && liberada.compareAndSet(false, true)) {
+                        try {
+                            conexion.close();
+                        } finally {
+                            cupos.release();
+                        }
+                        return null;
+                    }
+                    try {
+                        return metodo.invoke(conexion, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    int cuposLibres() {
+        return cupos.availablePermits();
+    }
+
+    @FunctionalInterface
+    private interface Apertura {
+        Connection abrir() throws SQLException;
+    }
+}
@@ -1,5 +1,6 @@
 package com.bancario.compensacion.config;
 
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
@@ -8,6 +9,7 @@ import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 
 @Configuration
 public class RabbitConfig {
@@ -30,6 +32,15 @@ public class RabbitConfig {
     @Value("${spring.rabbitmq.ssl.enabled:false}")
     private boolean sslEnabled;
 
+    @Value("${compensacion.rabbit.lote.tamano:500}")
+    private int tamanoLote;
+
+    @Value("${compensacion.rabbit.lote.espera-ms:200}")
+    private long esperaLoteMs;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean hilosVirtuales;
+
     @Bean
     public ConnectionFactory connectionFactory() {
         CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
@@ -59,6 +70,38 @@ public class RabbitConfig {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
         factory.setMessageConverter(jackson2JsonMessageConverter());
+        configurarHilos(factory);
+        return factory;
+    }
+
+    /**
+     * Fábrica para el consumo por lotes: entrega hasta {@code tamanoLote} mensajes
+     * o lo acumulado tras {@code esperaLoteMs}. El ACK es manual para confirmar el
+     * lote completo tras el commit y rechazar mensajes individuales si fallan.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory rabbitLoteListenerContainerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(tamanoLote);
+        factory.setPrefetchCount(tamanoLote);
+        factory.setReceiveTimeout(esperaLoteMs);
+        factory.setBatchReceiveTimeout(esperaLoteMs);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        configurarHilos(factory);
         return factory;
     }
+
+    /**
+     * En modo de hilos virtuales cada consumidor corre en un hilo virtual. El número
+     * de consumidores no cambia (uno por contenedor), así que sigue dentro de la
+     * reserva de conexiones que deja LimiteConexionesDataSource.
+     */
+    private void configurarHilos(SimpleRabbitListenerContainerFactory factory) {
+        if (hilosVirtuales) {
+            factory.setTaskExecutor(new VirtualThreadTaskExecutor("rabbit-"));
+        }
+    }
 }
@@ -1,19 +1,153 @@
 package com.bancario.compensacion.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+
 /**
  * Configuración de beans para comunicación HTTP entre microservicios.
- * Usado por CompensacionServicio para invocar la liquidación masiva en
+ * Usado por DespachoContabilidad para entregar la liquidación masiva a
  * MS-CONTABILIDAD.
+ *
+ * Conexiones reutilizadas desde un pool con keep-alive, tiempos máximos de
+ * conexión, de espera por el pool y de lectura, y un cortocircuito que falla de
+ * inmediato mientras Contabilidad no responde. Sin reintentos automáticos: los
+ * hace la bandeja de salida. La latencia de cada llamada se publica como
+ * http.client.requests (RestTemplateBuilder de Spring Boot).
  */
 @Configuration
 public class RestTemplateConfig {
 
+    @Value("${compensacion.contabilidad.http.conexiones-max:20}")
+    private int conexionesMax = 20;
+
+    @Value("${compensacion.contabilidad.http.conexiones-por-ruta:10}")
+    private int conexionesPorRuta = 10;
+
+    @Value("${compensacion.contabilidad.http.timeout-conexion-ms:2000}")
+    private long timeoutConexionMs = 2_000;
+
+    @Value("${compensacion.contabilidad.http.timeout-pool-ms:2000}")
+    private long timeoutPoolMs = 2_000;
+
+    @Value("${compensacion.contabilidad.http.timeout-lectura-ms:10000}")
+    private long timeoutLecturaMs = 10_000;
+
+    @Value("${compensacion.contabilidad.http.keep-alive-ms:30000}")
+    private long keepAliveMs = 30_000;
+
+    @Value("${compensacion.contabilidad.http.gzip-umbral-bytes:-1}")
+    private int gzipUmbralBytes = -1;
+
+    @Value("${compensacion.contabilidad.circuito.fallos:5}")
+    private int fallosCircuito = 5;
+
+    @Value("${compensacion.contabilidad.circuito.abierto-ms:30000}")
+    private long circuitoAbiertoMs = 30_000;
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient clienteHttp() {
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(conexionesMax)
+                .setMaxConnPerRoute(conexionesPorRuta)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(timeoutConexionMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(timeoutLecturaMs))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(timeoutPoolMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(timeoutLecturaMs))
+                        .setConnectionKeepAlive(TimeValue.ofMilliseconds(keepAliveMs))
+                        .build())
+                .setKeepAliveStrategy(keepAliveAcotado(keepAliveMs))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMs))
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    @Bean
+    public CircuitoHttp circuitoContabilidad(MeterRegistry metricas) {
+        CircuitoHttp circuito = new CircuitoHttp("contabilidad", fallosCircuito, circuitoAbiertoMs);
+        Gauge.builder("compensacion.contabilidad.circuito", circuito, c -> c.estado().ordinal())
+                .description("Estado del cortocircuito de Contabilidad: 0 cerrado, 1 abierto, 2 semiabierto")
+                .register(metricas);
+        return circuito;
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(RestTemplateBuilder builder, CloseableHttpClient clienteHttp,
+            CircuitoHttp circuitoContabilidad) {
+        RestTemplate restTemplate = builder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(clienteHttp))
+                .build();
+        // El cortocircuito va primero para no comprimir cuerpos que no se enviarán
+        restTemplate.getInterceptors().add(circuitoContabilidad);
+        if (gzipUmbralBytes >= 0) {
+            restTemplate.getInterceptors().add(comprimirCuerpo(gzipUmbralBytes));
+        }
+        return restTemplate;
+    }
+
+    /**
+     * Respeta el Keep-Alive: timeout=N del servidor (incluido 0, no reutilizar) sin
+     * pasar de {@code maximoMs}; sin cabecera, o con una duración mayor, usa
+     * {@code maximoMs}.
+     */
+    static ConnectionKeepAliveStrategy keepAliveAcotado(long maximoMs) {
+        TimeValue maximo = TimeValue.ofMilliseconds(maximoMs);
+        return (respuesta, contexto) -> {
+            TimeValue servidor = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(respuesta, contexto);
+            if (servidor != null && servidor.toMilliseconds() >= 0 && servidor.compareTo(maximo) < 0) {
+                return servidor;
+            }
+            return maximo;
+        };
+    }
+
+    /**
+     * Comprime con gzip los cuerpos de al menos {@code umbralBytes} (Content-Encoding: gzip).
+     * Solo debe activarse si el receptor acepta solicitudes comprimidas.
+     */
+    static ClientHttpRequestInterceptor comprimirCuerpo(int umbralBytes) {
+        return (request, body, execution) -> {
+            if (body.length == 0 || body.length < umbralBytes
+                    || request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+                return execution.execute(request, body);
+            }
+            ByteArrayOutputStream comprimido = new ByteArrayOutputStream(Math.max(512, body.length / 4));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(comprimido)) {
+                gzip.write(body);
+            }
+            byte[] cuerpo = comprimido.toByteArray();
+            request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            request.getHeaders().setContentLength(cuerpo.length);
+            return execution.execute(request, cuerpo);
+        };
     }
 }
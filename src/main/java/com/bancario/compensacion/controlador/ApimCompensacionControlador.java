@@ -2,18 +2,39 @@ package com.bancario.compensacion.controlador;
 
 import com.bancario.compensacion.dto.CicloDTO;
 import com.bancario.compensacion.dto.PosicionDTO;
+import com.bancario.compensacion.dto.TrabajoCargaDTO;
+import com.bancario.compensacion.modelo.ArchivoLiquidacion;
+import com.bancario.compensacion.modelo.FiltroDetalles;
+import com.bancario.compensacion.modelo.ReportePdf;
+import com.bancario.compensacion.servicio.AlmacenArchivos;
+import com.bancario.compensacion.servicio.ArchivosCompensacionServicio;
 import com.bancario.compensacion.servicio.CompensacionServicio;
+import com.bancario.compensacion.servicio.DifusionPosiciones;
+import com.bancario.compensacion.servicio.ReporteDetallesServicio;
+import com.bancario.compensacion.servicio.TrabajosCargaServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Controlador compatible con AWS APIM para servicio de Compensación.
@@ -29,22 +50,41 @@ import java.util.Map;
 public class ApimCompensacionControlador {
 
     private final CompensacionServicio compensacionServicio;
+    private final ReporteDetallesServicio reporteDetalles;
+    private final DifusionPosiciones difusionPosiciones;
+    private final ArchivosCompensacionServicio archivosServicio;
+    private final TrabajosCargaServicio trabajosCargaServicio;
 
     /**
      * POST /api/v2/compensation/upload
      * Ruta configurada en APIM para subir archivos de compensación.
-     *
-     * TODO: Implementar lógica de procesamiento de archivos CSV/Excel.
+     * Registra una carga asíncrona y responde 202 con su jobId; con sync=true la
+     * carga se procesa dentro de la petición (archivos pequeños).
      */
-    @PostMapping("/upload")
-    @Operation(summary = "Subir Archivo de Compensación", description = "Recibe archivos CSV/Excel con datos de compensación para procesamiento batch (EN DESARROLLO)")
-    public ResponseEntity<Map<String, String>> uploadArchivo() {
-        log.warn("[APIM] Endpoint /upload llamado pero aún no implementado");
+    @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Subir Archivo de Compensación", description = "Recibe un CSV (idInstruccion,idInstruccionOriginal,tipoOperacion,bicEmisor,bicReceptor,monto[,codigoReferencia]) y lo carga en el ciclo abierto. Devuelve el jobId para consultar el avance.")
+    public ResponseEntity<?> uploadArchivo(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) String compensationDate,
+            @RequestParam(required = false, defaultValue = "false") boolean sync) {
+        log.info("[APIM] POST /upload - archivo={} ({} bytes) sync={}", file.getOriginalFilename(), file.getSize(), sync);
+        if (sync) {
+            return ResponseEntity.ok(archivosServicio.procesarArchivo(file, compensationDate));
+        }
+        TrabajoCargaDTO trabajo = trabajosCargaServicio.encolar(file, compensationDate);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v2/compensation/upload/" + trabajo.getJobId()))
+                .body(trabajo);
+    }
 
-        return ResponseEntity.ok(Map.of(
-                "status", "NOT_IMPLEMENTED",
-                "message",
-                "La funcionalidad de upload de archivos está en desarrollo. Use /api/v1/compensacion/operaciones para registrar operaciones individuales."));
+    /**
+     * GET /api/v2/compensation/upload/{jobId}
+     * Avance de una carga asíncrona: registros leídos, insertados, rechazados y ritmo.
+     */
+    @GetMapping("/upload/{jobId}")
+    @Operation(summary = "Estado de una carga", description = "Consulta el avance de una carga de archivo iniciada con /upload.")
+    public ResponseEntity<TrabajoCargaDTO> estadoCarga(@PathVariable UUID jobId) {
+        return ResponseEntity.ok(trabajosCargaServicio.consultar(jobId));
     }
 
     /**
@@ -68,10 +108,24 @@ public class ApimCompensacionControlador {
      * Historial de ciclos de compensación.
      */
     @GetMapping("/ciclos")
-    @Operation(summary = "Listar ciclos de compensación", description = "Obtiene el historial de todos los ciclos operativos (abiertos, cerrados, liquidados).")
-    public ResponseEntity<List<CicloDTO>> listarCiclos() {
-        log.info("[APIM] GET /ciclos - Listando ciclos de compensación");
-        return ResponseEntity.ok(compensacionServicio.listarCiclos());
+    @Operation(summary = "Listar ciclos de compensación", description = "Historial paginado por keyset, del más reciente al más antiguo. Filtros opcionales: estado, desde/hasta (fechaApertura, ISO-8601). Página siguiente: antesDe=numeroCiclo del último elemento, también en la cabecera Link rel=next. limite por defecto 50, máximo 500.")
+    public ResponseEntity<List<CicloDTO>> listarCiclos(
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta,
+            @RequestParam(required = false) Integer antesDe,
+            @RequestParam(required = false) Integer limite) {
+        log.info("[APIM] GET /ciclos - estado={} antesDe={} limite={}", estado, antesDe, limite);
+        List<CicloDTO> ciclos = compensacionServicio.listarCiclos(estado, desde, hasta, antesDe, limite);
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok();
+        if (ciclos.size() == CompensacionServicio.tamanoPaginaCiclos(limite)) {
+            // Cursor de la página siguiente (RFC 8288); puede devolver una página vacía
+            String siguiente = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("antesDe", ciclos.get(ciclos.size() - 1).getNumeroCiclo())
+                    .toUriString();
+            respuesta.header(HttpHeaders.LINK, "<" + siguiente + ">; rel=\"next\"");
+        }
+        return respuesta.body(ciclos);
     }
 
     /**
@@ -85,6 +139,17 @@ public class ApimCompensacionControlador {
         return ResponseEntity.ok(compensacionServicio.obtenerPosicionesCiclo(cicloId));
     }
 
+    /**
+     * GET /api/v2/compensation/ciclos/{cicloId}/posiciones/stream
+     * Posiciones en vivo por SSE: snapshot inicial y luego deltas por BIC.
+     */
+    @GetMapping(value = "/ciclos/{cicloId}/posiciones/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Posiciones en vivo (SSE)", description = "Envía un evento 'snapshot' con todas las posiciones del ciclo y después eventos 'delta' solo con los bancos cuyas posiciones cambiaron, agrupados por intervalo.")
+    public SseEmitter suscribirPosiciones(@PathVariable Integer cicloId) {
+        log.info("[APIM] GET /ciclos/{}/posiciones/stream", cicloId);
+        return difusionPosiciones.suscribir(cicloId);
+    }
+
     /**
      * POST /api/v2/compensation/ciclos/{cicloId}/cierre
      * Ejecución manual de cierre de ciclo (Settlement).
@@ -105,20 +170,72 @@ public class ApimCompensacionControlador {
         }
     }
 
+    /**
+     * GET /api/v2/compensation/ciclos/{cicloId}/liquidacion
+     * Descarga del archivo XML de liquidación desde el almacén en disco.
+     */
+    @GetMapping("/ciclos/{cicloId}/liquidacion")
+    @Operation(summary = "Descargar archivo de liquidación", description = "Descarga el XML de liquidación del ciclo. Se sirve comprimido (Content-Encoding: gzip) si el cliente lo acepta. Admite Range (un rango) e If-None-Match sobre el ETag.")
+    public void descargarArchivoLiquidacion(@PathVariable Integer cicloId,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.info("[APIM] GET /ciclos/{}/liquidacion - range={}", cicloId, request.getHeader(HttpHeaders.RANGE));
+        ArchivoLiquidacion archivo = compensacionServicio.obtenerArchivoLiquidacion(cicloId);
+        DescargaArchivo.enviar(compensacionServicio.rutaArchivo(archivo), archivo.getNombreArchivo(),
+                MediaType.APPLICATION_XML_VALUE, archivo.getChecksumSha256(),
+                AlmacenArchivos.GZIP.equals(archivo.getCompresion()), archivo.getTamanoBytes(), request, response);
+    }
+
     /**
      * GET /api/v2/compensation/reporte/pdf/{cicloId}
      * Descarga de reporte PDF de liquidación.
      */
     @GetMapping("/reporte/pdf/{cicloId}")
-    @Operation(summary = "Descargar Reporte PDF de Liquidación", description = "Genera y descarga el reporte PDF con el detalle de compensación del ciclo.")
-    public ResponseEntity<byte[]> descargarReportePDF(@PathVariable Integer cicloId) {
+    @Operation(summary = "Descargar Reporte PDF de Liquidación", description = "Genera y descarga el reporte PDF con el detalle de compensación del ciclo. El de un ciclo cerrado se genera una vez y admite If-None-Match (304).")
+    public void descargarReportePDF(@PathVariable Integer cicloId,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
         log.info("[APIM] GET /reporte/pdf/{}", cicloId);
-        byte[] pdf = compensacionServicio.generarReportePDF(cicloId);
+        // El ETag de un ciclo cerrado no requiere el PDF: el 304 se responde sin generarlo
+        String etag = compensacionServicio.etagReporteCicloCerrado(cicloId);
+        if (etag != null && new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+        ReportePdf cerrado = etag != null ? compensacionServicio.reporteCicloCerrado(cicloId) : null;
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=Reporte_Ciclo_" + cicloId + ".pdf");
+        if (cerrado != null) {
+            response.setHeader(HttpHeaders.ETAG, cerrado.etag());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+            response.setContentLength(cerrado.contenido().length);
+            response.getOutputStream().write(cerrado.contenido());
+            return;
+        }
+        // Ciclo vivo: el PDF se escribe en la respuesta según se genera
+        compensacionServicio.escribirReportePDF(cicloId, response.getOutputStream());
+    }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=Reporte_Ciclo_" + cicloId + ".pdf")
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(pdf);
+    /**
+     * GET /api/v2/compensation/reporte/detalle/{cicloId}
+     * Reporte de auditoría con los detalles de cada posición, en streaming.
+     */
+    @GetMapping("/reporte/detalle/{cicloId}")
+    @Operation(summary = "Descargar Reporte de Detalles", description = "Lista los detalles que componen cada posición neta, agrupados por BIC, en CSV (por defecto) o PDF. Filtros opcionales: bic, tipoOperacion, estadoLiquidacion.")
+    public void descargarReporteDetalles(@PathVariable Integer cicloId,
+            @RequestParam(defaultValue = "csv") String formato,
+            @RequestParam(required = false) String bic,
+            @RequestParam(required = false) String tipoOperacion,
+            @RequestParam(required = false) String estadoLiquidacion,
+            HttpServletResponse response) throws IOException {
+        log.info("[APIM] GET /reporte/detalle/{} formato={} bic={}", cicloId, formato, bic);
+        FiltroDetalles filtro = new FiltroDetalles(bic, tipoOperacion, estadoLiquidacion);
+        reporteDetalles.validar(cicloId, filtro);
+        boolean pdf = "pdf".equalsIgnoreCase(formato);
+        response.setContentType(pdf ? MediaType.APPLICATION_PDF_VALUE : "text/csv;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=Detalle_Ciclo_" + cicloId + (pdf ? ".pdf" : ".csv"));
+        if (pdf) {
+            reporteDetalles.escribirPdf(cicloId, filtro, response.getOutputStream());
+        } else {
+            reporteDetalles.escribirCsv(cicloId, filtro, response.getOutputStream());
+        }
     }
-}
\ No newline at end of file
+}
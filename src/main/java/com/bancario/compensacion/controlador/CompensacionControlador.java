@@ -2,15 +2,35 @@ package com.bancario.compensacion.controlador;
 
 import com.bancario.compensacion.dto.CicloDTO;
 import com.bancario.compensacion.dto.PosicionDTO;
+import com.bancario.compensacion.dto.ResumenLoteDTO;
+import com.bancario.compensacion.modelo.ArchivoLiquidacion;
+import com.bancario.compensacion.modelo.FiltroDetalles;
+import com.bancario.compensacion.modelo.ReportePdf;
+import com.bancario.compensacion.servicio.AlmacenArchivos;
 import com.bancario.compensacion.servicio.CompensacionServicio;
+import com.bancario.compensacion.servicio.DifusionPosiciones;
+import com.bancario.compensacion.servicio.ReporteDetallesServicio;
+import com.bancario.compensacion.servicio.OperacionesLoteServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Slf4j
@@ -21,11 +41,28 @@ import java.util.List;
 public class CompensacionControlador {
 
     private final CompensacionServicio service;
+    private final ReporteDetallesServicio reporteDetalles;
+    private final DifusionPosiciones difusionPosiciones;
+    private final OperacionesLoteServicio loteServicio;
 
     @GetMapping("/ciclos")
-    @Operation(summary = "Listar ciclos", description = "Obtiene el historial de todos los ciclos operativos.")
-    public ResponseEntity<List<CicloDTO>> listarCiclos() {
-        return ResponseEntity.ok(service.listarCiclos());
+    @Operation(summary = "Listar ciclos", description = "Historial paginado por keyset, del más reciente al más antiguo. Filtros opcionales: estado, desde/hasta (fechaApertura, ISO-8601). Página siguiente: antesDe=numeroCiclo del último elemento, también en la cabecera Link rel=next. limite por defecto 50, máximo 500.")
+    public ResponseEntity<List<CicloDTO>> listarCiclos(
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta,
+            @RequestParam(required = false) Integer antesDe,
+            @RequestParam(required = false) Integer limite) {
+        List<CicloDTO> ciclos = service.listarCiclos(estado, desde, hasta, antesDe, limite);
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok();
+        if (ciclos.size() == CompensacionServicio.tamanoPaginaCiclos(limite)) {
+            // Cursor de la página siguiente (RFC 8288); puede devolver una página vacía
+            String siguiente = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("antesDe", ciclos.get(ciclos.size() - 1).getNumeroCiclo())
+                    .toUriString();
+            respuesta.header(HttpHeaders.LINK, "<" + siguiente + ">; rel=\"next\"");
+        }
+        return respuesta.body(ciclos);
     }
 
     @GetMapping("/ciclos/{cicloId}/posiciones")
@@ -34,6 +71,12 @@ public class CompensacionControlador {
         return ResponseEntity.ok(service.obtenerPosicionesCiclo(cicloId));
     }
 
+    @GetMapping(value = "/ciclos/{cicloId}/posiciones/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Posiciones en vivo (SSE)", description = "Envía un evento 'snapshot' con todas las posiciones del ciclo y después eventos 'delta' solo con los bancos cuyas posiciones cambiaron, agrupados por intervalo.")
+    public SseEmitter suscribirPosiciones(@PathVariable Integer cicloId) {
+        return difusionPosiciones.suscribir(cicloId);
+    }
+
     @PostMapping("/ciclos/{cicloId}/acumular")
     @Operation(summary = "INTERNAL: Acumular movimiento (Deprecated)", description = "Use el endpoint sin ID para autodetectar ciclo.")
     public ResponseEntity<Void> acumular(
@@ -61,10 +104,25 @@ public class CompensacionControlador {
     @Operation(summary = "Registrar Operación (Clearing)", description = "Registra una transacción individual para ser compensada en el ciclo abierto.")
     public ResponseEntity<Void> registrarOperacion(
             @RequestBody com.bancario.compensacion.dto.RegistroOperacionDTO req) {
-        service.registrarOperacion(req);
+        try {
+            service.registrarOperacion(req);
+        } catch (DataIntegrityViolationException e) {
+            // Reintento concurrente ya registrado por otra petición: misma respuesta que
+            // un duplicado detectado antes de insertar
+            if (!service.existeInstruccion(req.getIdInstruccion())) {
+                throw e;
+            }
+            log.warn("Operación {} duplicada en paralelo, se responde como ya registrada", req.getIdInstruccion());
+        }
         return ResponseEntity.ok().build();
     }
 
+    @PostMapping(value = "/operaciones/lote", consumes = { "application/x-ndjson", MediaType.APPLICATION_JSON_VALUE })
+    @Operation(summary = "Registrar Operaciones en Lote (Clearing)", description = "Recibe operaciones en NDJSON (una por línea) o como array JSON, las confirma por lotes y devuelve el resumen con las incidencias por registro.")
+    public ResponseEntity<ResumenLoteDTO> registrarOperacionesLote(HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(loteServicio.registrar(request.getInputStream()));
+    }
+
     @PostMapping("/ciclos/{cicloId}/cierre")
     @Operation(summary = "EJECUTAR CIERRE DIARIO (Settlement)", description = "Cierra ciclo actual y programa el siguiente con la duración especificada (o 10 min por defecto).")
     public ResponseEntity<?> cerrarCiclo(
@@ -78,15 +136,57 @@ public class CompensacionControlador {
         }
     }
 
+    @GetMapping("/ciclos/{cicloId}/liquidacion")
+    @Operation(summary = "Descargar Archivo de Liquidación", description = "Descarga el XML de liquidación del ciclo. Se sirve comprimido (Content-Encoding: gzip) si el cliente lo acepta. Admite Range (un rango) e If-None-Match sobre el ETag.")
+    public void descargarArchivoLiquidacion(@PathVariable Integer cicloId,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ArchivoLiquidacion archivo = service.obtenerArchivoLiquidacion(cicloId);
+        DescargaArchivo.enviar(service.rutaArchivo(archivo), archivo.getNombreArchivo(),
+                MediaType.APPLICATION_XML_VALUE, archivo.getChecksumSha256(),
+                AlmacenArchivos.GZIP.equals(archivo.getCompresion()), archivo.getTamanoBytes(), request, response);
+    }
+
     @GetMapping("/reporte/pdf/{cicloId}")
-    @Operation(summary = "Descargar Reporte PDF", description = "Genera visualización imprimible del ciclo.")
-    public ResponseEntity<byte[]> descargarReportePDF(@PathVariable Integer cicloId) {
-        byte[] pdf = service.generarReportePDF(cicloId);
-
-        return ResponseEntity.ok()
-                .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=Reporte_Ciclo_" + cicloId + ".pdf")
-                .contentType(org.springframework.http.MediaType.APPLICATION_PDF)
-                .body(pdf);
+    @Operation(summary = "Descargar Reporte PDF", description = "Genera visualización imprimible del ciclo. El de un ciclo cerrado se genera una vez y admite If-None-Match (304).")
+    public void descargarReportePDF(@PathVariable Integer cicloId,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // El ETag de un ciclo cerrado no requiere el PDF: el 304 se responde sin generarlo
+        String etag = service.etagReporteCicloCerrado(cicloId);
+        if (etag != null && new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+        ReportePdf cerrado = etag != null ? service.reporteCicloCerrado(cicloId) : null;
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=Reporte_Ciclo_" + cicloId + ".pdf");
+        if (cerrado != null) {
+            response.setHeader(HttpHeaders.ETAG, cerrado.etag());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+            response.setContentLength(cerrado.contenido().length);
+            response.getOutputStream().write(cerrado.contenido());
+            return;
+        }
+        // Ciclo vivo: el PDF se escribe en la respuesta según se genera
+        service.escribirReportePDF(cicloId, response.getOutputStream());
+    }
+
+    @GetMapping("/reporte/detalle/{cicloId}")
+    @Operation(summary = "Descargar Reporte de Detalles", description = "Lista los detalles que componen cada posición neta, agrupados por BIC, en CSV (por defecto) o PDF. Filtros opcionales: bic, tipoOperacion, estadoLiquidacion.")
+    public void descargarReporteDetalles(@PathVariable Integer cicloId,
+            @RequestParam(defaultValue = "csv") String formato,
+            @RequestParam(required = false) String bic,
+            @RequestParam(required = false) String tipoOperacion,
+            @RequestParam(required = false) String estadoLiquidacion,
+            HttpServletResponse response) throws IOException {
+        FiltroDetalles filtro = new FiltroDetalles(bic, tipoOperacion, estadoLiquidacion);
+        reporteDetalles.validar(cicloId, filtro);
+        boolean pdf = "pdf".equalsIgnoreCase(formato);
+        response.setContentType(pdf ? MediaType.APPLICATION_PDF_VALUE : "text/csv;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=Detalle_Ciclo_" + cicloId + (pdf ? ".pdf" : ".csv"));
+        if (pdf) {
+            reporteDetalles.escribirPdf(cicloId, filtro, response.getOutputStream());
+        } else {
+            reporteDetalles.escribirCsv(cicloId, filtro, response.getOutputStream());
+        }
     }
 }
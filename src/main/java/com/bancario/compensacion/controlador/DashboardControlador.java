@@ -1,15 +1,14 @@
 package com.bancario.compensacion.controlador;
 
-import com.bancario.compensacion.dto.CicloDTO;
-import com.bancario.compensacion.servicio.CompensacionServicio;
+import com.bancario.compensacion.dto.EstadoMonitorDTO;
+import com.bancario.compensacion.servicio.MonitorSistema;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-
-import java.util.HashMap;
-import java.util.Map;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/api/v1/dashboard")
@@ -18,29 +17,17 @@ import java.util.Map;
 @Tag(name = "Monitor Dashboard", description = "Monitor de estado operacional y semáforos")
 public class DashboardControlador {
 
-    private final CompensacionServicio service;
+    private final MonitorSistema monitor;
 
     @GetMapping("/monitor")
     @Operation(summary = "Monitor Sistema", description = "Endpoint para verificar el estado SEMÁFORO del clearing.")
-    public ResponseEntity<Map<String, Object>> obtenerEstadoMonitor() {
-        Map<String, Object> response = new HashMap<>();
-
-        CicloDTO ciclo = service.listarCiclos().stream()
-                .filter(c -> "ABIERTO".equals(c.getEstado()))
-                .findFirst()
-                .orElse(null);
-
-        if (ciclo != null) {
-            response.put("estadoSistema", "OPERATIVO");
-            response.put("colorSemaforo", "VERDE");
-            response.put("cicloActivo", ciclo.getNumeroCiclo());
-            response.put("horaInicio", ciclo.getFechaApertura());
-        } else {
-            response.put("estadoSistema", "CERRADO");
-            response.put("colorSemaforo", "ROJO");
-            response.put("mensaje", "Esperando inicio de operaciones");
-        }
+    public ResponseEntity<EstadoMonitorDTO> obtenerEstadoMonitor() {
+        return ResponseEntity.ok(monitor.obtener());
+    }
 
-        return ResponseEntity.ok(response);
+    @GetMapping(value = "/monitor/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Monitor Sistema (SSE)", description = "Envía el estado del monitor (evento 'monitor') al conectar y en cada actualización, sin necesidad de sondear.")
+    public SseEmitter suscribirMonitor() {
+        return monitor.suscribir();
     }
 }
@@ -0,0 +1,178 @@
+package com.bancario.compensacion.controlador;
+
+import com.bancario.compensacion.servicio.AlmacenArchivos;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Envío de un archivo del almacén con soporte de Range (un único rango) y ETag.
+ *
+ * Con Tomcat se delega en sendfile, de modo que los bytes van del page cache al
+ * socket sin pasar por la JVM; en otro contenedor se copia con FileChannel.transferTo
+ * sobre el canal de salida de la respuesta. En ningún caso el archivo se carga en el heap.
+ *
+ * Un archivo guardado con gzip se envía tal cual con Content-Encoding: gzip a los
+ * clientes que lo aceptan; al resto se le descomprime al vuelo. Cada representación
+ * tiene su propio ETag y los rangos se refieren a los bytes de la representación enviada.
+ */
+final class DescargaArchivo {
+
+    private static final String SENDFILE_SOPORTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_ARCHIVO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    private DescargaArchivo() {
+    }
+
+    static void enviar(Path archivo, String nombre, String contentType, String checksum, boolean gzip,
+            Long tamanoOriginal, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean enviarGzip = gzip && aceptaGzip(request);
+        boolean descomprimir = gzip && !enviarGzip;
+        String etag = checksum != null ? "\"" + checksum + (enviarGzip ? "-gzip" : "") + "\"" : null;
+
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long longitud = descomprimir ? tamanoOriginal : canal.size();
+
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + nombre);
+            if (gzip) {
+                response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            if (etag != null) {
+                response.setHeader(HttpHeaders.ETAG, etag);
+                if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+
+            long inicio = 0;
+            long fin = longitud - 1;
+            HttpRange rango = rangoSolicitado(request, etag);
+            if (rango != null) {
+                inicio = rango.getRangeStart(longitud);
+                fin = rango.getRangeEnd(longitud);
+                if (inicio >= longitud || inicio > fin) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + longitud);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + inicio + "-" + fin + "/" + longitud);
+            }
+            long cantidad = fin - inicio + 1;
+            response.setContentType(contentType);
+            response.setContentLengthLong(cantidad);
+            if (enviarGzip) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, AlmacenArchivos.GZIP);
+            }
+
+            if ("HEAD".equals(request.getMethod()) || cantidad == 0) {
+                return;
+            }
+            if (descomprimir) {
+                enviarDescomprimido(canal, inicio, cantidad, response);
+                return;
+            }
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SOPORTE))) {
+                request.setAttribute(SENDFILE_ARCHIVO, archivo.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_INICIO, inicio);
+                request.setAttribute(SENDFILE_FIN, fin + 1);
+                return;
+            }
+
+            WritableByteChannel salida = Channels.newChannel(response.getOutputStream());
+            long posicion = inicio;
+            long restante = cantidad;
+            while (restante > 0) {
+                long enviados = canal.transferTo(posicion, restante, salida);
+                posicion += enviados;
+                restante -= enviados;
+            }
+            response.flushBuffer();
+        }
+    }
+
+    private static void enviarDescomprimido(FileChannel canal, long inicio, long cantidad,
+            HttpServletResponse response) throws IOException {
+        InputStream entrada = new GZIPInputStream(Channels.newInputStream(canal), TAMANO_BUFFER);
+        entrada.skipNBytes(inicio);
+        OutputStream salida = response.getOutputStream();
+        byte[] buffer = new byte[TAMANO_BUFFER];
+        long restante = cantidad;
+        while (restante > 0) {
+            int leidos = entrada.read(buffer, 0, (int) Math.min(buffer.length, restante));
+            if (leidos < 0) {
+                throw new IOException("Archivo comprimido más corto que su tamaño registrado");
+            }
+            salida.write(buffer, 0, leidos);
+            restante -= leidos;
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * gzip aparece en Accept-Encoding (directamente o vía *) sin q=0.
+     */
+    private static boolean aceptaGzip(HttpServletRequest request) {
+        String cabecera = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (cabecera == null) {
+            return false;
+        }
+        for (String valor : cabecera.split(",")) {
+            String[] partes = valor.trim().split(";");
+            String codificacion = partes[0].trim();
+            if (!codificacion.equalsIgnoreCase(AlmacenArchivos.GZIP) && !codificacion.equals("*")) {
+                continue;
+            }
+            boolean rechazada = false;
+            for (int i = 1; i < partes.length; i++) {
+                String parametro = partes[i].trim().replace(" ", "");
+                if (parametro.matches("q=0(\\.0{0,3})?")) {
+                    rechazada = true;
+                }
+            }
+            if (!rechazada) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Único rango pedido, o null si no hay cabecera Range, si If-Range no coincide
+     * con el ETag actual o si se piden varios rangos (se responde el archivo completo).
+     */
+    private static HttpRange rangoSolicitado(HttpServletRequest request, String etag) {
+        String cabecera = request.getHeader(HttpHeaders.RANGE);
+        if (cabecera == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> rangos = HttpRange.parseRanges(cabecera);
+            return rangos.size() == 1 ? rangos.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
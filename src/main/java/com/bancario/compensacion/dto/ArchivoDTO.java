@@ -9,6 +9,8 @@ import java.time.LocalDateTime;
 public class ArchivoDTO {
     private Long id;
     private String nombre;
-    private String contenidoXml;
+    private Long tamanoBytes;
+    private String checksumSha256;
+    private String compresion;
     private LocalDateTime fechaGeneracion;
 }
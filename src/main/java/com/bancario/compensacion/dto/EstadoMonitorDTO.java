@@ -0,0 +1,22 @@
+package com.bancario.compensacion.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EstadoMonitorDTO {
+    private String estadoSistema; // OPERATIVO, CONGESTIONADO, CERRADO
+    private String colorSemaforo; // VERDE, AMARILLO, ROJO
+    private Integer cicloActivo;
+    private LocalDateTime horaInicio;
+    private Long operaciones; // estimadas por el rango de idDetalle del ciclo
+    private Double operacionesPorSegundo;
+    private Long mensajesEnCola; // pendientes en q.switch.compensacion.in
+    private Double retrasoIngestaSeg; // tiempo estimado para vaciar la cola al ritmo actual
+    private String mensaje;
+    private LocalDateTime actualizado;
+}
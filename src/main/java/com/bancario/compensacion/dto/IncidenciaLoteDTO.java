@@ -0,0 +1,14 @@
+package com.bancario.compensacion.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.util.UUID;
+
+@Data
+@Builder
+public class IncidenciaLoteDTO {
+    private long indice; // posición del registro en el cuerpo (base 0)
+    private UUID idInstruccion;
+    private String estado; // DUPLICADO, RECHAZADO
+    private String motivo;
+}
@@ -0,0 +1,23 @@
+package com.bancario.compensacion.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.util.List;
+
+/**
+ * Resultado de POST /operaciones/lote. Los registros que no aparecen en
+ * incidencias quedaron ACEPTADOS.
+ */
+@Data
+@Builder
+public class ResumenLoteDTO {
+    private long recibidos;
+    private long aceptados;
+    private long duplicados;
+    private long rechazados;
+    private int lotes;
+    private long milisegundos;
+    private List<IncidenciaLoteDTO> incidencias;
+    private boolean incidenciasTruncadas;
+    private String error; // JSON mal formado: se detuvo la lectura en ese punto
+}
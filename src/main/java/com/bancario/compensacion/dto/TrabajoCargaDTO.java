@@ -0,0 +1,28 @@
+package com.bancario.compensacion.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+public class TrabajoCargaDTO {
+    private UUID jobId;
+    private String estado;
+    private String nombreArchivo;
+    private Long tamanoArchivo;
+    private Long bytesProcesados;
+    private Double progreso; // porcentaje de bytes confirmados
+    private Long registrosLeidos;
+    private Long registrosInsertados;
+    private Long registrosDuplicados;
+    private Long registrosRechazados;
+    private Long registrosPorSegundo;
+    private List<String> errores;
+    private String mensajeError;
+    private LocalDateTime fechaCreacion;
+    private LocalDateTime fechaInicio;
+    private LocalDateTime fechaFin;
+}
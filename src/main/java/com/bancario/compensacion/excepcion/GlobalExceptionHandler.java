@@ -2,8 +2,13 @@ package com.bancario.compensacion.excepcion;
 
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
@@ -19,6 +24,33 @@ public class GlobalExceptionHandler {
         return buildResponse(HttpStatus.BAD_REQUEST, "BUSINESS_ERROR", ex.getMessage(), request);
     }
 
+    /**
+     * Violación de una restricción (p. ej. instrucción ya registrada): conflicto con
+     * el estado actual, no un error del servidor.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<ErrorDTO> handleConflicto(DataIntegrityViolationException ex, HttpServletRequest request) {
+        log.warn("[COMPENSACION] Conflicto de integridad. URI: {} ({})", request.getRequestURI(),
+                ex.getMostSpecificCause().getMessage());
+        return buildResponse(HttpStatus.CONFLICT, "CONFLICT", "El registro entra en conflicto con uno existente",
+                request);
+    }
+
+    /**
+     * Sin conexión a la base de datos (pool o límite de hilos virtuales agotado, o
+     * base de datos caída): es transitorio, así que 503 con Retry-After.
+     */
+    @ExceptionHandler({ CannotCreateTransactionException.class, DataAccessResourceFailureException.class,
+            TransientDataAccessResourceException.class })
+    public ResponseEntity<ErrorDTO> handleSinConexion(RuntimeException ex, HttpServletRequest request) {
+        log.warn("[COMPENSACION] Petición rechazada por saturación. URI: {} ({})", request.getRequestURI(),
+                ex.getMessage());
+        ResponseEntity<ErrorDTO> respuesta = buildResponse(HttpStatus.SERVICE_UNAVAILABLE, "SERVICE_UNAVAILABLE",
+                "Servicio saturado", request);
+        return ResponseEntity.status(respuesta.getStatusCode()).header(HttpHeaders.RETRY_AFTER, "1")
+                .body(respuesta.getBody());
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ErrorDTO> handleGenericException(Exception ex, HttpServletRequest request) {
         log.error("Error Crítico del Sistema: ", ex);
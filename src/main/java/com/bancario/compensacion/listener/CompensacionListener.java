@@ -5,11 +5,14 @@ import com.bancario.compensacion.servicio.CompensacionServicio;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "compensacion.rabbit.lote.habilitado", havingValue = "false", matchIfMissing = true)
 public class CompensacionListener {
 
     private final CompensacionServicio compensacionServicio;
@@ -20,6 +23,14 @@ public class CompensacionListener {
         try {
             compensacionServicio.registrarOperacion(dto);
             log.info("RabbitMQ: Operación procesada exitosamente.");
+        } catch (DataIntegrityViolationException e) {
+            // Reentrega ya registrada por otra réplica: se confirma sin reprocesar
+            if (compensacionServicio.existeInstruccion(dto.getIdInstruccion())) {
+                log.warn("RabbitMQ: Operación {} duplicada, se descarta.", dto.getIdInstruccion());
+                return;
+            }
+            log.error("RabbitMQ: Error procesando operación: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             log.error("RabbitMQ: Error procesando operación: {}", e.getMessage());
             // Throw exception to potentially trigger retry/DLQ if configured
@@ -0,0 +1,102 @@
+package com.bancario.compensacion.listener;
+
+import com.bancario.compensacion.dto.RegistroOperacionDTO;
+import com.bancario.compensacion.servicio.CompensacionServicio;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumidor por lotes de q.switch.compensacion.in.
+ * Registra todo el lote en una sola transacción y lo confirma con un único ACK.
+ * Si el lote falla, reprocesa mensaje a mensaje para aislar el registro defectuoso.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "compensacion.rabbit.lote.habilitado", havingValue = "true")
+public class CompensacionLoteListener {
+
+    private final CompensacionServicio compensacionServicio;
+    private final ObjectMapper objectMapper;
+
+    @RabbitListener(queues = "q.switch.compensacion.in", containerFactory = "rabbitLoteListenerContainerFactory")
+    public void recibirLote(List<Message> mensajes, Channel channel) throws IOException {
+        List<RegistroOperacionDTO> operaciones = new ArrayList<>(mensajes.size());
+        List<Long> tags = new ArrayList<>(mensajes.size());
+
+        for (Message mensaje : mensajes) {
+            long tag = mensaje.getMessageProperties().getDeliveryTag();
+            try {
+                operaciones.add(objectMapper.readValue(mensaje.getBody(), RegistroOperacionDTO.class));
+                tags.add(tag);
+            } catch (IOException e) {
+                log.error("RabbitMQ: Mensaje ilegible descartado (tag {}): {}", tag, e.getMessage());
+                channel.basicNack(tag, false, false);
+            }
+        }
+
+        if (operaciones.isEmpty()) {
+            return;
+        }
+
+        try {
+            compensacionServicio.registrarLote(operaciones);
+            channel.basicAck(tags.get(tags.size() - 1), true);
+            log.info("RabbitMQ: Lote de {} operaciones procesado exitosamente.", operaciones.size());
+        } catch (Exception e) {
+            log.warn("RabbitMQ: Falló el lote de {} operaciones ({}). Reprocesando individualmente.",
+                    operaciones.size(), e.getMessage());
+            procesarIndividualmente(operaciones, tags, channel);
+        }
+    }
+
+    private void procesarIndividualmente(List<RegistroOperacionDTO> operaciones, List<Long> tags, Channel channel)
+            throws IOException {
+        for (int i = 0; i < operaciones.size(); i++) {
+            RegistroOperacionDTO dto = operaciones.get(i);
+            long tag = tags.get(i);
+            try {
+                compensacionServicio.registrarOperacion(dto);
+                channel.basicAck(tag, false);
+            } catch (DataIntegrityViolationException e) {
+                boolean duplicada = compensacionServicio.existeInstruccion(dto.getIdInstruccion());
+                log.warn("RabbitMQ: Operación {} rechazada por integridad (duplicada={})",
+                        dto.getIdInstruccion(), duplicada);
+                if (duplicada) {
+                    channel.basicAck(tag, false);
+                } else {
+                    channel.basicNack(tag, false, false);
+                }
+            } catch (Exception e) {
+                boolean reintentable = esReintentable(e);
+                log.error("RabbitMQ: Error procesando operación {} (reencolar={}): {}",
+                        dto.getIdInstruccion(), reintentable, e.getMessage());
+                channel.basicNack(tag, false, reintentable);
+            }
+        }
+    }
+
+    /**
+     * Fallos de infraestructura (BD caída, timeouts) se reencolan; los errores de
+     * negocio se rechazan para que no bloqueen la cola.
+     */
+    private boolean esReintentable(Exception e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof CannotCreateTransactionException;
+    }
+}
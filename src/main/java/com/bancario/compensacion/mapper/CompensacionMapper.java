@@ -3,10 +3,15 @@ package com.bancario.compensacion.mapper;
 import com.bancario.compensacion.dto.CicloDTO;
 import com.bancario.compensacion.dto.PosicionDTO;
 import com.bancario.compensacion.dto.ArchivoDTO;
+import com.bancario.compensacion.dto.TrabajoCargaDTO;
 import com.bancario.compensacion.modelo.ArchivoLiquidacion;
 import com.bancario.compensacion.modelo.CicloCompensacion;
 import com.bancario.compensacion.modelo.PosicionInstitucion;
+import com.bancario.compensacion.modelo.TrabajoCarga;
 import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -44,11 +49,54 @@ public class CompensacionMapper {
         return ArchivoDTO.builder()
                 .id(entity.getIdArchivo())
                 .nombre(entity.getNombreArchivo())
-                .contenidoXml(entity.getContenidoXml())
+                .tamanoBytes(entity.getTamanoBytes())
+                .checksumSha256(entity.getChecksumSha256())
+                .compresion(entity.getCompresion())
                 .fechaGeneracion(entity.getFechaGeneracion())
                 .build();
     }
 
+    public TrabajoCargaDTO toDTO(TrabajoCarga entity) {
+        if (entity == null)
+            return null;
+        long leidos = valor(entity.getRegistrosLeidos());
+        long insertados = valor(entity.getRegistrosInsertados());
+        long rechazados = valor(entity.getRegistrosRechazados());
+        long tamano = valor(entity.getTamanoArchivo());
+        long bytes = valor(entity.getBytesConfirmados());
+
+        Long porSegundo = null;
+        if (entity.getFechaInicio() != null) {
+            LocalDateTime hasta = entity.getFechaFin() != null ? entity.getFechaFin() : entity.getFechaActualizacion();
+            long ms = hasta != null ? Duration.between(entity.getFechaInicio(), hasta).toMillis() : 0;
+            porSegundo = ms > 0 ? (leidos + rechazados) * 1000 / ms : 0L;
+        }
+
+        return TrabajoCargaDTO.builder()
+                .jobId(entity.getIdTrabajo())
+                .estado(entity.getEstado())
+                .nombreArchivo(entity.getNombreArchivo())
+                .tamanoArchivo(tamano)
+                .bytesProcesados(bytes)
+                .progreso(tamano > 0 ? Math.round(bytes * 10000.0 / tamano) / 100.0 : 100.0)
+                .registrosLeidos(leidos)
+                .registrosInsertados(insertados)
+                .registrosDuplicados(leidos - insertados)
+                .registrosRechazados(rechazados)
+                .registrosPorSegundo(porSegundo)
+                .errores(entity.getErrores() == null || entity.getErrores().isEmpty()
+                        ? List.of() : List.of(entity.getErrores().split("\n")))
+                .mensajeError(entity.getMensajeError())
+                .fechaCreacion(entity.getFechaCreacion())
+                .fechaInicio(entity.getFechaInicio())
+                .fechaFin(entity.getFechaFin())
+                .build();
+    }
+
+    private static long valor(Long v) {
+        return v != null ? v : 0L;
+    }
+
     public List<PosicionDTO> toPosicionList(List<PosicionInstitucion> entities) {
         if (entities == null)
             return List.of();
@@ -0,0 +1,9 @@
+package com.bancario.compensacion.modelo;
+
+/**
+ * Archivo escrito en el almacén: ruta relativa al directorio base, tamaño en
+ * bytes y SHA-256 en hexadecimal del contenido sin comprimir, y compresión
+ * aplicada en disco (null si ninguna).
+ */
+public record ArchivoAlmacenado(String ruta, long tamanoBytes, String checksumSha256, String compresion) {
+}
@@ -22,8 +22,20 @@ public class ArchivoLiquidacion {
     @Column(name = "nombreArchivo")
     private String nombreArchivo;
 
-    @Column(name = "contenidoXml", columnDefinition = "TEXT")
-    private String contenidoXml;
+    /** Ruta relativa al directorio de compensacion.archivos.directorio. */
+    @Column(name = "rutaArchivo")
+    private String rutaArchivo;
+
+    /** Tamaño y SHA-256 del XML sin comprimir. */
+    @Column(name = "tamanoBytes")
+    private Long tamanoBytes;
+
+    @Column(name = "checksumSha256", length = 64)
+    private String checksumSha256;
+
+    /** Compresión del archivo en disco (gzip) o null si está sin comprimir. */
+    @Column(name = "compresion", length = 10)
+    private String compresion;
 
     @Column(name = "fechaGeneracion")
     private LocalDateTime fechaGeneracion;
@@ -6,7 +6,9 @@ import lombok.Setter;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "cicloCompensacion")
+@Table(name = "cicloCompensacion", indexes = {
+        @Index(name = "ixCicloEstadoNumero", columnList = "estado, numeroCiclo"),
+        @Index(name = "ixCicloApertura", columnList = "fechaApertura") })
 @Getter
 @Setter
 public class CicloCompensacion {
@@ -15,15 +17,19 @@ public class CicloCompensacion {
     @Column(name = "idCiclo")
     private Integer idCiclo;
 
-    @Column(name = "numeroCiclo")
+    @Column(name = "numeroCiclo", unique = true)
     private Integer numeroCiclo;
 
     @Column(length = 20)
-    private String estado; // OPEN, CLOSED, SETTLED
+    private String estado; // ABIERTO, CERRANDO, LIQUIDANDO, CERRADO
 
     @Column(name = "fechaApertura")
     private LocalDateTime fechaApertura;
 
     @Column(name = "fechaCierre")
     private LocalDateTime fechaCierre;
+
+    // Último idDetalle al cortar el ciclo; los posteriores se trasladan al siguiente
+    @Column(name = "detalleCorte")
+    private Long detalleCorte;
 }
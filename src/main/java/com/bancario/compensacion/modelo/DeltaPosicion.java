@@ -0,0 +1,9 @@
+package com.bancario.compensacion.modelo;
+
+import java.math.BigDecimal;
+
+/**
+ * Incremento de débitos/créditos a aplicar sobre la posición de un BIC.
+ */
+public record DeltaPosicion(String bic, BigDecimal debitos, BigDecimal creditos) {
+}
@@ -6,7 +6,15 @@ import java.math.BigDecimal;
 import java.util.UUID;
 
 @Entity
-@Table(name = "detalleCompensacion")
+// uxDetalleInstruccion (único sobre idInstruccion) se crea en db/esquema.sql tras
+// apartar los duplicados previos
+// ixDetalleCiclo: cursor del neteo y recuento por ciclo (index-only scan).
+// ixDetalleCicloEmisor / ixDetalleCicloReceptor: cada rama del informe por BIC se lee
+// ya ordenada por bic e idDetalle
+@Table(name = "detalleCompensacion", indexes = {
+        @Index(name = "ixDetalleCiclo", columnList = "idCiclo, idDetalle"),
+        @Index(name = "ixDetalleCicloEmisor", columnList = "idCiclo, bicEmisor, idDetalle"),
+        @Index(name = "ixDetalleCicloReceptor", columnList = "idCiclo, bicReceptor, idDetalle") })
 @Data
 public class DetalleCompensacion {
 
@@ -43,4 +51,8 @@ public class DetalleCompensacion {
     // Código de referencia bancario de 6 dígitos para devoluciones
     @Column(name = "codigoReferencia", length = 6)
     private String codigoReferencia;
+
+    // idInstruccion de un detalle repetido anterior al índice único; el original conserva la clave
+    @Column(name = "idInstruccionDuplicada")
+    private UUID idInstruccionDuplicada;
 }
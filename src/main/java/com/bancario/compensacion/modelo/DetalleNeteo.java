@@ -0,0 +1,8 @@
+package com.bancario.compensacion.modelo;
+
+/**
+ * Proyección mínima de un DetalleCompensacion para el neteo: no es una entidad
+ * gestionada ni arrastra el ciclo asociado. El monto llega ya en centavos.
+ */
+public record DetalleNeteo(String tipoOperacion, String bicEmisor, String bicReceptor, Long montoCentavos) {
+}
@@ -0,0 +1,27 @@
+package com.bancario.compensacion.modelo;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Detalle visto desde una de sus dos instituciones: cada operación aparece una vez
+ * bajo el BIC emisor (rol EMISOR) y otra bajo el receptor (rol RECEPTOR).
+ */
+public record DetalleReporte(String bic, String rol, Long idDetalle, UUID idInstruccion, String tipoOperacion,
+        String contraparte, BigDecimal monto, String estadoLiquidacion, String codigoReferencia) {
+
+    /**
+     * Débito para el BIC del grupo: el emisor de un PAGO o el receptor de un REVERSO.
+     */
+    public boolean esDebito() {
+        return "REVERSO".equalsIgnoreCase(tipoOperacion) != "EMISOR".equals(rol);
+    }
+
+    /**
+     * Mismo criterio que el neteo: sin estado, o distinto de EXCLUIDO/PENDIENTE.
+     */
+    public boolean esLiquidable() {
+        return estadoLiquidacion == null
+                || !("EXCLUIDO".equalsIgnoreCase(estadoLiquidacion) || "PENDIENTE".equalsIgnoreCase(estadoLiquidacion));
+    }
+}
@@ -0,0 +1,8 @@
+package com.bancario.compensacion.modelo;
+
+/**
+ * Filtros opcionales del reporte de detalles; null no filtra. El tipo y el estado
+ * se comparan sin distinguir mayúsculas.
+ */
+public record FiltroDetalles(String bic, String tipoOperacion, String estadoLiquidacion) {
+}
@@ -0,0 +1,56 @@
+package com.bancario.compensacion.modelo;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Bandeja de salida (outbox) hacia MS-CONTABILIDAD. Se inserta en la misma
+ * transacción que cierra el ciclo y la entrega DespachoContabilidad; idMensaje
+ * viaja como Idempotency-Key, así que un reenvío tras un fallo es seguro.
+ */
+@Entity
+@Table(name = "mensajeSalida", indexes = {
+        @Index(name = "ixMensajeSalidaPendiente", columnList = "estado, proximoIntento") })
+@Getter
+@Setter
+public class MensajeSalida {
+    @Id
+    @Column(name = "idMensaje")
+    private UUID idMensaje;
+
+    @Column(length = 40)
+    private String tipo; // LIQUIDACION_CICLO
+
+    @Column(name = "idCiclo")
+    private Integer idCiclo;
+
+    @Column(name = "parte")
+    private Integer parte;
+
+    @Column(name = "totalPartes")
+    private Integer totalPartes;
+
+    @Column(name = "carga", columnDefinition = "TEXT")
+    private String carga;
+
+    @Column(length = 20)
+    private String estado; // PENDIENTE, ENVIADO, FALLIDO
+
+    @Column(name = "intentos")
+    private Integer intentos;
+
+    @Column(name = "proximoIntento")
+    private LocalDateTime proximoIntento;
+
+    @Column(name = "ultimoError", length = 500)
+    private String ultimoError;
+
+    @Column(name = "fechaCreacion")
+    private LocalDateTime fechaCreacion;
+
+    @Column(name = "fechaEnvio")
+    private LocalDateTime fechaEnvio;
+}
@@ -6,7 +6,8 @@ import lombok.Setter;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "posicionInstitucion")
+@Table(name = "posicionInstitucion", uniqueConstraints = @UniqueConstraint(name = "uxPosicionCicloBic", columnNames = {
+        "idCiclo", "bic" }))
 @Getter
 @Setter
 public class PosicionInstitucion {
@@ -0,0 +1,7 @@
+package com.bancario.compensacion.modelo;
+
+/**
+ * Primer y último idDetalle de un ciclo; ambos nulos si el ciclo no tiene detalles.
+ */
+public record RangoDetalles(Long desde, Long hasta) {
+}
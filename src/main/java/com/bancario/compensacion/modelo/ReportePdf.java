@@ -0,0 +1,7 @@
+package com.bancario.compensacion.modelo;
+
+/**
+ * PDF ya generado de un ciclo cerrado y su ETag débil, derivado del ciclo y de su cierre.
+ */
+public record ReportePdf(byte[] contenido, String etag) {
+}
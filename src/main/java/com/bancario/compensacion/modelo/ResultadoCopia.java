@@ -0,0 +1,8 @@
+package com.bancario.compensacion.modelo;
+
+/**
+ * Resultado de una carga por COPY: filas copiadas a la tabla de carga, detalles
+ * efectivamente insertados (sin duplicados) y posiciones actualizadas.
+ */
+public record ResultadoCopia(long copiados, long insertados, long posiciones) {
+}
@@ -0,0 +1,82 @@
+package com.bancario.compensacion.modelo;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Carga asíncrona de un archivo de compensación. bytesConfirmados marca el
+ * final del último tramo confirmado: se actualiza en la misma transacción que
+ * inserta sus detalles, por lo que un reinicio continúa desde ahí.
+ * nodo y arrendadoHasta identifican la réplica que lo procesa: otra solo lo
+ * retoma cuando el arriendo ha vencido.
+ */
+@Entity
+@Table(name = "trabajoCarga")
+@Getter
+@Setter
+public class TrabajoCarga {
+    @Id
+    @Column(name = "idTrabajo")
+    private UUID idTrabajo;
+
+    @Column(name = "nombreArchivo")
+    private String nombreArchivo;
+
+    @Column(name = "rutaArchivo", length = 500)
+    private String rutaArchivo;
+
+    @Column(name = "fechaCompensacion", length = 20)
+    private String fechaCompensacion;
+
+    @Column(length = 20)
+    private String estado; // PENDIENTE, PROCESANDO, COMPLETADO, FALLIDO
+
+    @Column(name = "tamanoArchivo")
+    private Long tamanoArchivo;
+
+    @Column(name = "tamanoTramo")
+    private Long tamanoTramo;
+
+    @Column(name = "nodo", length = 100)
+    private String nodo;
+
+    @Column(name = "arrendadoHasta")
+    private LocalDateTime arrendadoHasta;
+
+    @Column(name = "bytesConfirmados")
+    private Long bytesConfirmados;
+
+    @Column(name = "lineasConfirmadas")
+    private Long lineasConfirmadas;
+
+    @Column(name = "registrosLeidos")
+    private Long registrosLeidos;
+
+    @Column(name = "registrosInsertados")
+    private Long registrosInsertados;
+
+    @Column(name = "registrosRechazados")
+    private Long registrosRechazados;
+
+    // Primeros errores de validación, uno por línea
+    @Column(name = "errores", columnDefinition = "TEXT")
+    private String errores;
+
+    @Column(name = "mensajeError", length = 500)
+    private String mensajeError;
+
+    @Column(name = "fechaCreacion")
+    private LocalDateTime fechaCreacion;
+
+    @Column(name = "fechaInicio")
+    private LocalDateTime fechaInicio;
+
+    @Column(name = "fechaActualizacion")
+    private LocalDateTime fechaActualizacion;
+
+    @Column(name = "fechaFin")
+    private LocalDateTime fechaFin;
+}
@@ -2,8 +2,30 @@ package com.bancario.compensacion.repositorio;
 
 import com.bancario.compensacion.modelo.ArchivoLiquidacion;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
-public interface ArchivoLiquidacionRepositorio extends JpaRepository<ArchivoLiquidacion, Integer> {
+public interface ArchivoLiquidacionRepositorio extends JpaRepository<ArchivoLiquidacion, Integer>,
+        ArchivoLiquidacionRepositorioCustom {
+
+    Optional<ArchivoLiquidacion> findFirstByCicloIdCicloOrderByIdArchivoDesc(Integer idCiclo);
+
+    /**
+     * Contenido de los archivos anteriores al almacén en disco. La columna no está
+     * mapeada en la entidad para que listar o cerrar ciclos no la cargue; la crea
+     * db/esquema.sql.
+     */
+    @Query(value = "SELECT contenidoXml FROM archivoLiquidacion WHERE idArchivo = :idArchivo", nativeQuery = true)
+    String leerContenidoXml(@Param("idArchivo") Long idArchivo);
+
+    /**
+     * Copia durable del archivo comprimido; el almacén en disco solo la sirve. Se lee
+     * aparte por el mismo motivo que contenidoXml.
+     */
+    @Query(value = "SELECT contenidoGzip FROM archivoLiquidacion WHERE idArchivo = :idArchivo", nativeQuery = true)
+    byte[] leerContenidoGzip(@Param("idArchivo") Long idArchivo);
 }
@@ -0,0 +1,13 @@
+package com.bancario.compensacion.repositorio;
+
+import java.nio.file.Path;
+
+public interface ArchivoLiquidacionRepositorioCustom {
+
+    /**
+     * Guarda el gzip en streaming desde el archivo en disco y, en la misma
+     * sentencia, libera el XML antiguo: nunca queda la fila sin una copia del
+     * contenido ni se carga el archivo completo en memoria.
+     */
+    int guardarContenidoGzip(Long idArchivo, Path gzip);
+}
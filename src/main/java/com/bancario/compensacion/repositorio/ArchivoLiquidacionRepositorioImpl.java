@@ -0,0 +1,35 @@
+package com.bancario.compensacion.repositorio;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ArchivoLiquidacionRepositorioImpl implements ArchivoLiquidacionRepositorioCustom {
+
+    private static final String GUARDAR_GZIP = "UPDATE archivoLiquidacion SET contenidoGzip = ?, contenidoXml = NULL "
+            + "WHERE idArchivo = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ArchivoLiquidacionRepositorioImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int guardarContenidoGzip(Long idArchivo, Path gzip) {
+        try (InputStream contenido = Files.newInputStream(gzip)) {
+            long tamano = Files.size(gzip);
+            // Con la longitud conocida el driver envía el flujo por el socket sin materializarlo
+            return jdbcTemplate.update(GUARDAR_GZIP, ps -> {
+                ps.setBinaryStream(1, contenido, tamano);
+                ps.setLong(2, idArchivo);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer " + gzip, e);
+        }
+    }
+}
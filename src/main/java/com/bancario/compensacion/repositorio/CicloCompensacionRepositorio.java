@@ -1,12 +1,34 @@
 package com.bancario.compensacion.repositorio;
 
 import com.bancario.compensacion.modelo.CicloCompensacion;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface CicloCompensacionRepositorio extends JpaRepository<CicloCompensacion, Integer> {
+public interface CicloCompensacionRepositorio extends JpaRepository<CicloCompensacion, Integer>,
+        CicloCompensacionRepositorioCustom {
     Optional<CicloCompensacion> findByEstado(String estado);
+
+    /**
+     * Lee el ciclo con SELECT ... FOR UPDATE para serializar las fases de cierre.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from CicloCompensacion c where c.idCiclo = :idCiclo")
+    Optional<CicloCompensacion> bloquearPorId(@Param("idCiclo") Integer idCiclo);
+
+    /**
+     * FOR SHARE SKIP LOCKED: omite los ciclos que un corte o una liquidación tienen
+     * bloqueados en ese momento, en lugar de esperarlos.
+     */
+    @Query(value = "SELECT * FROM cicloCompensacion WHERE idCiclo IN (:ids) FOR SHARE SKIP LOCKED",
+            nativeQuery = true)
+    List<CicloCompensacion> bloquearCompartidosSinEspera(@Param("ids") Collection<Integer> ids);
 }
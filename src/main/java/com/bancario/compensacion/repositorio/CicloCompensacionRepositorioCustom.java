@@ -0,0 +1,17 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface CicloCompensacionRepositorioCustom {
+
+    /**
+     * Página del historial por keyset: ciclos con numeroCiclo menor que antesDe (o
+     * los más recientes si es null), de mayor a menor número. Los filtros nulos se
+     * omiten de la consulta para que cada combinación use su índice.
+     */
+    List<CicloCompensacion> buscarPagina(String estado, LocalDateTime desde, LocalDateTime hasta, Integer antesDe,
+            int limite);
+}
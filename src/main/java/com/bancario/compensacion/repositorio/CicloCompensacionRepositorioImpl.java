@@ -0,0 +1,45 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CicloCompensacionRepositorioImpl implements CicloCompensacionRepositorioCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<CicloCompensacion> buscarPagina(String estado, LocalDateTime desde, LocalDateTime hasta,
+            Integer antesDe, int limite) {
+        StringBuilder jpql = new StringBuilder("select c from CicloCompensacion c where 1 = 1");
+        Map<String, Object> parametros = new LinkedHashMap<>();
+        if (estado != null) {
+            jpql.append(" and c.estado = :estado");
+            parametros.put("estado", estado);
+        }
+        if (desde != null) {
+            jpql.append(" and c.fechaApertura >= :desde");
+            parametros.put("desde", desde);
+        }
+        if (hasta != null) {
+            jpql.append(" and c.fechaApertura < :hasta");
+            parametros.put("hasta", hasta);
+        }
+        if (antesDe != null) {
+            jpql.append(" and c.numeroCiclo < :antesDe");
+            parametros.put("antesDe", antesDe);
+        }
+        jpql.append(" order by c.numeroCiclo desc");
+
+        TypedQuery<CicloCompensacion> query = entityManager.createQuery(jpql.toString(), CicloCompensacion.class);
+        parametros.forEach(query::setParameter);
+        return query.setMaxResults(limite).getResultList();
+    }
+}
@@ -1,13 +1,63 @@
 package com.bancario.compensacion.repositorio;
 
 import com.bancario.compensacion.modelo.DetalleCompensacion;
+import com.bancario.compensacion.modelo.DetalleNeteo;
+import com.bancario.compensacion.modelo.RangoDetalles;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
-public interface DetalleCompensacionRepositorio extends JpaRepository<DetalleCompensacion, Long> {
+public interface DetalleCompensacionRepositorio extends JpaRepository<DetalleCompensacion, Long>,
+        DetalleCompensacionRepositorioCustom {
     List<DetalleCompensacion> findByCicloIdCiclo(Integer idCiclo);
 
     List<DetalleCompensacion> findByIdInstruccion(UUID idInstruccion);
+
+    boolean existsByIdInstruccion(UUID idInstruccion);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "10000"))
+    @Query("select d.idInstruccion from DetalleCompensacion d "
+            + "where d.ciclo.idCiclo = :idCiclo and d.idInstruccion is not null")
+    Stream<UUID> streamInstruccionesPorCiclo(@Param("idCiclo") Integer idCiclo);
+
+    @Query("select new com.bancario.compensacion.modelo.RangoDetalles(min(d.idDetalle), max(d.idDetalle)) "
+            + "from DetalleCompensacion d where d.ciclo.idCiclo = :idCiclo")
+    RangoDetalles rangoPorCiclo(@Param("idCiclo") Integer idCiclo);
+
+    /**
+     * Detalles del ciclo. Solo lee ixDetalleCiclo (index-only scan) sin visitar la
+     * tabla mientras el mapa de visibilidad esté al día.
+     */
+    @Query(value = "SELECT count(*) FROM detalleCompensacion WHERE idCiclo = :idCiclo", nativeQuery = true)
+    long contarPorCiclo(@Param("idCiclo") Integer idCiclo);
+
+    /**
+     * Último idDetalle asignado; marca el corte de un ciclo.
+     */
+    @Query(value = "SELECT coalesce(max(idDetalle), 0) FROM detalleCompensacion", nativeQuery = true)
+    long ultimoIdDetalle();
+
+    /**
+     * Recorre los detalles liquidables de un tramo de idDetalle de un ciclo con un
+     * cursor de solo avance. Debe consumirse dentro de una transacción y cerrarse
+     * (try-with-resources).
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "5000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select new com.bancario.compensacion.modelo.DetalleNeteo(d.tipoOperacion, d.bicEmisor, d.bicReceptor, "
+            + "cast(d.monto * 100 as Long)) "
+            + "from DetalleCompensacion d where d.ciclo.idCiclo = :idCiclo "
+            + "and d.idDetalle between :desde and :hasta "
+            + "and (d.estadoLiquidacion is null or upper(d.estadoLiquidacion) not in ('EXCLUIDO', 'PENDIENTE'))")
+    Stream<DetalleNeteo> streamNeteoPorTramo(@Param("idCiclo") Integer idCiclo, @Param("desde") Long desde,
+            @Param("hasta") Long hasta);
 }
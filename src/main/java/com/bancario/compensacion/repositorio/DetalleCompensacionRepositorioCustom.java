@@ -0,0 +1,55 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.DetalleCompensacion;
+import com.bancario.compensacion.modelo.DetalleReporte;
+import com.bancario.compensacion.modelo.FiltroDetalles;
+import com.bancario.compensacion.modelo.ResultadoCopia;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface DetalleCompensacionRepositorioCustom {
+
+    /**
+     * Inserta los detalles con INSERT multi-fila por JDBC, sin pasar por el
+     * contexto de persistencia: con IDENTITY Hibernate haría un viaje por fila.
+     * Los detalles no quedan gestionados ni reciben su idDetalle.
+     */
+    int insertarLote(List<DetalleCompensacion> detalles);
+
+    /**
+     * Carga masiva por COPY, primera fase: el escritor vuelca filas CSV
+     * (idInstruccion, idInstruccionOriginal, tipoOperacion, bicEmisor, bicReceptor,
+     * monto, codigoReferencia) a una tabla temporal, sin tocar el ciclo. Devuelve
+     * las filas copiadas. Debe ejecutarse dentro de una transacción.
+     */
+    long copiarACarga(EscritorCopia escritor);
+
+    /**
+     * Segunda fase, en la misma transacción que copiarACarga: una única sentencia
+     * inserta los detalles nuevos de la tabla temporal en el ciclo y aplica sus
+     * deltas agregados por BIC.
+     */
+    ResultadoCopia volcarCarga(Integer idCiclo, long copiados);
+
+    /**
+     * Traslada al ciclo destino los detalles del ciclo con idDetalle posterior a la
+     * marca de corte y suma sus deltas a las posiciones del destino, en una sola
+     * sentencia. Devuelve los detalles movidos.
+     */
+    long moverTardios(Integer idCiclo, long detalleCorte, Integer idCicloDestino);
+
+    /**
+     * Detalles del ciclo agrupados por BIC (ordenados por BIC e idDetalle), cada uno
+     * bajo su emisor y bajo su receptor, leídos con un cursor de solo avance. Debe
+     * consumirse dentro de una transacción y cerrarse.
+     */
+    Stream<DetalleReporte> streamDetallesPorBic(Integer idCiclo, FiltroDetalles filtro);
+
+    @FunctionalInterface
+    interface EscritorCopia {
+        void escribir(Writer destino) throws IOException;
+    }
+}
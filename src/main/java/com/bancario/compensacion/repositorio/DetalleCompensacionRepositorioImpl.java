@@ -0,0 +1,242 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.DetalleCompensacion;
+import com.bancario.compensacion.modelo.DetalleReporte;
+import com.bancario.compensacion.modelo.FiltroDetalles;
+import com.bancario.compensacion.modelo.ResultadoCopia;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+@Slf4j
+public class DetalleCompensacionRepositorioImpl implements DetalleCompensacionRepositorioCustom {
+
+    // 9 parámetros por fila: 9000 por sentencia, por debajo del límite de 32767 de PostgreSQL
+    private static final int FILAS_POR_SENTENCIA = 1000;
+
+    private static final String INSERT = "INSERT INTO detalleCompensacion "
+            + "(idInstruccion, idInstruccionOriginal, idCiclo, tipoOperacion, bicEmisor, bicReceptor, "
+            + "monto, estadoLiquidacion, codigoReferencia) VALUES ";
+
+    private static final String FILA = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final int BUFFER_COPIA = 1 << 16;
+
+    private static final String CREAR_CARGA = "CREATE TEMP TABLE IF NOT EXISTS cargaDetalle ("
+            + "idInstruccion UUID, idInstruccionOriginal UUID, tipoOperacion VARCHAR(10), "
+            + "bicEmisor VARCHAR(20), bicReceptor VARCHAR(20), monto NUMERIC(18,2), "
+            + "codigoReferencia VARCHAR(6)) ON COMMIT DROP";
+
+    private static final String COPY_CARGA = "COPY cargaDetalle (idInstruccion, idInstruccionOriginal, "
+            + "tipoOperacion, bicEmisor, bicReceptor, monto, codigoReferencia) FROM STDIN WITH (FORMAT csv)";
+
+    // Deltas por BIC de las filas del CTE "filas" aplicados al ciclo en una sola
+    // pasada; REVERSO invierte débito y crédito
+    private static final String ACUMULAR_FILAS = "movimientos AS ("
+            + " SELECT bicEmisor AS bic, CASE WHEN reverso THEN 0 ELSE monto END AS debito,"
+            + " CASE WHEN reverso THEN monto ELSE 0 END AS credito FROM filas"
+            + " UNION ALL"
+            + " SELECT bicReceptor, CASE WHEN reverso THEN monto ELSE 0 END,"
+            + " CASE WHEN reverso THEN 0 ELSE monto END FROM filas"
+            + "), posiciones AS ("
+            + " INSERT INTO posicionInstitucion (idCiclo, bic, totalDebitos, totalCredits, posicionNeta)"
+            + " SELECT ?, bic, sum(debito), sum(credito), sum(credito) - sum(debito)"
+            + " FROM movimientos GROUP BY bic ORDER BY bic"
+            + " ON CONFLICT (idCiclo, bic) DO UPDATE SET"
+            + " totalDebitos = posicionInstitucion.totalDebitos + EXCLUDED.totalDebitos,"
+            + " totalCredits = posicionInstitucion.totalCredits + EXCLUDED.totalCredits,"
+            + " posicionNeta = (posicionInstitucion.totalCredits + EXCLUDED.totalCredits)"
+            + " - (posicionInstitucion.totalDebitos + EXCLUDED.totalDebitos)"
+            + " RETURNING 1"
+            + ")";
+
+    // Detalles nuevos (ON CONFLICT descarta instrucciones ya registradas) y sus deltas
+    private static final String VOLCAR_CARGA = "WITH filas AS ("
+            + " INSERT INTO detalleCompensacion (idInstruccion, idInstruccionOriginal, idCiclo, tipoOperacion,"
+            + " bicEmisor, bicReceptor, monto, estadoLiquidacion, codigoReferencia)"
+            + " SELECT idInstruccion, idInstruccionOriginal, ?, tipoOperacion, bicEmisor, bicReceptor, monto,"
+            + " 'INCLUIDO', codigoReferencia FROM cargaDetalle"
+            + " ON CONFLICT (idInstruccion) DO NOTHING"
+            + " RETURNING upper(tipoOperacion) = 'REVERSO' AS reverso, bicEmisor, bicReceptor, monto"
+            + "), " + ACUMULAR_FILAS
+            + " SELECT (SELECT count(*) FROM filas), (SELECT count(*) FROM posiciones)";
+
+    // Detalles posteriores a la marca de corte pasan al ciclo destino con sus deltas
+    private static final String MOVER_TARDIOS = "WITH filas AS ("
+            + " UPDATE detalleCompensacion SET idCiclo = ? WHERE idCiclo = ? AND idDetalle > ?"
+            + " RETURNING upper(tipoOperacion) = 'REVERSO' AS reverso, bicEmisor, bicReceptor, monto"
+            + "), " + ACUMULAR_FILAS
+            + " SELECT (SELECT count(*) FROM filas), (SELECT count(*) FROM posiciones)";
+
+    private static final int FETCH_REPORTE = 5000;
+
+    private static final String COLUMNAS_REPORTE = "idDetalle, idInstruccion, tipoOperacion, monto, "
+            + "estadoLiquidacion, codigoReferencia";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Timer tiempoInsercion;
+    private final Counter filasInsertadas;
+
+    public DetalleCompensacionRepositorioImpl(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tiempoInsercion = Timer.builder("compensacion.detalles.insercion")
+                .description("Duración de cada insert multi-fila de detalles")
+                .register(meterRegistry);
+        this.filasInsertadas = Counter.builder("compensacion.detalles.insertados")
+                .description("Detalles insertados por la ruta masiva")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public int insertarLote(List<DetalleCompensacion> detalles) {
+        long inicio = System.nanoTime();
+        int filas = 0;
+        for (int desde = 0; desde < detalles.size(); desde += FILAS_POR_SENTENCIA) {
+            List<DetalleCompensacion> tramo = detalles.subList(desde,
+                    Math.min(desde + FILAS_POR_SENTENCIA, detalles.size()));
+
+            StringBuilder sql = new StringBuilder(INSERT.length() + tramo.size() * (FILA.length() + 2))
+                    .append(INSERT);
+            List<Object> parametros = new ArrayList<>(tramo.size() * 9);
+            for (int i = 0; i < tramo.size(); i++) {
+                DetalleCompensacion d = tramo.get(i);
+                sql.append(i == 0 ? FILA : ", " + FILA);
+                parametros.add(d.getIdInstruccion());
+                parametros.add(d.getIdInstruccionOriginal());
+                parametros.add(d.getCiclo().getIdCiclo());
+                parametros.add(d.getTipoOperacion());
+                parametros.add(d.getBicEmisor());
+                parametros.add(d.getBicReceptor());
+                parametros.add(d.getMonto());
+                parametros.add(d.getEstadoLiquidacion());
+                parametros.add(d.getCodigoReferencia());
+            }
+            filas += jdbcTemplate.update(sql.toString(), parametros.toArray());
+        }
+
+        long nanos = System.nanoTime() - inicio;
+        tiempoInsercion.record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+        filasInsertadas.increment(filas);
+        if (log.isDebugEnabled() && nanos > 0) {
+            log.debug("Insertados {} detalles en {} ms ({} filas/s)", filas, nanos / 1_000_000,
+                    filas * 1_000_000_000L / nanos);
+        }
+        return filas;
+    }
+
+    @Override
+    public long copiarACarga(EscritorCopia escritor) {
+        jdbcTemplate.execute(CREAR_CARGA);
+        Long copiados = jdbcTemplate.execute((ConnectionCallback<Long>) con -> copiar(con.unwrap(PGConnection.class), escritor));
+        return copiados != null ? copiados : 0;
+    }
+
+    @Override
+    public ResultadoCopia volcarCarga(Integer idCiclo, long copiados) {
+        long inicio = System.nanoTime();
+        ResultadoCopia resultado = jdbcTemplate.queryForObject(VOLCAR_CARGA,
+                (rs, i) -> new ResultadoCopia(copiados, rs.getLong(1), rs.getLong(2)), idCiclo, idCiclo);
+        tiempoInsercion.record(System.nanoTime() - inicio, java.util.concurrent.TimeUnit.NANOSECONDS);
+        filasInsertadas.increment(resultado.insertados());
+        return resultado;
+    }
+
+    @Override
+    public long moverTardios(Integer idCiclo, long detalleCorte, Integer idCicloDestino) {
+        Long movidos = jdbcTemplate.queryForObject(MOVER_TARDIOS, (rs, i) -> rs.getLong(1), idCicloDestino, idCiclo,
+                detalleCorte, idCicloDestino);
+        return movidos != null ? movidos : 0;
+    }
+
+    @Override
+    public Stream<DetalleReporte> streamDetallesPorBic(Integer idCiclo, FiltroDetalles filtro) {
+        List<Object> parametros = new ArrayList<>();
+        // Cada rama sale ordenada de ixDetalleCicloEmisor / ixDetalleCicloReceptor y el
+        // plan las mezcla (Merge Append) en lugar de ordenar el ciclo completo
+        String sql = "SELECT bic, rol, " + COLUMNAS_REPORTE + ", contraparte FROM ("
+                + ramaReporte("bicEmisor", "'EMISOR'", "bicReceptor", idCiclo, filtro, parametros)
+                + " UNION ALL "
+                + ramaReporte("bicReceptor", "'RECEPTOR'", "bicEmisor", idCiclo, filtro, parametros)
+                + ") d ORDER BY bic, idDetalle, rol";
+
+        return jdbcTemplate.queryForStream(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FETCH_REPORTE);
+            for (int i = 0; i < parametros.size(); i++) {
+                ps.setObject(i + 1, parametros.get(i));
+            }
+            return ps;
+        }, (rs, fila) -> new DetalleReporte(
+                rs.getString("bic"),
+                rs.getString("rol"),
+                rs.getLong("idDetalle"),
+                rs.getObject("idInstruccion", UUID.class),
+                rs.getString("tipoOperacion"),
+                rs.getString("contraparte"),
+                rs.getBigDecimal("monto"),
+                rs.getString("estadoLiquidacion"),
+                rs.getString("codigoReferencia")));
+    }
+
+    private static String ramaReporte(String columnaBic, String rol, String columnaContraparte, Integer idCiclo,
+            FiltroDetalles filtro, List<Object> parametros) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(columnaBic).append(" AS bic, ").append(rol)
+                .append(" AS rol, ").append(COLUMNAS_REPORTE).append(", ").append(columnaContraparte)
+                .append(" AS contraparte FROM detalleCompensacion WHERE idCiclo = ?");
+        parametros.add(idCiclo);
+        if (filtro.bic() != null) {
+            sql.append(" AND ").append(columnaBic).append(" = ?");
+            parametros.add(filtro.bic());
+        }
+        if (filtro.tipoOperacion() != null) {
+            sql.append(" AND upper(tipoOperacion) = ?");
+            parametros.add(filtro.tipoOperacion().toUpperCase());
+        }
+        if (filtro.estadoLiquidacion() != null) {
+            sql.append(" AND upper(estadoLiquidacion) = ?");
+            parametros.add(filtro.estadoLiquidacion().toUpperCase());
+        }
+        return sql.toString();
+    }
+
+    private static long copiar(PGConnection conexion, EscritorCopia escritor) throws SQLException {
+        PGCopyOutputStream salida = new PGCopyOutputStream(conexion, COPY_CARGA, BUFFER_COPIA);
+        try {
+            Writer destino = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), BUFFER_COPIA);
+            escritor.escribir(destino);
+            destino.flush();
+            return salida.endCopy();
+        } catch (IOException e) {
+            cancelar(salida);
+            throw new UncheckedIOException("Error leyendo el archivo durante el COPY", e);
+        } catch (RuntimeException e) {
+            cancelar(salida);
+            throw e;
+        }
+    }
+
+    private static void cancelar(PGCopyOutputStream salida) throws SQLException {
+        if (salida.isActive()) {
+            salida.cancelCopy();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.MensajeSalida;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface MensajeSalidaRepositorio extends JpaRepository<MensajeSalida, UUID> {
+
+    /**
+     * Mensajes vencidos, en orden de creación. SKIP LOCKED reparte la bandeja entre
+     * réplicas sin que dos despachen el mismo mensaje.
+     */
+    @Query(value = "SELECT * FROM mensajeSalida WHERE estado = 'PENDIENTE' AND proximoIntento <= :ahora "
+            + "ORDER BY fechaCreacion, idCiclo, parte LIMIT :limite FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<MensajeSalida> bloquearPendientes(@Param("ahora") LocalDateTime ahora, @Param("limite") int limite);
+
+    /**
+     * Reserva los mensajes reclamados hasta {@code hasta}: si la réplica cae a mitad
+     * del envío, otra los retoma al vencer la reserva.
+     */
+    @Modifying
+    @Query("update MensajeSalida m set m.proximoIntento = :hasta where m.idMensaje in :ids")
+    int reservar(@Param("ids") Collection<UUID> ids, @Param("hasta") LocalDateTime hasta);
+
+    @Modifying
+    @Query("update MensajeSalida m set m.estado = 'ENVIADO', m.fechaEnvio = :fecha, m.ultimoError = null "
+            + "where m.idMensaje = :id")
+    int marcarEnviado(@Param("id") UUID id, @Param("fecha") LocalDateTime fecha);
+
+    @Modifying
+    @Query("update MensajeSalida m set m.estado = :estado, m.intentos = :intentos, m.proximoIntento = :proximo, "
+            + "m.ultimoError = :error where m.idMensaje = :id")
+    int reprogramar(@Param("id") UUID id, @Param("estado") String estado, @Param("intentos") int intentos,
+            @Param("proximo") LocalDateTime proximo, @Param("error") String error);
+
+    long countByEstado(String estado);
+
+    @Query("select min(m.fechaCreacion) from MensajeSalida m where m.estado = 'PENDIENTE'")
+    LocalDateTime pendienteMasAntiguo();
+}
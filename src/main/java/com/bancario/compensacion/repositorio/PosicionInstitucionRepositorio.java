@@ -1,16 +1,48 @@
 package com.bancario.compensacion.repositorio;
 
 import com.bancario.compensacion.modelo.PosicionInstitucion;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface PosicionInstitucionRepositorio extends JpaRepository<PosicionInstitucion, Long> {
+public interface PosicionInstitucionRepositorio extends JpaRepository<PosicionInstitucion, Long>,
+        PosicionInstitucionRepositorioCustom {
 
     Optional<PosicionInstitucion> findByCicloIdCicloAndBic(Integer idCiclo, String bic);
 
     List<PosicionInstitucion> findByCicloIdCiclo(Integer idCiclo);
+
+    /**
+     * Posiciones del ciclo ordenadas por BIC, leídas por cursor. Debe consumirse
+     * dentro de una transacción y cerrarse.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p FROM PosicionInstitucion p WHERE p.ciclo.idCiclo = :idCiclo ORDER BY p.bic")
+    Stream<PosicionInstitucion> streamPorCiclo(@Param("idCiclo") Integer idCiclo);
+
+    /**
+     * Suma débitos/créditos a la posición del BIC en una sola sentencia atómica,
+     * creándola si no existe. Requiere el índice único (idCiclo, bic).
+     */
+    @Modifying
+    @Query(value = "INSERT INTO posicionInstitucion (idCiclo, bic, totalDebitos, totalCredits, posicionNeta) "
+            + "VALUES (:idCiclo, :bic, :debitos, :creditos, :creditos - :debitos) "
+            + "ON CONFLICT (idCiclo, bic) DO UPDATE SET "
+            + "totalDebitos = posicionInstitucion.totalDebitos + EXCLUDED.totalDebitos, "
+            + "totalCredits = posicionInstitucion.totalCredits + EXCLUDED.totalCredits, "
+            + "posicionNeta = (posicionInstitucion.totalCredits + EXCLUDED.totalCredits) "
+            + "- (posicionInstitucion.totalDebitos + EXCLUDED.totalDebitos)", nativeQuery = true)
+    int acumular(@Param("idCiclo") Integer idCiclo, @Param("bic") String bic,
+            @Param("debitos") BigDecimal debitos, @Param("creditos") BigDecimal creditos);
 }
@@ -0,0 +1,14 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.DeltaPosicion;
+
+import java.util.Collection;
+
+public interface PosicionInstitucionRepositorioCustom {
+
+    /**
+     * Aplica los deltas de varios BIC de un ciclo con un único INSERT ... ON CONFLICT
+     * multi-fila. Un BIC no debe repetirse dentro de la colección.
+     */
+    int acumularLote(Integer idCiclo, Collection<DeltaPosicion> deltas);
+}
@@ -0,0 +1,58 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.DeltaPosicion;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class PosicionInstitucionRepositorioImpl implements PosicionInstitucionRepositorioCustom {
+
+    // 5 parámetros por fila: muy por debajo del límite de 32767 del protocolo de PostgreSQL
+    private static final int FILAS_POR_SENTENCIA = 1000;
+
+    private static final String INSERT = "INSERT INTO posicionInstitucion "
+            + "(idCiclo, bic, totalDebitos, totalCredits, posicionNeta) VALUES ";
+
+    private static final String ON_CONFLICT = " ON CONFLICT (idCiclo, bic) DO UPDATE SET "
+            + "totalDebitos = posicionInstitucion.totalDebitos + EXCLUDED.totalDebitos, "
+            + "totalCredits = posicionInstitucion.totalCredits + EXCLUDED.totalCredits, "
+            + "posicionNeta = (posicionInstitucion.totalCredits + EXCLUDED.totalCredits) "
+            + "- (posicionInstitucion.totalDebitos + EXCLUDED.totalDebitos)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int acumularLote(Integer idCiclo, Collection<DeltaPosicion> deltas) {
+        // Orden estable por BIC: dos lotes concurrentes bloquean las filas en el mismo orden
+        List<DeltaPosicion> ordenados = new ArrayList<>(deltas);
+        ordenados.sort(Comparator.comparing(DeltaPosicion::bic));
+
+        int filas = 0;
+        for (int desde = 0; desde < ordenados.size(); desde += FILAS_POR_SENTENCIA) {
+            List<DeltaPosicion> tramo = ordenados.subList(desde,
+                    Math.min(desde + FILAS_POR_SENTENCIA, ordenados.size()));
+
+            StringBuilder sql = new StringBuilder(INSERT);
+            List<Object> parametros = new ArrayList<>(tramo.size() * 5);
+            for (int i = 0; i < tramo.size(); i++) {
+                DeltaPosicion d = tramo.get(i);
+                sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+                BigDecimal neto = d.creditos().subtract(d.debitos());
+                parametros.add(idCiclo);
+                parametros.add(d.bic());
+                parametros.add(d.debitos());
+                parametros.add(d.creditos());
+                parametros.add(neto);
+            }
+            sql.append(ON_CONFLICT);
+            filas += jdbcTemplate.update(sql.toString(), parametros.toArray());
+        }
+        return filas;
+    }
+}
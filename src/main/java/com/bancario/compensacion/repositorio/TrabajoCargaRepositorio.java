@@ -0,0 +1,27 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.TrabajoCarga;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface TrabajoCargaRepositorio extends JpaRepository<TrabajoCarga, UUID> {
+    List<TrabajoCarga> findByEstadoIn(Collection<String> estados);
+
+    /**
+     * SELECT ... FOR UPDATE: serializa la confirmación de tramos si dos réplicas
+     * retoman el mismo trabajo.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select t from TrabajoCarga t where t.idTrabajo = :idTrabajo")
+    Optional<TrabajoCarga> bloquearPorId(@Param("idTrabajo") UUID idTrabajo);
+}
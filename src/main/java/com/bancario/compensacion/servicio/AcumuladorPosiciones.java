@@ -0,0 +1,250 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.DeltaPosicion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.PosicionInstitucionRepositorio;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Acumulador en memoria de débitos/créditos por (ciclo, BIC).
+ *
+ * Cada celda reparte las sumas en franjas (AtomicLongArray) indexadas por hilo,
+ * de modo que los bancos con mucho tráfico no compiten por la misma fila ni por
+ * el mismo contador. Los deltas se vuelcan a posicionInstitucion periódicamente,
+ * al cierre del ciclo y al apagar el nodo.
+ *
+ * Los detalles se persisten en la transacción de ingesta; si el nodo cae con
+ * deltas sin volcar, el cierre los recupera al recalcular desde los detalles.
+ * Por lo mismo, los deltas de un ciclo ya neteado (LIQUIDANDO o CERRADO) se
+ * descartan en lugar de sumarse dos veces.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AcumuladorPosiciones {
+
+    private static final int FRANJAS = Math.min(64,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1);
+
+    private final PosicionInstitucionRepositorio posicionRepo;
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final PlatformTransactionManager transactionManager;
+
+    private final ConcurrentHashMap<Clave, Celda> celdas = new ConcurrentHashMap<>();
+    // Serializa los volcados sin fijar el hilo portador cuando el que vuelca es un hilo virtual
+    private final ReentrantLock volcado = new ReentrantLock();
+
+    @Value("${compensacion.posiciones.modo:directo}")
+    private String modo;
+
+    private record Clave(Integer idCiclo, String bic) {
+    }
+
+    public boolean habilitado() {
+        return "acumulador".equalsIgnoreCase(modo);
+    }
+
+    /**
+     * Registra un delta. Dentro de una transacción se aplica tras el commit para
+     * no contabilizar operaciones revertidas.
+     */
+    public void registrar(Integer idCiclo, String bic, BigDecimal debitos, BigDecimal creditos) {
+        registrarCentavos(idCiclo, bic, MotorNeteo.aCentavos(debitos), MotorNeteo.aCentavos(creditos));
+    }
+
+    public void registrarCentavos(Integer idCiclo, String bic, long debitoCentavos, long creditoCentavos) {
+        Clave clave = new Clave(idCiclo, bic);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    celda(clave).sumar(debitoCentavos, creditoCentavos);
+                }
+            });
+        } else {
+            celda(clave).sumar(debitoCentavos, creditoCentavos);
+        }
+    }
+
+    /**
+     * Deltas aún no volcados de un ciclo, por BIC: {débitos, créditos} en centavos.
+     */
+    public Map<String, long[]> pendientes(Integer idCiclo) {
+        Map<String, long[]> resultado = new HashMap<>();
+        celdas.forEach((clave, celda) -> {
+            if (clave.idCiclo().equals(idCiclo)) {
+                long[] valores = celda.leer();
+                if (valores[0] != 0 || valores[1] != 0) {
+                    resultado.put(clave.bic(), valores);
+                }
+            }
+        });
+        return resultado;
+    }
+
+    @Scheduled(fixedDelayString = "${compensacion.posiciones.volcado-ms:1000}")
+    public void volcarPeriodico() {
+        if (habilitado()) {
+            volcar(null);
+        }
+    }
+
+    public void volcarCiclo(Integer idCiclo) {
+        volcar(idCiclo);
+    }
+
+    /**
+     * Vuelca y elimina las celdas de un ciclo que ya fue liquidado.
+     */
+    public void descartarCiclo(Integer idCiclo) {
+        volcar(idCiclo);
+        celdas.keySet().removeIf(clave -> clave.idCiclo().equals(idCiclo));
+    }
+
+    @PreDestroy
+    public void volcarAlApagar() {
+        if (!celdas.isEmpty()) {
+            log.info("Apagando: volcando posiciones acumuladas en memoria");
+            volcar(null);
+        }
+    }
+
+    private void volcar(Integer soloCiclo) {
+        volcado.lock();
+        try {
+            volcarBloqueado(soloCiclo);
+        } finally {
+            volcado.unlock();
+        }
+    }
+
+    private void volcarBloqueado(Integer soloCiclo) {
+        Map<Clave, long[]> drenados = new HashMap<>();
+        celdas.forEach((clave, celda) -> {
+            if (soloCiclo == null || clave.idCiclo().equals(soloCiclo)) {
+                long[] delta = celda.drenar();
+                if (delta[0] != 0 || delta[1] != 0) {
+                    drenados.put(clave, delta);
+                }
+            }
+        });
+
+        if (drenados.isEmpty()) {
+            return;
+        }
+
+        Set<Integer> retenidos = new HashSet<>();
+        try {
+            TransactionTemplate tx = new TransactionTemplate(transactionManager);
+            tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            tx.executeWithoutResult(status -> {
+                retenidos.clear();
+                Map<Integer, List<DeltaPosicion>> deltas = porCiclo(drenados);
+                Map<Integer, String> estados = new HashMap<>();
+                cicloRepo.bloquearCompartidosSinEspera(deltas.keySet())
+                        .forEach(c -> estados.put(c.getIdCiclo(), c.getEstado()));
+                deltas.forEach((idCiclo, delta) -> {
+                    String estado = estados.get(idCiclo);
+                    if (estado == null) {
+                        // Corte o liquidación en curso: se reintenta en el próximo volcado
+                        retenidos.add(idCiclo);
+                    } else if ("ABIERTO".equals(estado) || "CERRANDO".equals(estado)) {
+                        posicionRepo.acumularLote(idCiclo, delta);
+                    } else {
+                        // Ya neteado: sus posiciones se recalcularon desde los detalles
+                        log.debug("Descartados deltas del ciclo {} en estado {}", idCiclo, estado);
+                    }
+                });
+            });
+            drenados.forEach((clave, delta) -> {
+                if (retenidos.contains(clave.idCiclo())) {
+                    celda(clave).sumar(delta[0], delta[1]);
+                }
+            });
+            log.debug("Volcadas {} posiciones acumuladas", drenados.size());
+        } catch (Exception e) {
+            // Se devuelven los deltas a memoria para el próximo volcado
+            log.error("Fallo al volcar posiciones acumuladas, se reintentará: {}", e.getMessage());
+            drenados.forEach((clave, delta) -> celda(clave).sumar(delta[0], delta[1]));
+        }
+    }
+
+    private static Map<Integer, List<DeltaPosicion>> porCiclo(Map<Clave, long[]> drenados) {
+        Map<Integer, List<DeltaPosicion>> resultado = new TreeMap<>();
+        drenados.forEach((clave, delta) -> resultado
+                .computeIfAbsent(clave.idCiclo(), k -> new ArrayList<>())
+                .add(new DeltaPosicion(clave.bic(), MotorNeteo.aDecimal(delta[0]), MotorNeteo.aDecimal(delta[1]))));
+        return resultado;
+    }
+
+    private Celda celda(Clave clave) {
+        return celdas.computeIfAbsent(clave, k -> new Celda());
+    }
+
+    /**
+     * Contadores por franja. Drenar con getAndSet(0) no pierde sumas concurrentes:
+     * lo que llegue después queda en la franja para el siguiente volcado.
+     */
+    private static final class Celda {
+        private final AtomicLongArray debitos = new AtomicLongArray(FRANJAS);
+        private final AtomicLongArray creditos = new AtomicLongArray(FRANJAS);
+
+        void sumar(long debito, long credito) {
+            int i = franja();
+            if (debito != 0) {
+                debitos.getAndAdd(i, debito);
+            }
+            if (credito != 0) {
+                creditos.getAndAdd(i, credito);
+            }
+        }
+
+        long[] drenar() {
+            long d = 0;
+            long c = 0;
+            for (int i = 0; i < FRANJAS; i++) {
+                d += debitos.getAndSet(i, 0);
+                c += creditos.getAndSet(i, 0);
+            }
+            return new long[] { d, c };
+        }
+
+        long[] leer() {
+            long d = 0;
+            long c = 0;
+            for (int i = 0; i < FRANJAS; i++) {
+                d += debitos.get(i);
+                c += creditos.get(i);
+            }
+            return new long[] { d, c };
+        }
+
+        private static int franja() {
+            long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+            return (int) (id >>> 32) & (FRANJAS - 1);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.ArchivoAlmacenado;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Almacén en disco de los archivos de liquidación.
+ *
+ * El contenido se escribe en streaming sobre un temporal del mismo directorio,
+ * calculando el SHA-256 al vuelo; tras sincronizarlo a disco se renombra de
+ * forma atómica, así que una ruta registrada nunca apunta a un archivo a medias.
+ * Con gzip el archivo se guarda comprimido; tamaño y checksum se refieren siempre
+ * al contenido original, de modo que se pueden verificar tras descomprimir.
+ * El directorio es obligatorio y debe ser un volumen persistente y compartido por
+ * todas las réplicas: la ruta registrada en base de datos se sirve desde cualquier
+ * nodo y tiene que sobrevivir a reinicios. Sin él la aplicación no arranca.
+ */
+@Slf4j
+@Component
+public class AlmacenArchivos {
+
+    public static final String GZIP = "gzip";
+
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    @Value("${compensacion.archivos.directorio:}")
+    private String directorio;
+
+    @FunctionalInterface
+    public interface Contenido {
+        void escribir(OutputStream salida) throws IOException;
+    }
+
+    /**
+     * Falla el arranque si el directorio no está configurado o no se puede escribir,
+     * en lugar de caer en un temporal local que se pierde al reiniciar.
+     */
+    @PostConstruct
+    void validarDirectorio() {
+        if (directorio == null || directorio.isBlank()) {
+            throw new IllegalStateException("compensacion.archivos.directorio es obligatorio: "
+                    + "configure COMPENSACION_ARCHIVOS_DIRECTORIO con un volumen persistente compartido");
+        }
+        Path base = Paths.get(directorio).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(base);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo crear el almacén de archivos " + base, e);
+        }
+        if (!Files.isWritable(base)) {
+            throw new IllegalStateException("El almacén de archivos " + base + " no admite escritura");
+        }
+        log.info("Almacén de archivos de liquidación en {}", base);
+    }
+
+    public ArchivoAlmacenado guardar(String rutaRelativa, boolean gzip, Contenido contenido) {
+        Path destino = resolver(rutaRelativa);
+        Path temporal = null;
+        try {
+            Files.createDirectories(destino.getParent());
+            temporal = Files.createTempFile(destino.getParent(), ".escritura-", ".tmp");
+
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            long tamano;
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                OutputStream disco = Channels.newOutputStream(canal);
+                GZIPOutputStream comprimido = gzip ? new GZIPOutputStream(disco, TAMANO_BUFFER) : null;
+                SalidaContada contada = new SalidaContada(
+                        new DigestOutputStream(comprimido != null ? comprimido : disco, sha256));
+                OutputStream salida = new BufferedOutputStream(contada, TAMANO_BUFFER);
+                contenido.escribir(salida);
+                salida.flush();
+                if (comprimido != null) {
+                    comprimido.finish();
+                }
+                canal.force(true);
+                tamano = contada.bytes;
+            }
+
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+            temporal = null;
+            String checksum = HexFormat.of().formatHex(sha256.digest());
+            log.info("Archivo {} almacenado ({} bytes{}, sha256={})", rutaRelativa, tamano,
+                    gzip ? ", " + Files.size(destino) + " en disco" : "", checksum);
+            return new ArchivoAlmacenado(rutaRelativa, tamano, checksum, gzip ? GZIP : null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo almacenar " + rutaRelativa, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (temporal != null) {
+                borrarSilencioso(temporal);
+            }
+        }
+    }
+
+    public boolean existe(String rutaRelativa) {
+        return Files.isRegularFile(resolver(rutaRelativa));
+    }
+
+    /**
+     * Reescribe un archivo con los bytes guardados en base de datos, con el mismo
+     * temporal sincronizado y renombrado atómico que guardar.
+     */
+    public void restaurar(String rutaRelativa, byte[] bytes) {
+        Path destino = resolver(rutaRelativa);
+        Path temporal = null;
+        try {
+            Files.createDirectories(destino.getParent());
+            temporal = Files.createTempFile(destino.getParent(), ".escritura-", ".tmp");
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                OutputStream salida = Channels.newOutputStream(canal);
+                salida.write(bytes);
+                canal.force(true);
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temporal = null;
+            log.warn("Archivo {} restaurado desde base de datos ({} bytes en disco)", rutaRelativa, bytes.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo restaurar " + rutaRelativa, e);
+        } finally {
+            if (temporal != null) {
+                borrarSilencioso(temporal);
+            }
+        }
+    }
+
+    /**
+     * Ruta absoluta de un archivo del almacén; rechaza rutas que escapen del directorio base.
+     */
+    public Path resolver(String rutaRelativa) {
+        Path base = Paths.get(directorio).toAbsolutePath().normalize();
+        Path ruta = base.resolve(rutaRelativa).normalize();
+        if (!ruta.startsWith(base) || ruta.equals(base)) {
+            throw new IllegalArgumentException("Ruta fuera del almacén: " + rutaRelativa);
+        }
+        return ruta;
+    }
+
+    public void eliminar(String rutaRelativa) {
+        borrarSilencioso(resolver(rutaRelativa));
+    }
+
+    private void borrarSilencioso(Path ruta) {
+        try {
+            Files.deleteIfExists(ruta);
+        } catch (IOException e) {
+            log.warn("No se pudo borrar {}: {}", ruta, e.getMessage());
+        }
+    }
+
+    private static final class SalidaContada extends FilterOutputStream {
+        private long bytes;
+
+        private SalidaContada(OutputStream destino) {
+            super(destino);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+}
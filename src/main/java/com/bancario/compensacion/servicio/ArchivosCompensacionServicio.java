@@ -1,32 +1,70 @@
 package com.bancario.compensacion.servicio;
 
+import com.bancario.compensacion.modelo.ResultadoCopia;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Servicio para el procesamiento de archivos de compensación recibidos via
  * APIM.
+ *
+ * Formato CSV (cabecera opcional):
+ * idInstruccion,idInstruccionOriginal,tipoOperacion,bicEmisor,bicReceptor,monto[,codigoReferencia]
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class ArchivosCompensacionServicio {
 
+    private static final int MAX_ERRORES_REPORTADOS = 100;
+    private static final int TAMANO_PREVIEW = 5;
+    private static final int BUFFER_LECTURA = 1 << 16;
+    // Bloques en memoria del parser paralelo; la ventana en curso es el doble de hilos
+    private static final int BLOQUE_PARALELO = 4 << 20;
+
+    private final DetalleCompensacionRepositorio detalleRepo;
+    private final RegistroCicloAbierto registroCiclo;
+    private final FiltroInstrucciones filtroInstrucciones;
+    private final ContadorOperaciones contador;
+
+    // Archivos desde este tamaño se decodifican por bloques en paralelo
+    @Value("${compensacion.carga.paralelo.umbral-bytes:67108864}")
+    private long umbralParalelo = 64L << 20;
+
+    // 0 = núcleos disponibles
+    @Value("${compensacion.carga.paralelismo:0}")
+    private int paralelismo;
+
     /**
-     * Procesa un archivo de compensación (CSV o Texto) y extrae los datos.
-     * 
+     * Procesa un archivo de compensación (CSV o Texto) y lo carga en el ciclo
+     * abierto. El archivo se lee en streaming: cada registro válido se envía al
+     * COPY según se lee, sin mantener el archivo en memoria. Los archivos grandes
+     * se decodifican por bloques en paralelo, con la misma validación.
+     *
      * @param file             El archivo cargado.
      * @param compensationDate Fecha opcional de la compensación.
      * @return Mapa con el resumen del procesamiento.
      */
+    @Transactional
     public Map<String, Object> procesarArchivo(MultipartFile file, String compensationDate) {
         log.info("Procesando archivo: {}, para fecha: {}", file.getOriginalFilename(), compensationDate);
 
@@ -34,34 +72,144 @@ public class ArchivosCompensacionServicio {
             throw new RuntimeException("El archivo está vacío");
         }
 
-        List<String> recordsFound = new ArrayList<>();
-        int count = 0;
+        // El COPY a la tabla temporal no toca el ciclo: el destino se resuelve después,
+        // así una carga que cruza un corte entra entera en el ciclo nuevo
+        Integer idCiclo = idCicloAbierto();
+        Resumen resumen = new Resumen();
+        long inicio = System.nanoTime();
+
+        boolean paralelo = file.getSize() >= umbralParalelo;
+        long copiados = detalleRepo.copiarACarga(destino -> volcarBloques(file, paralelo, idCiclo, destino, resumen));
+        Integer idCicloDestino = idCicloParaVolcar();
+        ResultadoCopia resultado = detalleRepo.volcarCarga(idCicloDestino, copiados);
+        contador.registrar(idCicloDestino, resultado.insertados());
+
+        long ms = Math.max(1, (System.nanoTime() - inicio) / 1_000_000);
+        long registrosPorSegundo = (resultado.copiados() + resumen.rechazados) * 1000 / ms;
+        log.info("Archivo {} cargado en ciclo {} (parser {}): {} válidos, {} rechazados, {} insertados, "
+                + "{} duplicados en {} ms ({} registros/s)",
+                file.getOriginalFilename(), idCicloDestino, paralelo ? "paralelo" : "secuencial",
+                resultado.copiados(), resumen.rechazados, resultado.insertados(),
+                resultado.copiados() - resultado.insertados(), ms, registrosPorSegundo);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("processedRecords", resultado.copiados());
+        response.put("insertedRecords", resultado.insertados());
+        response.put("duplicateRecords", resultado.copiados() - resultado.insertados());
+        response.put("rejectedRecords", resumen.rechazados);
+        response.put("errors", resumen.errores);
+        response.put("cycleId", idCicloDestino);
+        response.put("fileName", file.getOriginalFilename());
+        response.put("date", compensationDate != null ? compensationDate : "CURRENT_CYCLE");
+        response.put("preview", resumen.preview);
+        response.put("elapsedMs", ms);
+        response.put("recordsPerSecond", registrosPorSegundo);
+        response.put("parser", paralelo ? "PARALLEL" : "STREAMING");
+        return response;
+    }
+
+    /**
+     * Ciclo abierto según el registro, sin bloquearlo: es el ciclo al que se destina
+     * la carga mientras se copia a la tabla temporal.
+     */
+    public Integer idCicloAbierto() {
+        return registroCiclo.obtener()
+                .orElseThrow(() -> new RuntimeException("No hay ciclo abierto para compensar"))
+                .idCiclo();
+    }
+
+    /**
+     * Ciclo abierto releído de la BD justo antes de volcar la tabla temporal, que no
+     * lleva idCiclo: si hubo un corte durante el COPY, la carga entra en el ciclo
+     * nuevo en lugar de rechazarse. Un corte posterior al volcado lo cubre el
+     * traslado de filas tardías del cierre.
+     */
+    public Integer idCicloParaVolcar() {
+        return registroCiclo.revalidar()
+                .orElseThrow(() -> new RuntimeException("No hay ciclo abierto para compensar"))
+                .idCiclo();
+    }
 
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+    /**
+     * Lee el upload por bloques de líneas completas y escribe al COPY los registros
+     * válidos en orden. En paralelo, los bloques se decodifican en un pool con una
+     * ventana acotada de bloques en curso para limitar la memoria.
+     */
+    private void volcarBloques(MultipartFile file, boolean paralelo, Integer idCiclo, Writer destino,
+            Resumen resumen) throws IOException {
+        try (InputStream entrada = file.getInputStream()) {
+            ParserParaleloCsv.Bloques bloques = new ParserParaleloCsv.Bloques(entrada,
+                    paralelo ? BLOQUE_PARALELO : BUFFER_LECTURA);
+            if (!paralelo) {
+                ParserParaleloCsv.Bloque bloque;
+                while ((bloque = bloques.siguiente()) != null) {
+                    volcarTramo(bloque.parsear(), idCiclo, destino, resumen);
+                }
+                return;
+            }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Lógica de parsing simple para demostración/pruebas
-                if (!line.trim().isEmpty()) {
-                    recordsFound.add(line);
-                    count++;
+            int hilos = paralelismo > 0 ? paralelismo : Runtime.getRuntime().availableProcessors();
+            Deque<Future<ParserParaleloCsv.Tramo>> enCurso = new ArrayDeque<>();
+            try (ExecutorService pool = Executors.newFixedThreadPool(hilos)) {
+                try {
+                    ParserParaleloCsv.Bloque bloque = bloques.siguiente();
+                    while (bloque != null || !enCurso.isEmpty()) {
+                        while (bloque != null && enCurso.size() < hilos * 2) {
+                            enCurso.add(pool.submit(bloque::parsear));
+                            bloque = bloques.siguiente();
+                        }
+                        volcarTramo(esperar(enCurso.poll()), idCiclo, destino, resumen);
+                    }
+                } finally {
+                    enCurso.forEach(f -> f.cancel(true));
                 }
             }
+        }
+    }
 
-            log.info("Archivo procesado. Se encontraron {} registros.", count);
+    private void volcarTramo(ParserParaleloCsv.Tramo tramo, Integer idCiclo, Writer destino, Resumen resumen)
+            throws IOException {
+        tramo.volcar(destino, id -> filtroInstrucciones.registrar(idCiclo, id));
+        resumen.fusionar(tramo);
+    }
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("processedRecords", count);
-            response.put("fileName", file.getOriginalFilename());
-            response.put("date", compensationDate != null ? compensationDate : "CURRENT_CYCLE");
-            response.put("preview", recordsFound.size() > 5 ? recordsFound.subList(0, 5) : recordsFound);
+    private static ParserParaleloCsv.Tramo esperar(Future<ParserParaleloCsv.Tramo> tramo) throws IOException {
+        try {
+            return tramo.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Carga interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException("Error decodificando el archivo", e.getCause());
+        }
+    }
 
-            return response;
+    private static final class Resumen {
+        private final List<String> preview = new ArrayList<>(TAMANO_PREVIEW);
+        private final List<String> errores = new ArrayList<>();
+        private long rechazados;
+        private long lineasPrevias;
 
-        } catch (Exception e) {
-            log.error("Error leyendo archivo de compensación", e);
-            throw new RuntimeException("Error al leer el contenido del archivo: " + e.getMessage());
+        /**
+         * Incorpora un tramo, en orden, renumerando sus errores al archivo completo.
+         */
+        private void fusionar(ParserParaleloCsv.Tramo tramo) {
+            for (String linea : tramo.muestra()) {
+                if (preview.size() < TAMANO_PREVIEW) {
+                    preview.add(linea);
+                }
+            }
+            rechazados += tramo.rechazados();
+            for (ParserParaleloCsv.ErrorLinea e : tramo.errores()) {
+                if (errores.size() >= MAX_ERRORES_REPORTADOS) {
+                    break;
+                }
+                errores.add("Línea " + (lineasPrevias + e.linea()) + ": " + e.motivo());
+            }
+            lineasPrevias += tramo.lineas();
         }
     }
 }
@@ -0,0 +1,54 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.ReportePdf;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU de reportes PDF de ciclos cerrados, acotada por el total de bytes
+ * (compensacion.reportes.cache-bytes). Un ciclo CERRADO no cambia, así que las
+ * entradas no caducan; solo se desalojan por espacio.
+ */
+@Slf4j
+@Component
+public class CacheReportes {
+
+    @Value("${compensacion.reportes.cache-bytes:67108864}")
+    private long capacidadBytes = 64L * 1024 * 1024;
+
+    private final LinkedHashMap<Integer, ReportePdf> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private long ocupados;
+
+    public synchronized ReportePdf obtener(Integer cicloId) {
+        return entradas.get(cicloId);
+    }
+
+    /**
+     * Guarda el reporte desalojando los menos usados hasta que quepa. Si otro hilo
+     * ya lo generó se conserva el existente, para servir siempre los mismos bytes.
+     */
+    public synchronized ReportePdf guardar(Integer cicloId, ReportePdf reporte) {
+        ReportePdf existente = entradas.get(cicloId);
+        if (existente != null) {
+            return existente;
+        }
+        long tamano = reporte.contenido().length;
+        if (tamano > capacidadBytes) {
+            log.warn("Reporte del ciclo {} ({} bytes) excede la caché; no se guarda", cicloId, tamano);
+            return reporte;
+        }
+        Iterator<Map.Entry<Integer, ReportePdf>> it = entradas.entrySet().iterator();
+        while (ocupados + tamano > capacidadBytes && it.hasNext()) {
+            ocupados -= it.next().getValue().contenido().length;
+            it.remove();
+        }
+        entradas.put(cicloId, reporte);
+        ocupados += tamano;
+        return reporte;
+    }
+}
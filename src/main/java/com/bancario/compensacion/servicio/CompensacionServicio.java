@@ -8,17 +8,29 @@ import com.bancario.compensacion.modelo.*;
 import com.bancario.compensacion.repositorio.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
-
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.web.client.RestTemplate;
 
 @Slf4j
 @Service
@@ -30,67 +42,185 @@ public class CompensacionServicio {
     private final ArchivoLiquidacionRepositorio archivoRepo;
     private final DetalleCompensacionRepositorio detalleRepo;
     private final CompensacionMapper mapper;
-    private final RestTemplate restTemplate;
-
-    @Value("${service.contabilidad.url:http://ms-contabilidad:8083}")
-    private String contabilidadUrl;
+    private final RegistroCicloAbierto registroCiclo;
+    private final AcumuladorPosiciones acumulador;
+    private final NeteoServicio neteoServicio;
+    private final PlatformTransactionManager transactionManager;
+    private final FiltroInstrucciones filtroInstrucciones;
+    private final AlmacenArchivos almacenArchivos;
+    private final CacheReportes cacheReportes;
+    private final DespachoContabilidad despachoContabilidad;
+    private final ContadorOperaciones contador;
+
+    private static final int FILAS_POR_BLOQUE = 200;
+    private static final int LIMITE_CICLOS = 50;
+    private static final int MAX_LIMITE_CICLOS = 500;
+    // Cambiar al modificar el formato del reporte PDF: invalida los ETag publicados
+    private static final int VERSION_REPORTE_PDF = 1;
 
     private final org.springframework.scheduling.TaskScheduler taskScheduler;
     private java.util.concurrent.ScheduledFuture<?> scheduledTask;
 
+    @Value("${compensacion.ciclo.drenaje-ms:5000}")
+    private long drenajeMs;
+
+    /**
+     * @return false si la instrucción ya estaba registrada y se ignoró.
+     */
+    @Transactional
+    public boolean registrarOperacion(com.bancario.compensacion.dto.RegistroOperacionDTO req) {
+        CicloCompensacion cicloAbierto = cicloAbiertoVigente("No hay ciclo abierto para compensar");
+
+        if (esDuplicada(cicloAbierto.getIdCiclo(), req.getIdInstruccion())) {
+            log.warn("Operación duplicada ignorada: {}", req.getIdInstruccion());
+            return false;
+        }
+
+        detalleRepo.save(construirDetalle(req, cicloAbierto));
+        filtroInstrucciones.registrar(cicloAbierto.getIdCiclo(), req.getIdInstruccion());
+        contador.registrar(cicloAbierto.getIdCiclo(), 1);
+
+        // NOTE: Real-time accumulation is kept for immediate visibility,
+        // but final settlement will be recalculated from details at closing.
+        if (esReverso(req.getTipoOperacion())) {
+            // REVERSO logic: Credit Emisor (Refund), Debit Receptor (Take back)
+            acumularMovimiento(cicloAbierto.getIdCiclo(), req.getBicEmisor(), req.getMonto(), false); // Credit
+            acumularMovimiento(cicloAbierto.getIdCiclo(), req.getBicReceptor(), req.getMonto(), true); // Debit
+        } else {
+            // PAGO logic: Debit Emisor, Credit Receptor
+            acumularMovimiento(cicloAbierto.getIdCiclo(), req.getBicEmisor(), req.getMonto(), true);
+            acumularMovimiento(cicloAbierto.getIdCiclo(), req.getBicReceptor(), req.getMonto(), false);
+        }
+        return true;
+    }
+
+    /**
+     * Registra un lote de operaciones en una sola transacción: un insert multi-fila
+     * de detalles y un único upsert multi-fila con un delta por BIC. Es la ruta de
+     * escritura masiva compartida por el listener, la API y las cargas de archivos.
+     *
+     * @return posiciones del lote efectivamente registradas; las demás eran duplicadas.
+     */
     @Transactional
-    public void registrarOperacion(com.bancario.compensacion.dto.RegistroOperacionDTO req) {
-        CicloCompensacion cicloAbierto = cicloRepo.findByEstado("ABIERTO")
-                .stream().findFirst()
-                .orElseThrow(() -> new RuntimeException("No hay ciclo abierto para compensar"));
+    public java.util.BitSet registrarLote(List<com.bancario.compensacion.dto.RegistroOperacionDTO> lote) {
+        java.util.BitSet registradas = new java.util.BitSet(lote.size());
+        if (lote.isEmpty()) {
+            return registradas;
+        }
+
+        CicloCompensacion cicloAbierto = cicloAbiertoVigente("No hay ciclo abierto para compensar");
 
+        List<DetalleCompensacion> detalles = new java.util.ArrayList<>(lote.size());
+        MotorNeteo deltas = new MotorNeteo();
+        java.util.Set<java.util.UUID> vistas = new java.util.HashSet<>();
+
+        for (int i = 0; i < lote.size(); i++) {
+            com.bancario.compensacion.dto.RegistroOperacionDTO req = lote.get(i);
+            java.util.UUID id = req.getIdInstruccion();
+            if ((id != null && !vistas.add(id)) || esDuplicada(cicloAbierto.getIdCiclo(), id)) {
+                log.warn("Operación duplicada ignorada: {}", id);
+                continue;
+            }
+            registradas.set(i);
+            detalles.add(construirDetalle(req, cicloAbierto));
+            filtroInstrucciones.registrar(cicloAbierto.getIdCiclo(), id);
+            deltas.registrar(req.getTipoOperacion(), req.getBicEmisor(), req.getBicReceptor(),
+                    MotorNeteo.aCentavos(req.getMonto()));
+        }
+
+        contador.registrar(cicloAbierto.getIdCiclo(), detalleRepo.insertarLote(detalles));
+        if (acumulador.habilitado()) {
+            deltas.totales().forEach((bic, t) -> acumulador.registrarCentavos(cicloAbierto.getIdCiclo(), bic,
+                    MotorNeteo.debitos(t), MotorNeteo.creditos(t)));
+        } else {
+            posicionRepo.acumularLote(cicloAbierto.getIdCiclo(), deltas.totales().entrySet().stream()
+                    .map(e -> new DeltaPosicion(e.getKey(),
+                            MotorNeteo.aDecimal(MotorNeteo.debitos(e.getValue())),
+                            MotorNeteo.aDecimal(MotorNeteo.creditos(e.getValue()))))
+                    .toList());
+        }
+        return registradas;
+    }
+
+    /**
+     * Resuelve el ciclo abierto desde el registro en memoria; la referencia es un
+     * proxy JPA, por lo que la escritura no toca la fila de cicloCompensacion. Las
+     * filas que lleguen al ciclo ya cortado (réplica aún sin refrescar) se trasladan
+     * al siguiente antes del neteo (liquidarCiclo).
+     */
+    private CicloCompensacion cicloAbiertoVigente(String mensajeError) {
+        RegistroCicloAbierto.CicloVigente vigente = registroCiclo.obtener()
+                .orElseThrow(() -> new RuntimeException(mensajeError));
+        return cicloRepo.getReferenceById(vigente.idCiclo());
+    }
+
+    /**
+     * Solo consulta la BD cuando el filtro de Bloom no descarta la instrucción.
+     */
+    private boolean esDuplicada(Integer idCiclo, java.util.UUID idInstruccion) {
+        return idInstruccion != null
+                && filtroInstrucciones.posibleDuplicado(idCiclo, idInstruccion)
+                && detalleRepo.existsByIdInstruccion(idInstruccion);
+    }
+
+    /**
+     * Confirma si una instrucción ya está registrada; lo usan los consumidores
+     * para distinguir un duplicado rechazado por el índice único de otro error.
+     */
+    public boolean existeInstruccion(java.util.UUID idInstruccion) {
+        return idInstruccion != null && detalleRepo.existsByIdInstruccion(idInstruccion);
+    }
+
+    private DetalleCompensacion construirDetalle(com.bancario.compensacion.dto.RegistroOperacionDTO req,
+            CicloCompensacion ciclo) {
         DetalleCompensacion detalle = new DetalleCompensacion();
         detalle.setIdInstruccion(req.getIdInstruccion());
         detalle.setIdInstruccionOriginal(req.getIdInstruccionOriginal());
-        detalle.setCiclo(cicloAbierto);
+        detalle.setCiclo(ciclo);
         detalle.setTipoOperacion(req.getTipoOperacion());
         detalle.setBicEmisor(req.getBicEmisor());
         detalle.setBicReceptor(req.getBicReceptor());
         detalle.setMonto(req.getMonto());
         detalle.setCodigoReferencia(req.getCodigoReferencia());
         detalle.setEstadoLiquidacion("INCLUIDO");
-        detalleRepo.save(detalle);
+        return detalle;
+    }
 
-        // NOTE: Real-time accumulation is kept for immediate visibility,
-        // but final settlement will be recalculated from details at closing.
-        if ("REVERSO".equalsIgnoreCase(req.getTipoOperacion())) {
-            // REVERSO logic: Credit Emisor (Refund), Debit Receptor (Take back)
-            acumularTransaccion(cicloAbierto.getIdCiclo(), req.getBicEmisor(), req.getMonto(), false); // Credit
-            acumularTransaccion(cicloAbierto.getIdCiclo(), req.getBicReceptor(), req.getMonto(), true); // Debit
-        } else {
-            // PAGO logic: Debit Emisor, Credit Receptor
-            acumularTransaccion(cicloAbierto.getIdCiclo(), req.getBicEmisor(), req.getMonto(), true);
-            acumularTransaccion(cicloAbierto.getIdCiclo(), req.getBicReceptor(), req.getMonto(), false);
-        }
+    private static boolean esReverso(String tipoOperacion) {
+        return "REVERSO".equalsIgnoreCase(tipoOperacion);
     }
 
     @Transactional
     public void acumularEnCicloAbierto(String bic, BigDecimal monto, boolean esDebito) {
-        CicloCompensacion cicloAbierto = cicloRepo.findByEstado("ABIERTO")
-                .stream().findFirst()
-                .orElseThrow(() -> new RuntimeException("No hay ciclo abierto para compensar (Auto)"));
+        CicloCompensacion cicloAbierto = cicloAbiertoVigente("No hay ciclo abierto para compensar (Auto)");
 
-        acumularTransaccion(cicloAbierto.getIdCiclo(), bic, monto, esDebito);
+        acumularMovimiento(cicloAbierto.getIdCiclo(), bic, monto, esDebito);
     }
 
+    /**
+     * Acumula en un ciclo indicado por el llamador; solo si es el ciclo abierto vigente.
+     */
     @Transactional
     public void acumularTransaccion(Integer cicloId, String bic, BigDecimal monto, boolean esDebito) {
-        PosicionInstitucion posicion = posicionRepo.findByCicloIdCicloAndBic(cicloId, bic)
-                .orElseGet(() -> crearPosicionVacia(cicloId, bic));
+        boolean vigente = registroCiclo.obtener()
+                .map(c -> c.idCiclo().equals(cicloId))
+                .orElse(false);
+        if (!vigente) {
+            throw new RuntimeException("El ciclo " + cicloId + " no está abierto");
+        }
+        acumularMovimiento(cicloId, bic, monto, esDebito);
+    }
+
+    private void acumularMovimiento(Integer cicloId, String bic, BigDecimal monto, boolean esDebito) {
+        acumularDeltas(cicloId, bic, esDebito ? monto : BigDecimal.ZERO, esDebito ? BigDecimal.ZERO : monto);
+    }
 
-        if (esDebito) {
-            posicion.setTotalDebitos(posicion.getTotalDebitos().add(monto));
+    private void acumularDeltas(Integer cicloId, String bic, BigDecimal debitos, BigDecimal creditos) {
+        if (acumulador.habilitado()) {
+            acumulador.registrar(cicloId, bic, debitos, creditos);
         } else {
-            posicion.setTotalCredits(posicion.getTotalCredits().add(monto));
+            posicionRepo.acumular(cicloId, bic, debitos, creditos);
         }
-
-        posicion.recalcularNeto();
-        posicionRepo.save(posicion);
     }
 
     private PosicionInstitucion crearPosicionVacia(Integer cicloId, String bic) {
@@ -103,91 +233,187 @@ public class CompensacionServicio {
         return posicionRepo.save(p);
     }
 
-    @Transactional
+    /**
+     * Cierre en dos fases para que la ingesta nunca se quede sin ciclo abierto:
+     * 1. Corte (transacción corta): el ciclo pasa a CERRANDO y se abre el N+1, al que
+     *    se redirige la ingesta en cuanto confirma.
+     * 2. Liquidación: neteo y archivo (LIQUIDANDO); CERRADO junto con el disparo contable
+     *    en la bandeja de salida, que DespachoContabilidad entrega de forma asíncrona.
+     * Un ciclo que quedó en CERRANDO o LIQUIDANDO se retoma desde su fase.
+     */
     public ArchivoDTO realizarCierreDiario(Integer cicloId, Integer minutosProximoCiclo) {
         log.info(">>> INICIANDO CIERRE DEL CICLO: {}", cicloId);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
 
-        if (scheduledTask != null && !scheduledTask.isDone()) {
-            scheduledTask.cancel(false);
+        CicloCompensacion cicloActual = tx.execute(status -> cortarCiclo(cicloId, minutosProximoCiclo));
+
+        ArchivoLiquidacion archivo;
+        if ("CERRANDO".equals(cicloActual.getEstado())) {
+            esperarDrenaje(cicloActual);
+            archivo = tx.execute(status -> liquidarCiclo(cicloId));
+        } else {
+            archivo = archivoRepo.findFirstByCicloIdCicloOrderByIdArchivoDesc(cicloId)
+                    .orElseThrow(() -> new RuntimeException("Ciclo en LIQUIDANDO sin archivo de liquidación"));
         }
 
-        CicloCompensacion cicloActual = cicloRepo.findById(cicloId)
+        // El disparo contable queda en la bandeja de salida, confirmado junto con el CERRADO
+        tx.executeWithoutResult(status -> {
+            CicloCompensacion ciclo = cicloRepo.bloquearPorId(cicloId).orElseThrow();
+            try (Stream<PosicionInstitucion> posiciones = posicionRepo.streamPorCiclo(cicloId)) {
+                despachoContabilidad.encolarLiquidacion(cicloId, posiciones);
+            }
+            ciclo.setEstado("CERRADO");
+            cicloRepo.save(ciclo);
+        });
+        acumulador.descartarCiclo(cicloId);
+        log.info(">>> CICLO {} CERRADO", cicloId);
+
+        return mapper.toDTO(archivo);
+    }
+
+    /**
+     * Fase 1: marca el ciclo como CERRANDO y abre el siguiente en la misma
+     * transacción. Si el ciclo ya estaba en cierre, lo devuelve sin tocarlo.
+     */
+    private CicloCompensacion cortarCiclo(Integer cicloId, Integer minutosProximoCiclo) {
+        CicloCompensacion cicloActual = cicloRepo.bloquearPorId(cicloId)
                 .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
 
-        if (!"ABIERTO".equals(cicloActual.getEstado())) {
+        if ("CERRADO".equals(cicloActual.getEstado())) {
             throw new RuntimeException("El ciclo ya está cerrado");
         }
+        if (!"ABIERTO".equals(cicloActual.getEstado())) {
+            log.warn("Retomando cierre del ciclo {} en estado {}", cicloId, cicloActual.getEstado());
+            return cicloActual;
+        }
 
-        recalcularPosicionesDesdeDetalles(cicloActual);
+        if (scheduledTask != null && !scheduledTask.isDone()) {
+            scheduledTask.cancel(false);
+        }
 
-        List<PosicionInstitucion> posiciones = posicionRepo.findByCicloIdCiclo(cicloId);
+        cicloActual.setEstado("CERRANDO");
+        cicloActual.setFechaCierre(LocalDateTime.now(java.time.ZoneOffset.UTC));
+        // Lo escrito en el ciclo por encima de esta marca llegó tras el corte
+        cicloActual.setDetalleCorte(detalleRepo.ultimoIdDetalle());
+        cicloRepo.save(cicloActual);
 
-        BigDecimal sumaNetos = posiciones.stream()
-                .map(PosicionInstitucion::getPosicionNeta)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        iniciarSiguienteCiclo(cicloActual, posicionRepo.findByCicloIdCiclo(cicloId), minutosProximoCiclo);
+        return cicloActual;
+    }
 
-        if (sumaNetos.abs().compareTo(new BigDecimal("0.01")) > 0) {
-            throw new RuntimeException("ALERTA: El sistema no cuadra. Suma Netos: " + sumaNetos);
+    /**
+     * Las escrituras no bloquean la fila del ciclo: las réplicas que aún no vieron el
+     * corte siguen escribiendo en él hasta su próximo refresco. Se espera hasta
+     * fechaCierre + compensacion.ciclo.drenaje-ms para que esas escrituras confirmen
+     * antes de liquidar.
+     */
+    private void esperarDrenaje(CicloCompensacion ciclo) {
+        if (ciclo.getFechaCierre() == null) {
+            return;
+        }
+        long restanteMs = java.time.Duration.between(LocalDateTime.now(java.time.ZoneOffset.UTC),
+                ciclo.getFechaCierre().plus(java.time.Duration.ofMillis(drenajeMs))).toMillis();
+        if (restanteMs <= 0) {
+            return;
+        }
+        log.info("Esperando {} ms de drenaje de escrituras del ciclo {}", restanteMs, ciclo.getIdCiclo());
+        try {
+            Thread.sleep(restanteMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Cierre del ciclo " + ciclo.getIdCiclo() + " interrumpido durante el drenaje");
         }
+    }
+
+    /**
+     * Fase 2: traslada al ciclo abierto las filas tardías, netea el ciclo cortado,
+     * valida el cuadre y genera el archivo.
+     */
+    private ArchivoLiquidacion liquidarCiclo(Integer cicloId) {
+        CicloCompensacion cicloActual = cicloRepo.bloquearPorId(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+
+        acumulador.volcarCiclo(cicloId);
+        trasladarTardios(cicloActual);
+        recalcularPosicionesDesdeDetalles(cicloActual);
 
-        String xml = generarXML(cicloActual, posiciones);
+        String nombre = "LIQ_CICLO_" + cicloActual.getNumeroCiclo() + ".xml";
+        // Nombre único en disco: un reintento tras un fallo no pisa el archivo de otro intento
+        String ruta = "ciclo-" + cicloId + "/" + java.util.UUID.randomUUID() + "_" + nombre + ".gz";
+        ArchivoAlmacenado almacenado = almacenArchivos.guardar(ruta, true, salida -> escribirXML(cicloId, salida));
+        eliminarSiRevierte(ruta);
 
         ArchivoLiquidacion archivo = new ArchivoLiquidacion();
         archivo.setCiclo(cicloActual);
-        archivo.setNombreArchivo("LIQ_CICLO_" + cicloActual.getNumeroCiclo() + ".xml");
-        archivo.setContenidoXml(xml);
+        archivo.setNombreArchivo(nombre);
+        archivo.setRutaArchivo(almacenado.ruta());
+        archivo.setTamanoBytes(almacenado.tamanoBytes());
+        archivo.setChecksumSha256(almacenado.checksumSha256());
+        archivo.setCompresion(almacenado.compresion());
 
         archivo.setFechaGeneracion(LocalDateTime.now(java.time.ZoneOffset.UTC));
         archivo = archivoRepo.save(archivo);
+        // El gzip en base de datos es la copia durable; el disco solo la sirve
+        archivoRepo.guardarContenidoGzip(archivo.getIdArchivo(), almacenArchivos.resolver(ruta));
 
-        cicloActual.setEstado("CERRADO");
-        cicloActual.setFechaCierre(LocalDateTime.now(java.time.ZoneOffset.UTC));
+        cicloActual.setEstado("LIQUIDANDO");
         cicloRepo.save(cicloActual);
+        return archivo;
+    }
 
-        enviarLiquidacionAContabilidad(cicloId, posiciones);
-        iniciarSiguienteCiclo(cicloActual, posiciones, minutosProximoCiclo);
-
-        return mapper.toDTO(archivo);
+    /**
+     * Mueve al ciclo abierto los detalles escritos en el ciclo cortado después de la
+     * marca del corte, junto con sus deltas de posición. Las posiciones del ciclo
+     * cortado se recalculan después desde sus detalles.
+     */
+    private void trasladarTardios(CicloCompensacion cortado) {
+        if (cortado.getDetalleCorte() == null) {
+            return;
+        }
+        java.util.Optional<CicloCompensacion> abierto = cicloRepo.findByEstado("ABIERTO");
+        if (abierto.isEmpty()) {
+            log.warn("Sin ciclo abierto: las filas tardías se liquidan en el ciclo {}", cortado.getIdCiclo());
+            return;
+        }
+        long movidos = detalleRepo.moverTardios(cortado.getIdCiclo(), cortado.getDetalleCorte(),
+                abierto.get().getIdCiclo());
+        contador.registrar(abierto.get().getIdCiclo(), movidos);
+        if (movidos > 0) {
+            log.warn("{} detalles llegados tras el corte del ciclo {} pasan al ciclo {}", movidos,
+                    cortado.getIdCiclo(), abierto.get().getIdCiclo());
+        }
     }
 
     private void recalcularPosicionesDesdeDetalles(CicloCompensacion ciclo) {
         log.info("Ejecutando algoritmo de neteo para ciclo {}", ciclo.getIdCiclo());
 
-        List<PosicionInstitucion> posiciones = posicionRepo.findByCicloIdCiclo(ciclo.getIdCiclo());
-        for (PosicionInstitucion p : posiciones) {
-            p.setTotalDebitos(BigDecimal.ZERO);
-            p.setTotalCredits(BigDecimal.ZERO);
-            p.setPosicionNeta(BigDecimal.ZERO);
+        MotorNeteo motor = neteoServicio.netear(ciclo.getIdCiclo());
+        if (motor.sumaNetos() != 0) {
+            throw new RuntimeException("ALERTA: El neteo no cuadra. Suma Netos: " + MotorNeteo.aDecimal(motor.sumaNetos()));
         }
-        Map<String, PosicionInstitucion> mapaPosiciones = posiciones.stream()
-                .collect(Collectors.toMap(PosicionInstitucion::getBic, p -> p));
-
-        List<DetalleCompensacion> detalles = detalleRepo.findByCicloIdCiclo(ciclo.getIdCiclo());
 
-        for (DetalleCompensacion d : detalles) {
-            if ("EXCLUIDO".equalsIgnoreCase(d.getEstadoLiquidacion())
-                    || "PENDIENTE".equalsIgnoreCase(d.getEstadoLiquidacion()))
-                continue;
+        aplicarNeteo(ciclo, motor);
+        log.info("Neteo completado. Procesados {} detalles.", motor.operaciones());
+    }
 
-            PosicionInstitucion posEmisor = mapaPosiciones.computeIfAbsent(d.getBicEmisor(),
-                    k -> crearPosicionVacia(ciclo.getIdCiclo(), k));
-            PosicionInstitucion posReceptor = mapaPosiciones.computeIfAbsent(d.getBicReceptor(),
-                    k -> crearPosicionVacia(ciclo.getIdCiclo(), k));
-
-            if ("REVERSO".equalsIgnoreCase(d.getTipoOperacion())) {
-                posEmisor.setTotalCredits(posEmisor.getTotalCredits().add(d.getMonto()));
-                posReceptor.setTotalDebitos(posReceptor.getTotalDebitos().add(d.getMonto()));
-            } else {
-                posEmisor.setTotalDebitos(posEmisor.getTotalDebitos().add(d.getMonto()));
-                posReceptor.setTotalCredits(posReceptor.getTotalCredits().add(d.getMonto()));
-            }
-        }
+    /**
+     * Sustituye los totales de las posiciones del ciclo por el resultado del neteo.
+     * Las posiciones sin movimientos quedan en cero.
+     */
+    private void aplicarNeteo(CicloCompensacion ciclo, MotorNeteo motor) {
+        Map<String, PosicionInstitucion> mapaPosiciones = posicionRepo.findByCicloIdCiclo(ciclo.getIdCiclo()).stream()
+                .collect(Collectors.toMap(PosicionInstitucion::getBic, p -> p));
+        motor.totales().keySet().forEach(bic -> mapaPosiciones.computeIfAbsent(bic,
+                k -> crearPosicionVacia(ciclo.getIdCiclo(), k)));
 
+        long[] sinMovimientos = new long[2];
         for (PosicionInstitucion p : mapaPosiciones.values()) {
-            p.recalcularNeto();
+            long[] t = motor.totales().getOrDefault(p.getBic(), sinMovimientos);
+            p.setTotalDebitos(MotorNeteo.aDecimal(MotorNeteo.debitos(t)));
+            p.setTotalCredits(MotorNeteo.aDecimal(MotorNeteo.creditos(t)));
+            p.setPosicionNeta(MotorNeteo.aDecimal(MotorNeteo.neto(t)));
             posicionRepo.save(p);
         }
-        log.info("Neteo completado. Procesados {} detalles.", detalles.size());
     }
 
     private void iniciarSiguienteCiclo(CicloCompensacion anterior, List<PosicionInstitucion> saldosAnteriores,
@@ -197,16 +423,14 @@ public class CompensacionServicio {
         nuevo.setEstado("ABIERTO");
         nuevo.setFechaApertura(LocalDateTime.now(java.time.ZoneOffset.UTC));
         CicloCompensacion guardado = cicloRepo.save(nuevo);
+        registroCiclo.establecer(guardado);
 
-        for (PosicionInstitucion posAnt : saldosAnteriores) {
-            PosicionInstitucion posNueva = new PosicionInstitucion();
-            posNueva.setCiclo(guardado);
-            posNueva.setBic(posAnt.getBic());
-            posNueva.setTotalDebitos(BigDecimal.ZERO);
-            posNueva.setTotalCredits(BigDecimal.ZERO);
-            posNueva.recalcularNeto();
-            posicionRepo.save(posNueva);
-        }
+        // Arrastre de BICs en cero: un solo upsert multi-fila en lugar de un INSERT por BIC
+        posicionRepo.acumularLote(guardado.getIdCiclo(), saldosAnteriores.stream()
+                .map(PosicionInstitucion::getBic)
+                .distinct()
+                .map(bic -> new DeltaPosicion(bic, BigDecimal.ZERO, BigDecimal.ZERO))
+                .toList());
 
         programarCierreAutomatico(guardado.getIdCiclo(), minutosDuracion != null ? minutosDuracion : 10);
     }
@@ -236,91 +460,283 @@ public class CompensacionServicio {
         this.scheduledTask = taskScheduler.schedule(tareaCierre, fechaEjecucion);
     }
 
-    private void enviarLiquidacionAContabilidad(Integer cicloId, List<PosicionInstitucion> posiciones) {
-        try {
-            java.util.List<java.util.Map<String, Object>> posicionesDTO = new java.util.ArrayList<>();
-            for (PosicionInstitucion p : posiciones) {
-                java.util.Map<String, Object> pos = new java.util.HashMap<>();
-                pos.put("bic", p.getBic());
-                pos.put("totalDebitos", p.getTotalDebitos());
-                pos.put("totalCreditos", p.getTotalCredits());
-                pos.put("posicionNeta", p.getPosicionNeta());
-                posicionesDTO.add(pos);
-            }
-
-            java.util.Map<String, Object> solicitud = new java.util.HashMap<>();
-            solicitud.put("cicloId", cicloId);
-            solicitud.put("posiciones", posicionesDTO);
+    /**
+     * ETag del reporte de un ciclo CERRADO sin generarlo, para responder 304 antes de
+     * renderizar; null si el ciclo no está cerrado.
+     */
+    @Transactional(readOnly = true)
+    public String etagReporteCicloCerrado(Integer cicloId) {
+        ReportePdf cacheado = cacheReportes.obtener(cicloId);
+        if (cacheado != null) {
+            return cacheado.etag();
+        }
+        CicloCompensacion ciclo = cicloRepo.findById(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+        return "CERRADO".equals(ciclo.getEstado()) ? etagReporte(ciclo) : null;
+    }
 
-            restTemplate.postForEntity(contabilidadUrl + "/api/v1/ledger/compensar", solicitud, Void.class);
-        } catch (Exception e) {
-            log.error("Fallo al enviar liquidación a Contabilidad: {}", e.getMessage());
-            throw new RuntimeException("Error en Disparo Contable: " + e.getMessage());
+    /**
+     * Reporte de un ciclo CERRADO, generado una sola vez y servido desde la caché;
+     * null si el ciclo no está cerrado y el reporte debe generarse en vivo.
+     */
+    @Transactional(readOnly = true)
+    public ReportePdf reporteCicloCerrado(Integer cicloId) {
+        ReportePdf cacheado = cacheReportes.obtener(cicloId);
+        if (cacheado != null) {
+            return cacheado;
+        }
+        CicloCompensacion ciclo = cicloRepo.findById(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+        if (!"CERRADO".equals(ciclo.getEstado())) {
+            return null;
         }
+        return cacheReportes.guardar(cicloId, new ReportePdf(generarReportePDF(cicloId), etagReporte(ciclo)));
+    }
+
+    /**
+     * Depende solo del ciclo y de su cierre, no de los bytes del PDF (OpenPDF incluye
+     * CreationDate e /ID): es el mismo en todas las réplicas y tras regenerarlo, y
+     * débil porque dos generaciones no son idénticas byte a byte.
+     */
+    private static String etagReporte(CicloCompensacion ciclo) {
+        long cierre = ciclo.getFechaCierre() != null
+                ? ciclo.getFechaCierre().toInstant(java.time.ZoneOffset.UTC).toEpochMilli() : 0;
+        return "W/\"ciclo-" + ciclo.getIdCiclo() + "-" + ciclo.getEstado() + "-" + cierre + "-v" + VERSION_REPORTE_PDF + "\"";
     }
 
-    public byte[] generarReportePDF(Integer cicloId) {
-        try (java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream()) {
-            com.lowagie.text.Document document = new com.lowagie.text.Document();
-            com.lowagie.text.pdf.PdfWriter.getInstance(document, out);
+    /**
+     * Escribe el reporte PDF del ciclo en la salida según se construye: las posiciones
+     * se leen por cursor y la tabla se vuelca cada FILAS_POR_BLOQUE filas, de modo que
+     * ni el documento ni la lista de posiciones quedan completos en memoria.
+     */
+    @Transactional(readOnly = true)
+    public void escribirReportePDF(Integer cicloId, OutputStream salida) {
+        CicloCompensacion ciclo = cicloRepo.findById(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+        com.lowagie.text.Document document = new com.lowagie.text.Document();
+        try (Stream<PosicionInstitucion> posiciones = posicionRepo.streamPorCiclo(cicloId)) {
+            com.lowagie.text.pdf.PdfWriter.getInstance(document, salida);
             document.open();
 
-            CicloCompensacion ciclo = cicloRepo.findById(cicloId).orElseThrow();
             document.add(new com.lowagie.text.Paragraph("Ciclo: " + ciclo.getNumeroCiclo()));
             document.add(new com.lowagie.text.Paragraph("Estado: " + ciclo.getEstado()));
             document.add(new com.lowagie.text.Paragraph("Fecha Apertura: " + ciclo.getFechaApertura()));
 
             com.lowagie.text.pdf.PdfPTable table = new com.lowagie.text.pdf.PdfPTable(4);
             table.setWidthPercentage(100);
+            table.setHeaderRows(1);
+            table.setComplete(false);
             table.addCell("Banco (BIC)");
             table.addCell("Débitos");
             table.addCell("Créditos");
             table.addCell("Posición Neta");
 
-            List<PosicionInstitucion> posiciones = posicionRepo.findByCicloIdCiclo(cicloId);
-            for (PosicionInstitucion p : posiciones) {
+            int filas = 0;
+            for (PosicionInstitucion p : (Iterable<PosicionInstitucion>) posiciones::iterator) {
                 table.addCell(p.getBic());
                 table.addCell(p.getTotalDebitos().toString());
                 table.addCell(p.getTotalCredits().toString());
                 table.addCell(p.getPosicionNeta().toString());
+                if (++filas % FILAS_POR_BLOQUE == 0) {
+                    // Vuelca las filas acumuladas; las páginas completas se escriben en la salida
+                    document.add(table);
+                }
             }
+            table.setComplete(true);
             document.add(table);
             document.close();
-            return out.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException("Error generando PDF: " + e.getMessage());
         }
     }
 
-    private String generarXML(CicloCompensacion ciclo, List<PosicionInstitucion> posiciones) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        sb.append("<SettlementFile>\n");
-        for (PosicionInstitucion p : posiciones) {
-            sb.append("  <Tx>\n");
-            sb.append("    <BankBIC>").append(p.getBic()).append("</BankBIC>\n");
-            sb.append("    <NetPosition>").append(p.getPosicionNeta()).append("</NetPosition>\n");
-            sb.append("  </Tx>\n");
+    private byte[] generarReportePDF(Integer cicloId) {
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        escribirReportePDF(cicloId, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Escribe el archivo de liquidación posición a posición, validando el cuadre
+     * al terminar; si no cuadra se lanza la alerta y el almacén descarta el archivo.
+     */
+    private void escribirXML(Integer cicloId, OutputStream salida) throws IOException {
+        long sumaNetos = 0;
+        try (Stream<PosicionInstitucion> posiciones = posicionRepo.streamPorCiclo(cicloId)) {
+            XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(salida, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("SettlementFile");
+            for (PosicionInstitucion p : (Iterable<PosicionInstitucion>) posiciones::iterator) {
+                sumaNetos = Math.addExact(sumaNetos, MotorNeteo.aCentavos(p.getPosicionNeta()));
+                xml.writeCharacters("\n  ");
+                xml.writeStartElement("Tx");
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("BankBIC");
+                xml.writeCharacters(p.getBic());
+                xml.writeEndElement();
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("NetPosition");
+                xml.writeCharacters(p.getPosicionNeta().toPlainString());
+                xml.writeEndElement();
+                xml.writeCharacters("\n  ");
+                xml.writeEndElement();
+            }
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error escribiendo XML de liquidación", e);
+        }
+
+        if (Math.abs(sumaNetos) > 1) {
+            throw new RuntimeException("ALERTA: El sistema no cuadra. Suma Netos: " + MotorNeteo.aDecimal(sumaNetos));
+        }
+    }
+
+    /**
+     * El archivo se escribe antes del commit; si la transacción de liquidación
+     * revierte, se borra para no dejar huérfanos en el almacén.
+     */
+    private void eliminarSiRevierte(String ruta) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        almacenArchivos.eliminar(ruta);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Último archivo de liquidación del ciclo, listo para descargarse desde el almacén.
+     * Si falta en disco (volumen nuevo, réplica sin el archivo) se restaura desde
+     * contenidoGzip; los archivos antiguos guardados en contenidoXml se comprimen y
+     * se migran la primera vez.
+     */
+    @Transactional
+    public ArchivoLiquidacion obtenerArchivoLiquidacion(Integer cicloId) {
+        ArchivoLiquidacion archivo = archivoRepo.findFirstByCicloIdCicloOrderByIdArchivoDesc(cicloId)
+                .orElseThrow(() -> new RuntimeException("El ciclo " + cicloId + " no tiene archivo de liquidación"));
+        if (archivo.getRutaArchivo() != null) {
+            if (!almacenArchivos.existe(archivo.getRutaArchivo())) {
+                byte[] comprimido = archivoRepo.leerContenidoGzip(archivo.getIdArchivo());
+                if (comprimido == null) {
+                    throw new RuntimeException("El archivo de liquidación del ciclo " + cicloId + " no está disponible");
+                }
+                almacenArchivos.restaurar(archivo.getRutaArchivo(), comprimido);
+            }
+            return archivo;
+        }
+
+        String xml = archivoRepo.leerContenidoXml(archivo.getIdArchivo());
+        if (xml == null) {
+            throw new RuntimeException("El archivo de liquidación del ciclo " + cicloId + " no tiene contenido");
         }
-        sb.append("</SettlementFile>");
-        return sb.toString();
+        byte[] contenido = xml.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        String ruta = "ciclo-" + cicloId + "/" + java.util.UUID.randomUUID() + "_" + archivo.getNombreArchivo() + ".gz";
+        ArchivoAlmacenado almacenado = almacenArchivos.guardar(ruta, true, salida -> salida.write(contenido));
+        eliminarSiRevierte(ruta);
+
+        archivo.setRutaArchivo(almacenado.ruta());
+        archivo.setTamanoBytes(almacenado.tamanoBytes());
+        archivo.setChecksumSha256(almacenado.checksumSha256());
+        archivo.setCompresion(almacenado.compresion());
+        archivo = archivoRepo.save(archivo);
+        archivoRepo.guardarContenidoGzip(archivo.getIdArchivo(), almacenArchivos.resolver(ruta));
+        return archivo;
+    }
+
+    public java.nio.file.Path rutaArchivo(ArchivoLiquidacion archivo) {
+        return almacenArchivos.resolver(archivo.getRutaArchivo());
+    }
+
+    /**
+     * Historial de ciclos paginado por keyset sobre numeroCiclo, del más reciente al
+     * más antiguo. Para la página siguiente se pasa en antesDe el numeroCiclo del
+     * último elemento recibido.
+     */
+    @Transactional(readOnly = true)
+    public List<CicloDTO> listarCiclos(String estado, LocalDateTime desde, LocalDateTime hasta, Integer antesDe,
+            Integer limite) {
+        int tamano = tamanoPaginaCiclos(limite);
+        String estadoNormalizado = estado == null || estado.isBlank() ? null : estado.trim().toUpperCase();
+        return cicloRepo.buscarPagina(estadoNormalizado, desde, hasta, antesDe, tamano).stream()
+                .map(mapper::toDTO)
+                .toList();
     }
 
-    public List<CicloDTO> listarCiclos() {
-        List<CicloCompensacion> ciclos = cicloRepo.findAll();
-        if (ciclos.isEmpty()) {
-            CicloCompensacion primerCiclo = new CicloCompensacion();
-            primerCiclo.setNumeroCiclo(1);
-            primerCiclo.setEstado("ABIERTO");
-            primerCiclo.setFechaApertura(LocalDateTime.now(java.time.ZoneOffset.UTC));
-            CicloCompensacion guardado = cicloRepo.save(primerCiclo);
-            programarCierreAutomatico(guardado.getIdCiclo(), 60);
-            ciclos.add(guardado);
+    /**
+     * Tamaño de página efectivo: LIMITE_CICLOS por defecto, acotado a MAX_LIMITE_CICLOS.
+     */
+    public static int tamanoPaginaCiclos(Integer limite) {
+        return limite == null ? LIMITE_CICLOS : Math.max(1, Math.min(limite, MAX_LIMITE_CICLOS));
+    }
+
+    /**
+     * Primer arranque del sistema: abre el ciclo 1 si no existe ninguno. Si otra
+     * réplica lo abre a la vez, el índice único de numeroCiclo rechaza el duplicado.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void asegurarPrimerCiclo() {
+        if (cicloRepo.count() > 0) {
+            return;
         }
-        return ciclos.stream().map(mapper::toDTO).toList();
+        try {
+            abrirPrimerCiclo();
+        } catch (DataIntegrityViolationException e) {
+            log.info("El ciclo inicial ya fue abierto por otra réplica");
+        }
+    }
+
+    private CicloCompensacion abrirPrimerCiclo() {
+        CicloCompensacion primerCiclo = new CicloCompensacion();
+        primerCiclo.setNumeroCiclo(1);
+        primerCiclo.setEstado("ABIERTO");
+        primerCiclo.setFechaApertura(LocalDateTime.now(java.time.ZoneOffset.UTC));
+        CicloCompensacion guardado = cicloRepo.save(primerCiclo);
+        registroCiclo.establecer(guardado);
+        programarCierreAutomatico(guardado.getIdCiclo(), 60);
+        return guardado;
     }
 
     public List<PosicionDTO> obtenerPosicionesCiclo(Integer cicloId) {
-        return mapper.toPosicionList(posicionRepo.findByCicloIdCiclo(cicloId));
+        List<PosicionDTO> posiciones = mapper.toPosicionList(posicionRepo.findByCicloIdCiclo(cicloId));
+        if (!acumulador.habilitado()) {
+            return posiciones;
+        }
+
+        // Valores en vivo: lo persistido más los deltas aún no volcados
+        Map<String, long[]> pendientes = new java.util.HashMap<>(acumulador.pendientes(cicloId));
+        List<PosicionDTO> enVivo = new java.util.ArrayList<>(posiciones.size() + pendientes.size());
+        for (PosicionDTO p : posiciones) {
+            long[] delta = pendientes.remove(p.getCodigoBic());
+            enVivo.add(delta == null ? p : sumarPendiente(p, delta));
+        }
+        pendientes.forEach((bic, delta) -> enVivo.add(sumarPendiente(PosicionDTO.builder()
+                .idCiclo(cicloId)
+                .codigoBic(bic)
+                .totalDebitos(BigDecimal.ZERO)
+                .totalCreditos(BigDecimal.ZERO)
+                .posicionNeta(BigDecimal.ZERO)
+                .build(), delta)));
+        return enVivo;
+    }
+
+    private PosicionDTO sumarPendiente(PosicionDTO p, long[] delta) {
+        BigDecimal debitos = p.getTotalDebitos().add(MotorNeteo.aDecimal(delta[0]));
+        BigDecimal creditos = p.getTotalCreditos().add(MotorNeteo.aDecimal(delta[1]));
+        return PosicionDTO.builder()
+                .id(p.getId())
+                .idCiclo(p.getIdCiclo())
+                .codigoBic(p.getCodigoBic())
+                .totalDebitos(debitos)
+                .totalCreditos(creditos)
+                .posicionNeta(creditos.subtract(debitos))
+                .build();
     }
 }
@@ -0,0 +1,75 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operaciones registradas por ciclo, en memoria, para el monitor del dashboard.
+ *
+ * El contador de un ciclo se siembra una sola vez con un recuento en BD la primera
+ * vez que se consulta (normalmente al abrirse el ciclo, con cero filas); después
+ * solo suman las escrituras confirmadas de esta réplica. Las de otras réplicas
+ * aparecen en el siguiente ciclo, al volver a sembrar.
+ */
+@Component
+@RequiredArgsConstructor
+public class ContadorOperaciones {
+
+    private final DetalleCompensacionRepositorio detalleRepo;
+
+    private final ConcurrentHashMap<Integer, LongAdder> porCiclo = new ConcurrentHashMap<>();
+
+    /**
+     * Suma operaciones al ciclo. Dentro de una transacción se aplica tras el commit
+     * para no contar escrituras revertidas. Antes de la siembra no suma: el recuento
+     * inicial ya incluirá lo confirmado.
+     */
+    public void registrar(Integer idCiclo, long operaciones) {
+        if (idCiclo == null || operaciones <= 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    sumar(idCiclo, operaciones);
+                }
+            });
+        } else {
+            sumar(idCiclo, operaciones);
+        }
+    }
+
+    public long operaciones(Integer idCiclo) {
+        return porCiclo.computeIfAbsent(idCiclo, this::sembrar).sum();
+    }
+
+    /**
+     * Solo se conserva el contador del ciclo abierto vigente.
+     */
+    @EventListener
+    public void alCambiarCiclo(RegistroCicloAbierto.CambioCicloAbierto evento) {
+        Integer vigente = evento.nuevo() != null ? evento.nuevo().idCiclo() : null;
+        porCiclo.keySet().removeIf(idCiclo -> !idCiclo.equals(vigente));
+    }
+
+    private void sumar(Integer idCiclo, long operaciones) {
+        LongAdder contador = porCiclo.get(idCiclo);
+        if (contador != null) {
+            contador.add(operaciones);
+        }
+    }
+
+    private LongAdder sembrar(Integer idCiclo) {
+        LongAdder contador = new LongAdder();
+        contador.add(detalleRepo.contarPorCiclo(idCiclo));
+        return contador;
+    }
+}
@@ -0,0 +1,293 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.MensajeSalida;
+import com.bancario.compensacion.modelo.PosicionInstitucion;
+import com.bancario.compensacion.repositorio.MensajeSalidaRepositorio;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Disparo contable asíncrono mediante bandeja de salida (outbox).
+ *
+ * El cierre solo inserta los mensajes en su propia transacción, así que un
+ * MS-CONTABILIDAD lento o caído ya no retiene bloqueos ni revierte la liquidación.
+ * El despacho periódico reclama lotes de mensajes vencidos, los envía fuera de
+ * toda transacción con idMensaje como Idempotency-Key y reintenta con espera
+ * exponencial. Las posiciones se parten en mensajes de posiciones-por-mensaje.
+ */
+@Slf4j
+@Component
+public class DespachoContabilidad {
+
+    public static final String TIPO_LIQUIDACION = "LIQUIDACION_CICLO";
+
+    private final MensajeSalidaRepositorio mensajeRepo;
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final PlatformTransactionManager transactionManager;
+
+    private final Timer entrega;
+    private final Counter errores;
+    private final AtomicLong pendientes = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicLong retrasoSeg = new AtomicLong();
+
+    @Value("${service.contabilidad.url:http://ms-contabilidad:8083}")
+    private String contabilidadUrl;
+
+    @Value("${compensacion.contabilidad.posiciones-por-mensaje:1000}")
+    private int posicionesPorMensaje = 1000;
+
+    @Value("${compensacion.contabilidad.lote:20}")
+    private int tamanoLote = 20;
+
+    @Value("${compensacion.contabilidad.reserva-ms:120000}")
+    private long reservaMs = 120_000;
+
+    @Value("${compensacion.contabilidad.backoff-ms:2000}")
+    private long backoffMs = 2_000;
+
+    @Value("${compensacion.contabilidad.backoff-max-ms:300000}")
+    private long backoffMaxMs = 300_000;
+
+    @Value("${compensacion.contabilidad.max-intentos:25}")
+    private int maxIntentos = 25;
+
+    public DespachoContabilidad(MensajeSalidaRepositorio mensajeRepo, RestTemplate restTemplate,
+            ObjectMapper objectMapper, PlatformTransactionManager transactionManager, MeterRegistry metricas) {
+        this.mensajeRepo = mensajeRepo;
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.transactionManager = transactionManager;
+        this.entrega = Timer.builder("compensacion.contabilidad.entrega")
+                .description("Desde el cierre hasta la confirmación de MS-CONTABILIDAD")
+                .register(metricas);
+        this.errores = Counter.builder("compensacion.contabilidad.errores")
+                .description("Envíos a MS-CONTABILIDAD fallidos (cada intento)")
+                .register(metricas);
+        Gauge.builder("compensacion.contabilidad.pendientes", pendientes, AtomicLong::get)
+                .description("Mensajes de la bandeja de salida por entregar")
+                .register(metricas);
+        Gauge.builder("compensacion.contabilidad.fallidos", fallidos, AtomicLong::get)
+                .description("Mensajes que agotaron los reintentos y requieren atención")
+                .register(metricas);
+        Gauge.builder("compensacion.contabilidad.retraso", retrasoSeg, AtomicLong::get)
+                .description("Antigüedad en segundos del mensaje pendiente más antiguo")
+                .baseUnit("seconds")
+                .register(metricas);
+    }
+
+    /**
+     * Inserta la liquidación del ciclo en la bandeja de salida. Debe ejecutarse en la
+     * transacción que marca el ciclo CERRADO: ambos se confirman o ninguno.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int encolarLiquidacion(Integer cicloId, Stream<PosicionInstitucion> posiciones) {
+        List<List<Map<String, Object>>> partes = new ArrayList<>();
+        List<Map<String, Object>> actual = new ArrayList<>();
+        Iterator<PosicionInstitucion> it = posiciones.iterator();
+        while (it.hasNext()) {
+            PosicionInstitucion p = it.next();
+            Map<String, Object> pos = new HashMap<>();
+            pos.put("bic", p.getBic());
+            pos.put("totalDebitos", p.getTotalDebitos());
+            pos.put("totalCreditos", p.getTotalCredits());
+            pos.put("posicionNeta", p.getPosicionNeta());
+            actual.add(pos);
+            if (actual.size() >= posicionesPorMensaje) {
+                partes.add(actual);
+                actual = new ArrayList<>();
+            }
+        }
+        if (!actual.isEmpty() || partes.isEmpty()) {
+            partes.add(actual);
+        }
+
+        LocalDateTime ahora = LocalDateTime.now(ZoneOffset.UTC);
+        List<MensajeSalida> mensajes = new ArrayList<>(partes.size());
+        for (int i = 0; i < partes.size(); i++) {
+            Map<String, Object> solicitud = new LinkedHashMap<>();
+            solicitud.put("cicloId", cicloId);
+            solicitud.put("parte", i + 1);
+            solicitud.put("totalPartes", partes.size());
+            solicitud.put("posiciones", partes.get(i));
+
+            MensajeSalida mensaje = new MensajeSalida();
+            mensaje.setIdMensaje(claveIdempotencia(cicloId, i + 1));
+            mensaje.setTipo(TIPO_LIQUIDACION);
+            mensaje.setIdCiclo(cicloId);
+            mensaje.setParte(i + 1);
+            mensaje.setTotalPartes(partes.size());
+            mensaje.setCarga(json(solicitud));
+            mensaje.setEstado("PENDIENTE");
+            mensaje.setIntentos(0);
+            mensaje.setProximoIntento(ahora);
+            mensaje.setFechaCreacion(ahora);
+            mensajes.add(mensaje);
+        }
+        mensajeRepo.saveAll(mensajes);
+        log.info("Liquidación del ciclo {} encolada para Contabilidad en {} mensaje(s)", cicloId, mensajes.size());
+        return mensajes.size();
+    }
+
+    /**
+     * Misma clave para la misma parte del mismo ciclo, aunque el cierre se reintente.
+     */
+    static UUID claveIdempotencia(Integer cicloId, int parte) {
+        return UUID.nameUUIDFromBytes((TIPO_LIQUIDACION + ":" + cicloId + ":" + parte)
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Scheduled(fixedDelayString = "${compensacion.contabilidad.intervalo-ms:1000}")
+    public void despachar() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        List<MensajeSalida> lote;
+        do {
+            LocalDateTime ahora = LocalDateTime.now(ZoneOffset.UTC);
+            lote = tx.execute(status -> {
+                List<MensajeSalida> reclamados = mensajeRepo.bloquearPendientes(ahora, tamanoLote);
+                if (!reclamados.isEmpty()) {
+                    mensajeRepo.reservar(reclamados.stream().map(MensajeSalida::getIdMensaje).toList(),
+                            ahora.plus(Duration.ofMillis(reservaMs)));
+                }
+                return reclamados;
+            });
+        } while (lote != null && !lote.isEmpty() && enviarLote(tx, lote) && lote.size() == tamanoLote);
+        actualizarMetricas();
+    }
+
+    /**
+     * @return false si MS-CONTABILIDAD no está disponible y conviene esperar al siguiente turno.
+     */
+    private boolean enviarLote(TransactionTemplate tx, List<MensajeSalida> lote) {
+        for (int i = 0; i < lote.size(); i++) {
+            MensajeSalida mensaje = lote.get(i);
+            Resultado resultado = enviar(mensaje);
+            LocalDateTime ahora = LocalDateTime.now(ZoneOffset.UTC);
+            if (resultado == null) {
+                tx.executeWithoutResult(status -> mensajeRepo.marcarEnviado(mensaje.getIdMensaje(), ahora));
+                entrega.record(Duration.between(mensaje.getFechaCreacion(), ahora));
+                continue;
+            }
+
+            errores.increment();
+            int intentos = mensaje.getIntentos() + 1;
+            if (!resultado.reintentable() || intentos >= maxIntentos) {
+                log.error("Mensaje {} (ciclo {}, parte {}/{}) FALLIDO tras {} intento(s): {}", mensaje.getIdMensaje(),
+                        mensaje.getIdCiclo(), mensaje.getParte(), mensaje.getTotalPartes(), intentos, resultado.error());
+                tx.executeWithoutResult(status -> mensajeRepo.reprogramar(mensaje.getIdMensaje(), "FALLIDO",
+                        intentos, null, resultado.error()));
+                continue;
+            }
+
+            // Contabilidad no disponible: el resto del lote se aplaza al mismo turno de reintento
+            LocalDateTime proximo = ahora.plus(Duration.ofMillis(espera(intentos)));
+            log.warn("Envío a Contabilidad fallido (ciclo {}, parte {}/{}, intento {}), reintento a las {}: {}",
+                    mensaje.getIdCiclo(), mensaje.getParte(), mensaje.getTotalPartes(), intentos, proximo,
+                    resultado.error());
+            List<MensajeSalida> restantes = lote.subList(i, lote.size());
+            tx.executeWithoutResult(status -> restantes.forEach(m -> mensajeRepo.reprogramar(m.getIdMensaje(),
+                    "PENDIENTE", m == mensaje ? intentos : m.getIntentos(), proximo,
+                    m == mensaje ? resultado.error() : m.getUltimoError())));
+            return false;
+        }
+        return true;
+    }
+
+    private record Resultado(boolean reintentable, String error) {
+    }
+
+    /**
+     * @return null si Contabilidad confirmó el mensaje.
+     */
+    private Resultado enviar(MensajeSalida mensaje) {
+        HttpHeaders cabeceras = new HttpHeaders();
+        cabeceras.setContentType(MediaType.APPLICATION_JSON);
+        cabeceras.set("Idempotency-Key", mensaje.getIdMensaje().toString());
+        try {
+            restTemplate.postForEntity(contabilidadUrl + "/api/v1/ledger/compensar",
+                    new HttpEntity<>(mensaje.getCarga(), cabeceras), Void.class);
+            return null;
+        } catch (RestClientResponseException e) {
+            return new Resultado(esReintentable(e.getStatusCode()), recortar("HTTP " + e.getStatusCode().value()
+                    + ": " + e.getResponseBodyAsString()));
+        } catch (Exception e) {
+            return new Resultado(true, recortar(e.getMessage()));
+        }
+    }
+
+    /**
+     * 4xx indica una solicitud que Contabilidad nunca aceptará, salvo los estados transitorios.
+     */
+    static boolean esReintentable(HttpStatusCode estado) {
+        int codigo = estado.value();
+        return !estado.is4xxClientError() || codigo == 408 || codigo == 409 || codigo == 425 || codigo == 429;
+    }
+
+    /**
+     * Espera exponencial desde backoff-ms hasta backoff-max-ms, con ±20 % de dispersión
+     * para que las réplicas no reintenten al unísono.
+     */
+    long espera(int intentos) {
+        long base = backoffMs << Math.min(intentos - 1, 20);
+        long acotada = Math.min(base <= 0 ? backoffMaxMs : base, backoffMaxMs);
+        return (long) (acotada * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+    }
+
+    private void actualizarMetricas() {
+        try {
+            pendientes.set(mensajeRepo.countByEstado("PENDIENTE"));
+            fallidos.set(mensajeRepo.countByEstado("FALLIDO"));
+            LocalDateTime antiguo = mensajeRepo.pendienteMasAntiguo();
+            retrasoSeg.set(antiguo == null ? 0
+                    : Math.max(0, Duration.between(antiguo, LocalDateTime.now(ZoneOffset.UTC)).toSeconds()));
+        } catch (Exception e) {
+            log.debug("No se pudieron actualizar las métricas de la bandeja de salida: {}", e.getMessage());
+        }
+    }
+
+    private String json(Object valor) {
+        try {
+            return objectMapper.writeValueAsString(valor);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error serializando la liquidación para Contabilidad", e);
+        }
+    }
+
+    private static String recortar(String texto) {
+        return texto == null || texto.length() <= 500 ? texto : texto.substring(0, 500);
+    }
+}
@@ -0,0 +1,177 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.PosicionDTO;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Posiciones en vivo por Server-Sent Events.
+ *
+ * Cada suscriptor recibe un evento "snapshot" con todas las posiciones del ciclo y
+ * después eventos "delta" solo con los BIC que cambiaron (valores absolutos, así
+ * que reaplicar un delta es inocuo). Los cambios se agrupan por intervalo
+ * (compensacion.posiciones.sse.intervalo-ms): un banco con mucho tráfico genera a
+ * lo sumo un evento por intervalo. Las posiciones se leen una vez por ciclo e
+ * intervalo, sin importar cuántos dashboards estén suscritos, e incluyen tanto lo
+ * volcado por cualquier réplica como los deltas locales pendientes del acumulador.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DifusionPosiciones {
+
+    private static final long LATIDO_NANOS = 15_000_000_000L;
+
+    private final CompensacionServicio compensacionServicio;
+    private final CicloCompensacionRepositorio cicloRepo;
+
+    @Value("${compensacion.posiciones.sse.timeout-ms:1800000}")
+    private long timeoutMs = 1_800_000;
+
+    private final Map<Integer, Canal> canales = new ConcurrentHashMap<>();
+    private final ExecutorService difusion = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "posiciones-sse");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private static final class Canal {
+        private final List<SseEmitter> emisores = new CopyOnWriteArrayList<>();
+        private final ReentrantLock candado = new ReentrantLock();
+        private Map<String, PosicionDTO> ultimo;
+        private long ultimoEnvio = System.nanoTime();
+        // Bajo candado: publicar() lo retira del mapa y ya no admite suscriptores
+        private boolean retirado;
+    }
+
+    public SseEmitter suscribir(Integer cicloId) {
+        if (!cicloRepo.existsById(cicloId)) {
+            throw new RuntimeException("Ciclo no encontrado");
+        }
+        SseEmitter emisor = new SseEmitter(timeoutMs);
+        while (true) {
+            Canal canal = canales.computeIfAbsent(cicloId, id -> new Canal());
+            canal.candado.lock();
+            try {
+                if (canal.retirado) {
+                    // publicar() lo retiró entre computeIfAbsent y el candado: se usa uno nuevo
+                    continue;
+                }
+                Runnable baja = () -> canal.emisores.remove(emisor);
+                emisor.onCompletion(baja);
+                emisor.onTimeout(baja);
+                emisor.onError(e -> baja.run());
+
+                if (canal.ultimo == null) {
+                    canal.ultimo = indexar(compensacionServicio.obtenerPosicionesCiclo(cicloId));
+                }
+                List<PosicionDTO> snapshot = new ArrayList<>(canal.ultimo.values());
+                canal.emisores.add(emisor);
+                // Encolado bajo el mismo candado que publicar(): el snapshot llega antes que cualquier delta posterior
+                difusion.execute(() -> enviar(canal, emisor, SseEmitter.event().name("snapshot").data(snapshot)));
+                return emisor;
+            } finally {
+                canal.candado.unlock();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${compensacion.posiciones.sse.intervalo-ms:500}")
+    public void publicar() {
+        canales.forEach((cicloId, canal) -> {
+            canal.candado.lock();
+            try {
+                // Vacío bajo el mismo candado que suscribir(): no se pierde un alta concurrente
+                if (canal.emisores.isEmpty()) {
+                    canal.retirado = true;
+                    canales.remove(cicloId, canal);
+                    return;
+                }
+                List<PosicionDTO> actual = compensacionServicio.obtenerPosicionesCiclo(cicloId);
+                List<PosicionDTO> cambios = cambios(canal.ultimo, actual);
+                long ahora = System.nanoTime();
+                if (!cambios.isEmpty()) {
+                    canal.ultimo = indexar(actual);
+                    canal.ultimoEnvio = ahora;
+                    difundir(canal, () -> SseEmitter.event().name("delta").data(cambios));
+                } else if (ahora - canal.ultimoEnvio > LATIDO_NANOS) {
+                    // Mantiene viva la conexión a través de proxies y detecta clientes caídos
+                    canal.ultimoEnvio = ahora;
+                    difundir(canal, () -> SseEmitter.event().comment("latido"));
+                }
+            } catch (Exception e) {
+                log.warn("No se pudieron publicar posiciones del ciclo {}: {}", cicloId, e.getMessage());
+            } finally {
+                canal.candado.unlock();
+            }
+        });
+    }
+
+    /**
+     * Posiciones de actual que no están en anterior o cuyos importes cambiaron.
+     */
+    static List<PosicionDTO> cambios(Map<String, PosicionDTO> anterior, List<PosicionDTO> actual) {
+        List<PosicionDTO> cambios = new ArrayList<>();
+        for (PosicionDTO p : actual) {
+            PosicionDTO previa = anterior != null ? anterior.get(p.getCodigoBic()) : null;
+            if (previa == null
+                    || !iguales(previa.getTotalDebitos(), p.getTotalDebitos())
+                    || !iguales(previa.getTotalCreditos(), p.getTotalCreditos())) {
+                cambios.add(p);
+            }
+        }
+        return cambios;
+    }
+
+    private static boolean iguales(BigDecimal a, BigDecimal b) {
+        return Objects.equals(a, b) || (a != null && b != null && a.compareTo(b) == 0);
+    }
+
+    private static Map<String, PosicionDTO> indexar(List<PosicionDTO> posiciones) {
+        Map<String, PosicionDTO> indice = new HashMap<>(posiciones.size() * 2);
+        posiciones.forEach(p -> indice.put(p.getCodigoBic(), p));
+        return indice;
+    }
+
+    /**
+     * Un evento nuevo por emisor: build() añade el salto de línea final al propio
+     * builder en cada llamada, así que no se puede reutilizar entre emisores.
+     */
+    private void difundir(Canal canal, java.util.function.Supplier<SseEmitter.SseEventBuilder> evento) {
+        difusion.execute(() -> canal.emisores.forEach(emisor -> enviar(canal, emisor, evento.get())));
+    }
+
+    private void enviar(Canal canal, SseEmitter emisor, SseEmitter.SseEventBuilder evento) {
+        try {
+            emisor.send(evento);
+        } catch (IOException | IllegalStateException e) {
+            canal.emisores.remove(emisor);
+            emisor.completeWithError(e);
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        canales.values().forEach(canal -> canal.emisores.forEach(SseEmitter::complete));
+        difusion.shutdownNow();
+    }
+}
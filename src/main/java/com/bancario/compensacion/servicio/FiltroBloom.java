@@ -0,0 +1,60 @@
+package com.bancario.compensacion.servicio;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom de UUIDs, seguro para hilos y sin bloqueos.
+ * "No contiene" es definitivo; "puede contener" requiere confirmación.
+ */
+public final class FiltroBloom {
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+
+    public FiltroBloom(long capacidad, double probabilidadFalsoPositivo) {
+        long n = Math.max(1, capacidad);
+        long m = (long) Math.ceil(-n * Math.log(probabilidadFalsoPositivo) / (Math.log(2) * Math.log(2)));
+        int palabras = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        this.bits = new AtomicLongArray(palabras);
+        this.numBits = (long) palabras * 64;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    public void agregar(UUID id) {
+        long h1 = mezclar(id.getMostSignificantBits());
+        long h2 = mezclar(id.getLeastSignificantBits() ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            int palabra = (int) (bit >>> 6);
+            long mascara = 1L << bit;
+            long actual = bits.get(palabra);
+            while ((actual & mascara) == 0 && !bits.compareAndSet(palabra, actual, actual | mascara)) {
+                actual = bits.get(palabra);
+            }
+        }
+    }
+
+    public boolean puedeContener(UUID id) {
+        long h1 = mezclar(id.getMostSignificantBits());
+        long h2 = mezclar(id.getLeastSignificantBits() ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Finalizador de MurmurHash3 (fmix64)
+    private static long mezclar(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
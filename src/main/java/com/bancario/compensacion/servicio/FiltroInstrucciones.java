@@ -0,0 +1,113 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Prefiltro de idempotencia por idInstruccion.
+ *
+ * Mantiene un filtro de Bloom por ciclo (el vigente y el anterior, para
+ * reentregas justo después del corte). Un "no visto" evita la consulta a BD; solo
+ * los posibles aciertos se confirman con el índice único de idInstruccion, que
+ * además rechaza los duplicados que lleguen por otra réplica.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FiltroInstrucciones {
+
+    private static final int CICLOS_RETENIDOS = 2;
+
+    private final DetalleCompensacionRepositorio detalleRepo;
+    private final PlatformTransactionManager transactionManager;
+
+    private final Map<Integer, FiltroBloom> filtros = new ConcurrentHashMap<>();
+    // No synchronized: la precarga consulta la BD y no debe fijar el hilo portador de un hilo virtual
+    private final ReentrantLock carga = new ReentrantLock();
+
+    @Value("${compensacion.idempotencia.capacidad:2000000}")
+    private long capacidad = 2_000_000;
+
+    @Value("${compensacion.idempotencia.falsos-positivos:0.001}")
+    private double probabilidadFalsoPositivo = 0.001;
+
+    /**
+     * false: la instrucción no se ha visto en este nodo para los ciclos retenidos.
+     */
+    public boolean posibleDuplicado(Integer idCiclo, UUID idInstruccion) {
+        if (idInstruccion == null) {
+            return false;
+        }
+        for (Map.Entry<Integer, FiltroBloom> e : filtros.entrySet()) {
+            if (!e.getKey().equals(idCiclo) && e.getValue().puedeContener(idInstruccion)) {
+                return true;
+            }
+        }
+        return filtro(idCiclo).puedeContener(idInstruccion);
+    }
+
+    public void registrar(Integer idCiclo, UUID idInstruccion) {
+        if (idInstruccion != null) {
+            filtro(idCiclo).agregar(idInstruccion);
+        }
+    }
+
+    private FiltroBloom filtro(Integer idCiclo) {
+        FiltroBloom filtro = filtros.get(idCiclo);
+        return filtro != null ? filtro : cargar(idCiclo);
+    }
+
+    /**
+     * Crea el filtro de un ciclo precargando las instrucciones ya persistidas
+     * (p. ej. tras un reinicio a mitad de ciclo) y descarta los más antiguos.
+     */
+    private FiltroBloom cargar(Integer idCiclo) {
+        carga.lock();
+        try {
+            return cargarFiltro(idCiclo);
+        } finally {
+            carga.unlock();
+        }
+    }
+
+    private FiltroBloom cargarFiltro(Integer idCiclo) {
+        FiltroBloom existente = filtros.get(idCiclo);
+        if (existente != null) {
+            return existente;
+        }
+
+        FiltroBloom filtro = new FiltroBloom(capacidad, probabilidadFalsoPositivo);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        Long cargadas = tx.execute(status -> {
+            long total = 0;
+            try (Stream<UUID> ids = detalleRepo.streamInstruccionesPorCiclo(idCiclo)) {
+                Iterator<UUID> it = ids.iterator();
+                while (it.hasNext()) {
+                    filtro.agregar(it.next());
+                    total++;
+                }
+            }
+            return total;
+        });
+        log.info("Filtro de idempotencia del ciclo {} cargado con {} instrucciones", idCiclo, cargadas);
+
+        filtros.put(idCiclo, filtro);
+        while (filtros.size() > CICLOS_RETENIDOS) {
+            filtros.keySet().stream().min(Integer::compare).ifPresent(filtros::remove);
+        }
+        return filtro;
+    }
+}
@@ -0,0 +1,177 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.EstadoMonitorDTO;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Instantánea en memoria del estado del sistema para el dashboard.
+ *
+ * Se recalcula cada compensacion.monitor.refresco-ms y al cambiar el ciclo abierto,
+ * sin recorrer detalles: el ciclo vigente sale de RegistroCicloAbierto, las
+ * operaciones de ContadorOperaciones (en memoria, sembrado una vez por ciclo) y el
+ * retraso de la profundidad de la cola de entrada. Cada instantánea se difunde a los
+ * suscriptores SSE desde un hilo propio, para que un cliente lento no frene al planificador.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MonitorSistema {
+
+    private static final String COLA_ENTRADA = "q.switch.compensacion.in";
+
+    private final RegistroCicloAbierto registroCiclo;
+    private final ContadorOperaciones contador;
+    private final ObjectProvider<AmqpAdmin> amqpAdmin;
+
+    @Value("${compensacion.monitor.retraso-alerta-seg:30}")
+    private double retrasoAlertaSeg = 30;
+
+    @Value("${compensacion.monitor.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs = 1_800_000;
+
+    private final List<SseEmitter> suscriptores = new CopyOnWriteArrayList<>();
+    private final ExecutorService difusion = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "monitor-sse");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private volatile EstadoMonitorDTO instantanea;
+    private final ReentrantLock refresco = new ReentrantLock();
+    private Muestra anterior;
+
+    private record Muestra(Integer idCiclo, long operaciones, long nanos) {
+    }
+
+    public EstadoMonitorDTO obtener() {
+        EstadoMonitorDTO actual = instantanea;
+        return actual != null ? actual : refrescar();
+    }
+
+    /**
+     * El cambio puede llegar desde el afterCommit del cierre; se recalcula fuera de ese hilo.
+     */
+    @EventListener
+    public void alCambiarCiclo(RegistroCicloAbierto.CambioCicloAbierto evento) {
+        difusion.execute(this::refrescar);
+    }
+
+    @Scheduled(fixedDelayString = "${compensacion.monitor.refresco-ms:2000}")
+    public EstadoMonitorDTO refrescar() {
+        // ReentrantLock y no synchronized: con hilos virtuales no retiene el hilo portador durante la consulta
+        refresco.lock();
+        try {
+            return calcular();
+        } finally {
+            refresco.unlock();
+        }
+    }
+
+    private EstadoMonitorDTO calcular() {
+        LocalDateTime ahora = LocalDateTime.now(ZoneOffset.UTC);
+        RegistroCicloAbierto.CicloVigente ciclo = registroCiclo.obtener().orElse(null);
+        EstadoMonitorDTO estado;
+        if (ciclo == null) {
+            anterior = null;
+            estado = EstadoMonitorDTO.builder()
+                    .estadoSistema("CERRADO")
+                    .colorSemaforo("ROJO")
+                    .mensaje("Esperando inicio de operaciones")
+                    .actualizado(ahora)
+                    .build();
+        } else {
+            long nanos = System.nanoTime();
+            long operaciones = contador.operaciones(ciclo.idCiclo());
+            Double porSegundo = null;
+            if (anterior != null && anterior.idCiclo().equals(ciclo.idCiclo()) && nanos > anterior.nanos()) {
+                porSegundo = Math.max(0, operaciones - anterior.operaciones()) * 1e9 / (nanos - anterior.nanos());
+            }
+            anterior = new Muestra(ciclo.idCiclo(), operaciones, nanos);
+
+            Long enCola = mensajesEnCola();
+            Double retraso = null;
+            if (enCola != null && porSegundo != null) {
+                retraso = enCola == 0 ? 0.0 : porSegundo > 0 ? enCola / porSegundo : Double.POSITIVE_INFINITY;
+            }
+            boolean congestionado = retraso != null && retraso > retrasoAlertaSeg;
+            estado = EstadoMonitorDTO.builder()
+                    .estadoSistema(congestionado ? "CONGESTIONADO" : "OPERATIVO")
+                    .colorSemaforo(congestionado ? "AMARILLO" : "VERDE")
+                    .cicloActivo(ciclo.numeroCiclo())
+                    .horaInicio(ciclo.fechaApertura())
+                    .operaciones(operaciones)
+                    .operacionesPorSegundo(porSegundo)
+                    .mensajesEnCola(enCola)
+                    .retrasoIngestaSeg(retraso != null && retraso.isInfinite() ? null : retraso)
+                    .actualizado(ahora)
+                    .build();
+        }
+        instantanea = estado;
+        if (!suscriptores.isEmpty()) {
+            difusion.execute(() -> difundir(estado));
+        }
+        return estado;
+    }
+
+    public SseEmitter suscribir() {
+        SseEmitter emisor = new SseEmitter(sseTimeoutMs);
+        emisor.onCompletion(() -> suscriptores.remove(emisor));
+        emisor.onTimeout(() -> suscriptores.remove(emisor));
+        emisor.onError(e -> suscriptores.remove(emisor));
+        suscriptores.add(emisor);
+        EstadoMonitorDTO actual = obtener();
+        difusion.execute(() -> enviar(emisor, actual));
+        return emisor;
+    }
+
+    private void difundir(EstadoMonitorDTO estado) {
+        for (SseEmitter emisor : suscriptores) {
+            enviar(emisor, estado);
+        }
+    }
+
+    private void enviar(SseEmitter emisor, EstadoMonitorDTO estado) {
+        try {
+            emisor.send(SseEmitter.event().name("monitor").data(estado));
+        } catch (IOException | IllegalStateException e) {
+            suscriptores.remove(emisor);
+            emisor.completeWithError(e);
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        suscriptores.forEach(SseEmitter::complete);
+        difusion.shutdownNow();
+    }
+
+    private Long mensajesEnCola() {
+        try {
+            AmqpAdmin admin = amqpAdmin.getIfAvailable();
+            QueueInformation info = admin != null ? admin.getQueueInfo(COLA_ENTRADA) : null;
+            return info != null ? (long) info.getMessageCount() : null;
+        } catch (Exception e) {
+            log.debug("No se pudo consultar la cola {}: {}", COLA_ENTRADA, e.getMessage());
+            return null;
+        }
+    }
+}
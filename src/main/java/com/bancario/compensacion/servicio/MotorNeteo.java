@@ -0,0 +1,120 @@
+package com.bancario.compensacion.servicio;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Motor de neteo multilateral en aritmética entera de centavos.
+ *
+ * Los montos NUMERIC(18,2) caben en un long de centavos, así que el neteo se hace
+ * sin crear un BigDecimal por operación; la conversión a BigDecimal queda en la
+ * frontera de persistencia y DTO. Toda suma usa Math.*Exact: un desbordamiento
+ * aborta el neteo en lugar de producir saldos incorrectos.
+ *
+ * No es thread-safe: cada hilo usa su propia instancia y luego se combinan.
+ */
+public final class MotorNeteo {
+
+    private static final int DEBITOS = 0;
+    private static final int CREDITOS = 1;
+
+    private final Map<String, long[]> totales = new HashMap<>();
+    private long operaciones;
+
+    /**
+     * PAGO: débito al emisor y crédito al receptor.
+     * REVERSO: crédito al emisor (devolución) y débito al receptor.
+     */
+    public void registrar(String tipoOperacion, String bicEmisor, String bicReceptor, long montoCentavos) {
+        if ("REVERSO".equalsIgnoreCase(tipoOperacion)) {
+            sumar(bicEmisor, CREDITOS, montoCentavos);
+            sumar(bicReceptor, DEBITOS, montoCentavos);
+        } else {
+            sumar(bicEmisor, DEBITOS, montoCentavos);
+            sumar(bicReceptor, CREDITOS, montoCentavos);
+        }
+        operaciones++;
+    }
+
+    public void sumarDebito(String bic, long centavos) {
+        sumar(bic, DEBITOS, centavos);
+    }
+
+    public void sumarCredito(String bic, long centavos) {
+        sumar(bic, CREDITOS, centavos);
+    }
+
+    /**
+     * Incorpora los totales de otro motor (resultado parcial de otro hilo).
+     */
+    public void combinar(MotorNeteo otro) {
+        otro.totales.forEach((bic, t) -> {
+            sumar(bic, DEBITOS, t[DEBITOS]);
+            sumar(bic, CREDITOS, t[CREDITOS]);
+        });
+        operaciones = Math.addExact(operaciones, otro.operaciones);
+    }
+
+    /**
+     * Totales por BIC como {débitos, créditos} en centavos. Vista de solo lectura.
+     */
+    public Map<String, long[]> totales() {
+        return java.util.Collections.unmodifiableMap(totales);
+    }
+
+    public long operaciones() {
+        return operaciones;
+    }
+
+    public static long debitos(long[] totales) {
+        return totales[DEBITOS];
+    }
+
+    public static long creditos(long[] totales) {
+        return totales[CREDITOS];
+    }
+
+    /**
+     * Posición neta = créditos - débitos.
+     */
+    public static long neto(long[] totales) {
+        return Math.subtractExact(totales[CREDITOS], totales[DEBITOS]);
+    }
+
+    /**
+     * Suma de todas las posiciones netas; en un neteo cuadrado es cero.
+     */
+    public long sumaNetos() {
+        long suma = 0;
+        for (long[] t : totales.values()) {
+            suma = Math.addExact(suma, neto(t));
+        }
+        return suma;
+    }
+
+    /**
+     * Convierte a centavos con el mismo redondeo que aplica PostgreSQL al guardar
+     * en NUMERIC(18,2) (mitad lejos de cero).
+     */
+    public static long aCentavos(BigDecimal monto) {
+        if (monto == null) {
+            throw new IllegalArgumentException("Monto nulo");
+        }
+        return monto.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal aDecimal(long centavos) {
+        return BigDecimal.valueOf(centavos, 2);
+    }
+
+    private void sumar(String bic, int indice, long centavos) {
+        long[] t = totales.computeIfAbsent(bic, k -> new long[2]);
+        try {
+            t[indice] = Math.addExact(t[indice], centavos);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Desbordamiento en el neteo del BIC " + bic);
+        }
+    }
+}
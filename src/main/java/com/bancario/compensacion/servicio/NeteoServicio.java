@@ -0,0 +1,118 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.DetalleNeteo;
+import com.bancario.compensacion.modelo.RangoDetalles;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Neteo de un ciclo repartido en tramos de idDetalle.
+ *
+ * Cada tramo se recorre con su propio cursor y transacción de solo lectura en un
+ * ForkJoinPool dedicado, produciendo un MotorNeteo parcial por BIC; los parciales
+ * se combinan al volver. El número de hilos sigue a los núcleos y queda acotado
+ * por el tamaño del pool de conexiones de BD.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NeteoServicio {
+
+    private final DetalleCompensacionRepositorio detalleRepo;
+    private final PlatformTransactionManager transactionManager;
+
+    /** Hilos de neteo; 0 = núcleos disponibles. */
+    @Value("${compensacion.neteo.paralelismo:0}")
+    private int paralelismo;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int conexionesMaximas = 10;
+
+    @Value("${compensacion.neteo.tramo:250000}")
+    private long tamanoTramo = 250_000;
+
+    public MotorNeteo netear(Integer idCiclo) {
+        RangoDetalles rango = detalleRepo.rangoPorCiclo(idCiclo);
+        if (rango == null || rango.desde() == null) {
+            return new MotorNeteo();
+        }
+
+        long desde = rango.desde();
+        long hasta = rango.hasta();
+        int hilos = hilosNeteo();
+
+        // Ciclos pequeños: un solo cursor dentro de la transacción del llamador
+        if (hilos == 1 || hasta - desde + 1 <= tamanoTramo) {
+            return netearTramo(idCiclo, desde, hasta);
+        }
+
+        long inicio = System.nanoTime();
+        try (ForkJoinPool pool = new ForkJoinPool(hilos)) {
+            MotorNeteo motor = pool.invoke(new TramoNeteo(idCiclo, desde, hasta));
+            log.info("Neteo paralelo del ciclo {}: {} detalles en {} ms con {} hilos",
+                    idCiclo, motor.operaciones(), (System.nanoTime() - inicio) / 1_000_000, hilos);
+            return motor;
+        }
+    }
+
+    /**
+     * Núcleos (o el valor configurado), dejando al menos dos conexiones del pool
+     * para la transacción del cierre y el tráfico de ingesta.
+     */
+    private int hilosNeteo() {
+        int solicitados = paralelismo > 0 ? paralelismo : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(solicitados, conexionesMaximas - 2));
+    }
+
+    private MotorNeteo netearTramo(Integer idCiclo, long desde, long hasta) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        return tx.execute(status -> {
+            MotorNeteo motor = new MotorNeteo();
+            try (Stream<DetalleNeteo> detalles = detalleRepo.streamNeteoPorTramo(idCiclo, desde, hasta)) {
+                Iterator<DetalleNeteo> it = detalles.iterator();
+                while (it.hasNext()) {
+                    DetalleNeteo d = it.next();
+                    motor.registrar(d.tipoOperacion(), d.bicEmisor(), d.bicReceptor(), d.montoCentavos());
+                }
+            }
+            return motor;
+        });
+    }
+
+    private final class TramoNeteo extends RecursiveTask<MotorNeteo> {
+        private final Integer idCiclo;
+        private final long desde;
+        private final long hasta;
+
+        TramoNeteo(Integer idCiclo, long desde, long hasta) {
+            this.idCiclo = idCiclo;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected MotorNeteo compute() {
+            if (hasta - desde + 1 <= tamanoTramo) {
+                return netearTramo(idCiclo, desde, hasta);
+            }
+            long medio = desde + (hasta - desde) / 2;
+            TramoNeteo izquierda = new TramoNeteo(idCiclo, desde, medio);
+            TramoNeteo derecha = new TramoNeteo(idCiclo, medio + 1, hasta);
+            izquierda.fork();
+            MotorNeteo resultado = derecha.compute();
+            resultado.combinar(izquierda.join());
+            return resultado;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.IncidenciaLoteDTO;
+import com.bancario.compensacion.dto.RegistroOperacionDTO;
+import com.bancario.compensacion.dto.ResumenLoteDTO;
+import com.fasterxml.jackson.core.exc.StreamReadException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Registro masivo de operaciones desde un cuerpo NDJSON o un array JSON.
+ *
+ * El cuerpo se lee incrementalmente con el parser de Jackson y se confirma en
+ * lotes de compensacion.api.lote.tamano registros vía registrarLote; la memoria
+ * queda acotada por el tamaño del lote y por el máximo de incidencias reportadas.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OperacionesLoteServicio {
+
+    private static final int MAX_INCIDENCIAS = 1000;
+    private static final BigDecimal MONTO_MAXIMO = new BigDecimal("9999999999999999.99");
+
+    private final CompensacionServicio compensacionServicio;
+    private final ObjectMapper objectMapper;
+
+    @Value("${compensacion.api.lote.tamano:1000}")
+    private int tamanoLote = 1000;
+
+    public ResumenLoteDTO registrar(InputStream cuerpo) throws IOException {
+        long inicio = System.nanoTime();
+        Acumulado acumulado = new Acumulado();
+        List<RegistroOperacionDTO> lote = new ArrayList<>(tamanoLote);
+        // Posición en el cuerpo de cada registro del lote (los rechazados en validación no entran)
+        long[] indicesLote = new long[tamanoLote];
+        long indice = 0;
+        String error = null;
+
+        // readValues recorre tanto valores raíz separados por saltos de línea como
+        // los elementos de un array JSON raíz
+        try (MappingIterator<RegistroOperacionDTO> registros = objectMapper
+                .readerFor(RegistroOperacionDTO.class).readValues(cuerpo)) {
+            while (true) {
+                RegistroOperacionDTO registro;
+                try {
+                    if (!registros.hasNextValue()) {
+                        break;
+                    }
+                    registro = registros.nextValue();
+                } catch (MismatchedInputException e) {
+                    // Registro con tipos inválidos: se rechaza y se continúa con el siguiente
+                    acumulado.incidencia(indice++, null, "RECHAZADO", "Registro inválido: " + e.getOriginalMessage());
+                    continue;
+                } catch (StreamReadException e) {
+                    error = "JSON mal formado tras el registro " + indice + ": " + e.getOriginalMessage();
+                    break;
+                }
+
+                String motivo = validar(registro);
+                if (motivo != null) {
+                    acumulado.incidencia(indice++, registro.getIdInstruccion(), "RECHAZADO", motivo);
+                    continue;
+                }
+                indicesLote[lote.size()] = indice++;
+                lote.add(registro);
+
+                if (lote.size() >= tamanoLote) {
+                    confirmar(lote, indicesLote, acumulado);
+                    lote.clear();
+                }
+            }
+        }
+        if (!lote.isEmpty()) {
+            confirmar(lote, indicesLote, acumulado);
+        }
+
+        long ms = (System.nanoTime() - inicio) / 1_000_000;
+        log.info("Lote API: {} recibidos, {} aceptados, {} duplicados, {} rechazados en {} ms",
+                indice, acumulado.aceptados, acumulado.duplicados, acumulado.rechazados, ms);
+
+        return ResumenLoteDTO.builder()
+                .recibidos(indice)
+                .aceptados(acumulado.aceptados)
+                .duplicados(acumulado.duplicados)
+                .rechazados(acumulado.rechazados)
+                .lotes(acumulado.lotes)
+                .milisegundos(ms)
+                .incidencias(acumulado.incidencias)
+                .incidenciasTruncadas(acumulado.truncadas)
+                .error(error)
+                .build();
+    }
+
+    /**
+     * Confirma el lote completo; si falla, reprocesa registro a registro para
+     * aislar el defectuoso, igual que el consumidor por lotes de RabbitMQ.
+     */
+    private void confirmar(List<RegistroOperacionDTO> lote, long[] indices, Acumulado acumulado) {
+        acumulado.lotes++;
+        try {
+            BitSet registradas = compensacionServicio.registrarLote(lote);
+            for (int i = 0; i < lote.size(); i++) {
+                if (registradas.get(i)) {
+                    acumulado.aceptados++;
+                } else {
+                    acumulado.incidencia(indices[i], lote.get(i).getIdInstruccion(), "DUPLICADO", null);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Lote API de {} registros falló ({}). Reprocesando individualmente.", lote.size(), e.getMessage());
+            for (int i = 0; i < lote.size(); i++) {
+                confirmarIndividual(lote.get(i), indices[i], acumulado);
+            }
+        }
+    }
+
+    private void confirmarIndividual(RegistroOperacionDTO registro, long indice, Acumulado acumulado) {
+        try {
+            if (compensacionServicio.registrarOperacion(registro)) {
+                acumulado.aceptados++;
+            } else {
+                acumulado.incidencia(indice, registro.getIdInstruccion(), "DUPLICADO", null);
+            }
+        } catch (DataIntegrityViolationException e) {
+            boolean duplicada = compensacionServicio.existeInstruccion(registro.getIdInstruccion());
+            acumulado.incidencia(indice, registro.getIdInstruccion(), duplicada ? "DUPLICADO" : "RECHAZADO",
+                    duplicada ? null : "Violación de integridad");
+        } catch (Exception e) {
+            acumulado.incidencia(indice, registro.getIdInstruccion(), "RECHAZADO", e.getMessage());
+        }
+    }
+
+    /**
+     * @return null si el registro es válido; el motivo del rechazo en otro caso.
+     */
+    static String validar(RegistroOperacionDTO r) {
+        if (r == null) {
+            return "Registro vacío";
+        }
+        if (r.getIdInstruccion() == null) {
+            return "idInstruccion es obligatorio";
+        }
+        String tipo = r.getTipoOperacion();
+        if (!"PAGO".equalsIgnoreCase(tipo) && !"REVERSO".equalsIgnoreCase(tipo)) {
+            return "tipoOperacion debe ser PAGO o REVERSO";
+        }
+        if (esBicInvalido(r.getBicEmisor()) || esBicInvalido(r.getBicReceptor())) {
+            return "BIC inválido";
+        }
+        BigDecimal monto = r.getMonto();
+        if (monto == null || monto.signum() <= 0 || monto.stripTrailingZeros().scale() > 2
+                || monto.compareTo(MONTO_MAXIMO) > 0) {
+            return "monto fuera de rango";
+        }
+        return null;
+    }
+
+    private static boolean esBicInvalido(String bic) {
+        return bic == null || bic.isBlank() || bic.length() > 20;
+    }
+
+    private static final class Acumulado {
+        private final List<IncidenciaLoteDTO> incidencias = new ArrayList<>();
+        private long aceptados;
+        private long duplicados;
+        private long rechazados;
+        private int lotes;
+        private boolean truncadas;
+
+        private void incidencia(long indice, java.util.UUID idInstruccion, String estado, String motivo) {
+            if ("DUPLICADO".equals(estado)) {
+                duplicados++;
+            } else {
+                rechazados++;
+            }
+            if (incidencias.size() < MAX_INCIDENCIAS) {
+                incidencias.add(IncidenciaLoteDTO.builder()
+                        .indice(indice)
+                        .idInstruccion(idInstruccion)
+                        .estado(estado)
+                        .motivo(motivo)
+                        .build());
+            } else {
+                truncadas = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package com.bancario.compensacion.servicio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Parser de archivos de compensación por tramos independientes que pueden
+ * procesarse en paralelo.
+ *
+ * Cada tramo toma las líneas que empiezan dentro de su rango de bytes y las
+ * decodifica directamente desde el buffer a columnas primitivas (UUID en dos long,
+ * monto en centavos, tipo en un bit y BIC codificado por diccionario), sin crear
+ * un String por campo. Los tramos salen de un archivo mapeado en memoria o de un
+ * flujo cortado en bloques de líneas completas ({@link Bloques}); ambos pasan por
+ * la misma validación, que es la única del formato: la carga secuencial y la
+ * paralela aceptan y rechazan exactamente las mismas líneas.
+ */
+public final class ParserParaleloCsv {
+
+    /** Longitud máxima de una línea; una más larga se rechaza. */
+    static final int MAX_LINEA = 1024;
+    static final int MAX_ERRORES_TRAMO = 100;
+    /** Líneas de muestra que guarda cada tramo para la vista previa. */
+    static final int MUESTRA = 5;
+
+    private static final String LINEA_LARGA = "Línea demasiado larga";
+
+    // Un mapeo no puede superar 2 GB
+    private static final long MAX_TRAMO = 1L << 30;
+
+    private final FileChannel canal;
+    private final long tamano;
+    private final long tamanoTramo;
+
+    public ParserParaleloCsv(FileChannel canal, long tamanoTramo) throws IOException {
+        this.canal = canal;
+        this.tamano = canal.size();
+        this.tamanoTramo = Math.min(MAX_TRAMO, Math.max(MAX_LINEA, tamanoTramo));
+    }
+
+    public int tramos() {
+        return (int) Math.max(1, (tamano + tamanoTramo - 1) / tamanoTramo);
+    }
+
+    public long tamanoTramo() {
+        return tamanoTramo;
+    }
+
+    /** Primer byte del tramo; las líneas que empiezan antes pertenecen a tramos previos. */
+    public long inicioTramo(int indice) {
+        return Math.min(tamano, indice * tamanoTramo);
+    }
+
+    public long finTramo(int indice) {
+        return Math.min(tamano, (indice + 1) * tamanoTramo);
+    }
+
+    /**
+     * Decodifica el tramo indicado. Es seguro llamarlo desde varios hilos a la vez.
+     */
+    public Tramo parsear(int indice) throws IOException {
+        long inicio = indice * tamanoTramo;
+        long fin = Math.min(tamano, inicio + tamanoTramo);
+        Tramo tramo = new Tramo(indice);
+        if (inicio >= fin) {
+            return tramo;
+        }
+
+        // Un byte antes para saber si el tramo empieza en frontera de línea
+        long base = Math.max(0, inicio - 1);
+        long limiteMapeo = Math.min(tamano, fin + MAX_LINEA);
+        ByteBuffer b = canal.map(FileChannel.MapMode.READ_ONLY, base, limiteMapeo - base);
+        int limite = b.limit();
+        int finTramo = (int) (fin - base);
+
+        int pos = (int) (inicio - base);
+        if (inicio > 0 && b.get(pos - 1) != '\n') {
+            while (pos < limite && b.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        recorrer(b, pos, finTramo, limite, limiteMapeo < tamano, tramo);
+        return tramo;
+    }
+
+    /**
+     * Decodifica las líneas que empiezan antes de hasta. Si una línea no termina
+     * antes de limite y el buffer está cortado, supera MAX_LINEA: se rechaza y el
+     * recorrido acaba, porque lo que sigue pertenece a otro tramo.
+     */
+    private static void recorrer(ByteBuffer b, int pos, int hasta, int limite, boolean cortado, Tramo tramo) {
+        while (pos < hasta) {
+            int finLinea = pos;
+            while (finLinea < limite && b.get(finLinea) != '\n') {
+                finLinea++;
+            }
+            tramo.lineas++;
+            if (finLinea == limite && cortado) {
+                tramo.rechazar(LINEA_LARGA);
+                return;
+            }
+            parsearLinea(b, pos, finLinea, tramo);
+            pos = finLinea + 1;
+        }
+    }
+
+    private static void parsearLinea(ByteBuffer b, int ini, int fin, Tramo t) {
+        if (fin > ini && b.get(fin - 1) == '\r') {
+            fin--;
+        }
+        if (fin - ini > MAX_LINEA) {
+            t.rechazar(LINEA_LARGA);
+            return;
+        }
+        if (esBlanco(b, ini, fin)) {
+            return;
+        }
+        if (t.indice == 0 && t.lineas == 1 && empiezaCon(b, ini, fin, "idInstruccion")) {
+            return;
+        }
+        if (t.muestra.size() < MUESTRA) {
+            byte[] linea = new byte[fin - ini];
+            b.get(ini, linea);
+            t.muestra.add(new String(linea, StandardCharsets.UTF_8));
+        }
+
+        int[] cortes = t.cortes;
+        int campos = 0;
+        cortes[0] = ini;
+        for (int i = ini; i < fin; i++) {
+            if (b.get(i) == ',') {
+                if (++campos > 6) {
+                    t.rechazar("Se esperaban 6 o 7 columnas");
+                    return;
+                }
+                cortes[campos] = i + 1;
+            }
+        }
+        campos++;
+        cortes[campos] = fin + 1;
+        if (campos < 6) {
+            t.rechazar("Se esperaban 6 o 7 columnas y hay " + campos);
+            return;
+        }
+
+        Columnas c = t.columnas;
+        int fila = c.reservar();
+
+        if (!leerUuid(b, cortes[0], cortes[1] - 1, c.idAlto, c.idBajo, fila)) {
+            t.rechazar("idInstruccion inválido");
+            return;
+        }
+        boolean conOriginal = !esBlanco(b, cortes[1], cortes[2] - 1);
+        if (conOriginal && !leerUuid(b, cortes[1], cortes[2] - 1, c.origAlto, c.origBajo, fila)) {
+            t.rechazar("idInstruccionOriginal inválido");
+            return;
+        }
+        int tipo = leerTipo(b, cortes[2], cortes[3] - 1);
+        if (tipo < 0) {
+            t.rechazar("tipoOperacion debe ser PAGO o REVERSO");
+            return;
+        }
+        int emisor = t.bics.codificar(b, cortes[3], cortes[4] - 1);
+        int receptor = t.bics.codificar(b, cortes[4], cortes[5] - 1);
+        if (emisor < 0 || receptor < 0) {
+            t.rechazar("BIC inválido");
+            return;
+        }
+        long centavos = leerCentavos(b, cortes[5], cortes[6] - 1);
+        if (centavos <= 0) {
+            t.rechazar(centavos == 0 ? "monto fuera de rango" : "monto no numérico");
+            return;
+        }
+        int codigo = campos == 7 ? leerCodigo(b, cortes[6], cortes[7] - 1) : -1;
+        if (codigo == -2) {
+            t.rechazar("codigoReferencia debe tener 6 dígitos");
+            return;
+        }
+
+        c.tipo[fila] = (byte) (tipo | (conOriginal ? 2 : 0));
+        c.emisor[fila] = emisor;
+        c.receptor[fila] = receptor;
+        c.centavos[fila] = centavos;
+        c.codigo[fila] = codigo;
+        c.filas++;
+    }
+
+    private static boolean leerUuid(ByteBuffer b, int ini, int fin, long[] altos, long[] bajos, int fila) {
+        while (ini < fin && b.get(ini) == ' ') ini++;
+        while (fin > ini && b.get(fin - 1) == ' ') fin--;
+        if (fin - ini != 36) {
+            return false;
+        }
+        long alto = 0;
+        long bajo = 0;
+        int digitos = 0;
+        for (int i = 0; i < 36; i++) {
+            byte ch = b.get(ini + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (ch != '-') {
+                    return false;
+                }
+                continue;
+            }
+            int v = Character.digit(ch, 16);
+            if (v < 0) {
+                return false;
+            }
+            if (digitos++ < 16) {
+                alto = (alto << 4) | v;
+            } else {
+                bajo = (bajo << 4) | v;
+            }
+        }
+        altos[fila] = alto;
+        bajos[fila] = bajo;
+        return true;
+    }
+
+    /** 0 = PAGO, 1 = REVERSO, -1 = inválido. */
+    private static int leerTipo(ByteBuffer b, int ini, int fin) {
+        while (ini < fin && b.get(ini) == ' ') ini++;
+        while (fin > ini && b.get(fin - 1) == ' ') fin--;
+        if (igualSinMayusculas(b, ini, fin, "PAGO")) {
+            return 0;
+        }
+        return igualSinMayusculas(b, ini, fin, "REVERSO") ? 1 : -1;
+    }
+
+    /** Centavos (> 0); 0 si está fuera de rango, -1 si no es un decimal válido. */
+    private static long leerCentavos(ByteBuffer b, int ini, int fin) {
+        while (ini < fin && b.get(ini) == ' ') ini++;
+        while (fin > ini && b.get(fin - 1) == ' ') fin--;
+        long entero = 0;
+        int digitosEnteros = 0;
+        int i = ini;
+        for (; i < fin && b.get(i) != '.'; i++) {
+            int v = b.get(i) - '0';
+            if (v < 0 || v > 9) {
+                return -1;
+            }
+            // NUMERIC(18,2): hasta 16 dígitos enteros
+            if (++digitosEnteros > 16) {
+                return 0;
+            }
+            entero = entero * 10 + v;
+        }
+        long decimales = 0;
+        int digitosDecimales = 0;
+        if (i < fin) {
+            for (i++; i < fin; i++) {
+                int v = b.get(i) - '0';
+                if (v < 0 || v > 9) {
+                    return -1;
+                }
+                if (++digitosDecimales > 2) {
+                    return 0;
+                }
+                decimales = decimales * 10 + v;
+            }
+        }
+        if (digitosEnteros + digitosDecimales == 0) {
+            return -1;
+        }
+        return entero * 100 + (digitosDecimales == 1 ? decimales * 10 : decimales);
+    }
+
+    /** Valor del código, -1 si está vacío, -2 si es inválido. */
+    private static int leerCodigo(ByteBuffer b, int ini, int fin) {
+        while (ini < fin && b.get(ini) == ' ') ini++;
+        while (fin > ini && b.get(fin - 1) == ' ') fin--;
+        if (ini == fin) {
+            return -1;
+        }
+        if (fin - ini != 6) {
+            return -2;
+        }
+        int valor = 0;
+        for (int i = ini; i < fin; i++) {
+            int v = b.get(i) - '0';
+            if (v < 0 || v > 9) {
+                return -2;
+            }
+            valor = valor * 10 + v;
+        }
+        return valor;
+    }
+
+    private static boolean esBlanco(ByteBuffer b, int ini, int fin) {
+        for (int i = ini; i < fin; i++) {
+            byte ch = b.get(i);
+            if (ch != ' ' && ch != '\t' && ch != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean empiezaCon(ByteBuffer b, int ini, int fin, String prefijo) {
+        if (fin - ini < prefijo.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefijo.length(); i++) {
+            if (b.get(ini + i) != prefijo.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean igualSinMayusculas(ByteBuffer b, int ini, int fin, String valor) {
+        if (fin - ini != valor.length()) {
+            return false;
+        }
+        for (int i = 0; i < valor.length(); i++) {
+            if (Character.toUpperCase((char) b.get(ini + i)) != valor.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public record ErrorLinea(long linea, String motivo) {
+    }
+
+    /**
+     * Resultado de un tramo: columnas de los registros válidos, número de líneas
+     * recorridas (para numerar errores globalmente) y errores locales.
+     */
+    public static final class Tramo {
+        private final int indice;
+        private final Columnas columnas = new Columnas();
+        private final DiccionarioBic bics = new DiccionarioBic();
+        private final List<ErrorLinea> errores = new ArrayList<>();
+        private final List<String> muestra = new ArrayList<>(MUESTRA);
+        private final int[] cortes = new int[8];
+        private long lineas;
+        private long rechazados;
+
+        private Tramo(int indice) {
+            this.indice = indice;
+        }
+
+        private void rechazar(String motivo) {
+            rechazados++;
+            if (errores.size() < MAX_ERRORES_TRAMO) {
+                errores.add(new ErrorLinea(lineas, motivo));
+            }
+        }
+
+        public long lineas() {
+            return lineas;
+        }
+
+        public long registros() {
+            return columnas.filas;
+        }
+
+        public long rechazados() {
+            return rechazados;
+        }
+
+        /** Errores con número de línea relativo al inicio del tramo (base 1). */
+        public List<ErrorLinea> errores() {
+            return errores;
+        }
+
+        /** Primeras líneas con datos del tramo, válidas o no, tal como llegaron. */
+        public List<String> muestra() {
+            return muestra;
+        }
+
+        /**
+         * Escribe los registros válidos como filas CSV para COPY y notifica cada
+         * idInstruccion escrita.
+         */
+        public void volcar(Writer destino, Consumer<UUID> registrada) throws IOException {
+            Columnas c = columnas;
+            StringBuilder fila = new StringBuilder(160);
+            for (int i = 0; i < c.filas; i++) {
+                UUID id = new UUID(c.idAlto[i], c.idBajo[i]);
+                fila.setLength(0);
+                fila.append(id).append(',');
+                if ((c.tipo[i] & 2) != 0) {
+                    fila.append(new UUID(c.origAlto[i], c.origBajo[i]));
+                }
+                fila.append(',').append((c.tipo[i] & 1) != 0 ? "REVERSO" : "PAGO")
+                        .append(',').append(bics.nombre(c.emisor[i]))
+                        .append(',').append(bics.nombre(c.receptor[i]))
+                        .append(',').append(c.centavos[i] / 100).append('.');
+                long resto = c.centavos[i] % 100;
+                if (resto < 10) {
+                    fila.append('0');
+                }
+                fila.append(resto).append(',');
+                if (c.codigo[i] >= 0) {
+                    String codigo = Integer.toString(c.codigo[i]);
+                    fila.append("000000", 0, 6 - codigo.length()).append(codigo);
+                }
+                fila.append('\n');
+                destino.append(fila);
+                registrada.accept(id);
+            }
+        }
+    }
+
+    /**
+     * Corta un flujo en bloques de líneas completas, con índices consecutivos como
+     * los tramos del archivo mapeado. Una línea que supera MAX_LINEA se trunca a
+     * MAX_LINEA + 1 bytes, de modo que se rechaza sin retenerla entera. Se lee
+     * desde un solo hilo; los bloques pueden decodificarse en cualquiera.
+     */
+    public static final class Bloques {
+        private final InputStream entrada;
+        private final int tamano;
+        private byte[] resto = new byte[0];
+        private boolean descartando;
+        private boolean agotado;
+        private int indice;
+
+        public Bloques(InputStream entrada, int tamano) {
+            this.entrada = entrada;
+            this.tamano = Math.max(2 * MAX_LINEA, tamano);
+        }
+
+        /** Siguiente bloque, o null al terminar el flujo. */
+        public Bloque siguiente() throws IOException {
+            while (!agotado) {
+                int desde = resto.length;
+                byte[] datos = Arrays.copyOf(resto, desde + tamano);
+                int leidos = entrada.readNBytes(datos, desde, tamano);
+                agotado = leidos < tamano;
+                int llenos = desde + leidos;
+
+                if (descartando) {
+                    // Lo que queda de la línea truncada se salta hasta su salto de línea
+                    int salto = desde;
+                    while (salto < llenos && datos[salto] != '\n') {
+                        salto++;
+                    }
+                    if (salto < llenos) {
+                        System.arraycopy(datos, salto, datos, desde, llenos - salto);
+                        descartando = false;
+                    }
+                    llenos -= salto - desde;
+                }
+
+                int corte = llenos;
+                if (!agotado) {
+                    while (corte > 0 && datos[corte - 1] != '\n') {
+                        corte--;
+                    }
+                }
+                resto = Arrays.copyOfRange(datos, corte, llenos);
+                if (resto.length > MAX_LINEA) {
+                    resto = Arrays.copyOf(resto, MAX_LINEA + 1);
+                    descartando = true;
+                }
+                if (corte > 0) {
+                    return new Bloque(indice++, datos, corte);
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Líneas completas leídas de un flujo. */
+    public static final class Bloque {
+        private final int indice;
+        private final byte[] datos;
+        private final int largo;
+
+        private Bloque(int indice, byte[] datos, int largo) {
+            this.indice = indice;
+            this.datos = datos;
+            this.largo = largo;
+        }
+
+        /** Decodifica el bloque. Es seguro llamarlo desde otro hilo. */
+        public Tramo parsear() {
+            Tramo tramo = new Tramo(indice);
+            recorrer(ByteBuffer.wrap(datos, 0, largo), 0, largo, largo, false, tramo);
+            return tramo;
+        }
+    }
+
+    /** Buffers columnares de un tramo; crecen al duplicar. */
+    private static final class Columnas {
+        private long[] idAlto = new long[1024];
+        private long[] idBajo = new long[1024];
+        private long[] origAlto = new long[1024];
+        private long[] origBajo = new long[1024];
+        private byte[] tipo = new byte[1024];
+        private int[] emisor = new int[1024];
+        private int[] receptor = new int[1024];
+        private long[] centavos = new long[1024];
+        private int[] codigo = new int[1024];
+        private int filas;
+
+        /** Índice de la siguiente fila; solo cuenta al incrementar filas. */
+        private int reservar() {
+            if (filas == idAlto.length) {
+                int n = filas * 2;
+                idAlto = Arrays.copyOf(idAlto, n);
+                idBajo = Arrays.copyOf(idBajo, n);
+                origAlto = Arrays.copyOf(origAlto, n);
+                origBajo = Arrays.copyOf(origBajo, n);
+                tipo = Arrays.copyOf(tipo, n);
+                emisor = Arrays.copyOf(emisor, n);
+                receptor = Arrays.copyOf(receptor, n);
+                centavos = Arrays.copyOf(centavos, n);
+                codigo = Arrays.copyOf(codigo, n);
+            }
+            return filas;
+        }
+    }
+
+    /**
+     * Diccionario de BICs por tramo con direccionamiento abierto sobre los bytes
+     * del buffer: solo se crea un String la primera vez que aparece cada BIC.
+     */
+    private static final class DiccionarioBic {
+        private int[] tabla = new int[256];
+        private final List<String> nombres = new ArrayList<>();
+
+        {
+            Arrays.fill(tabla, -1);
+        }
+
+        /** Código del BIC, o -1 si no cumple [A-Z0-9]{4,20}. */
+        private int codificar(ByteBuffer b, int ini, int fin) {
+            while (ini < fin && b.get(ini) == ' ') ini++;
+            while (fin > ini && b.get(fin - 1) == ' ') fin--;
+            int largo = fin - ini;
+            if (largo < 4 || largo > 20) {
+                return -1;
+            }
+            int hash = 0;
+            for (int i = ini; i < fin; i++) {
+                byte ch = b.get(i);
+                if (!((ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9'))) {
+                    return -1;
+                }
+                hash = hash * 31 + ch;
+            }
+
+            int mascara = tabla.length - 1;
+            for (int slot = (hash ^ (hash >>> 16)) & mascara; ; slot = (slot + 1) & mascara) {
+                int codigo = tabla[slot];
+                if (codigo < 0) {
+                    byte[] bytes = new byte[largo];
+                    b.get(ini, bytes);
+                    codigo = nombres.size();
+                    nombres.add(new String(bytes, StandardCharsets.US_ASCII));
+                    tabla[slot] = codigo;
+                    if (nombres.size() * 2 > tabla.length) {
+                        redimensionar();
+                    }
+                    return codigo;
+                }
+                if (coincide(nombres.get(codigo), b, ini, largo)) {
+                    return codigo;
+                }
+            }
+        }
+
+        private static boolean coincide(String nombre, ByteBuffer b, int ini, int largo) {
+            if (nombre.length() != largo) {
+                return false;
+            }
+            for (int i = 0; i < largo; i++) {
+                if (nombre.charAt(i) != b.get(ini + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void redimensionar() {
+            tabla = new int[tabla.length * 2];
+            Arrays.fill(tabla, -1);
+            int mascara = tabla.length - 1;
+            for (int codigo = 0; codigo < nombres.size(); codigo++) {
+                int hash = nombres.get(codigo).hashCode();
+                int slot = (hash ^ (hash >>> 16)) & mascara;
+                while (tabla[slot] >= 0) {
+                    slot = (slot + 1) & mascara;
+                }
+                tabla[slot] = codigo;
+            }
+        }
+
+        private String nombre(int codigo) {
+            return nombres.get(codigo);
+        }
+    }
+}
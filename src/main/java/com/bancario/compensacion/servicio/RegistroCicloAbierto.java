@@ -0,0 +1,104 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mantiene en memoria el ciclo ABIERTO vigente para que la ingesta no consulte
+ * cicloCompensacion en cada operación.
+ *
+ * El cierre local lo conmuta al confirmar su transacción; las demás réplicas lo
+ * detectan con un refresco periódico (compensacion.ciclo.refresco-ms). Hasta ese
+ * refresco el valor puede estar obsoleto y se escribe en el ciclo ya cortado; el
+ * cierre espera un drenaje (compensacion.ciclo.drenaje-ms) y traslada esas filas
+ * tardías al ciclo siguiente antes de netear.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RegistroCicloAbierto {
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final ApplicationEventPublisher eventos;
+
+    private final AtomicReference<CicloVigente> vigente = new AtomicReference<>();
+    private volatile boolean cargado;
+
+    public record CicloVigente(Integer idCiclo, Integer numeroCiclo, LocalDateTime fechaApertura) {
+    }
+
+    /**
+     * Evento publicado cuando cambia el ciclo abierto vigente en esta réplica.
+     */
+    public record CambioCicloAbierto(CicloVigente anterior, CicloVigente nuevo) {
+    }
+
+    public Optional<CicloVigente> obtener() {
+        if (!cargado) {
+            refrescar();
+        }
+        return Optional.ofNullable(vigente.get());
+    }
+
+    /**
+     * Publica el nuevo ciclo abierto. Dentro de una transacción el cambio se aplica
+     * solo tras el commit, para no exponer un ciclo que podría revertirse.
+     */
+    public void establecer(CicloCompensacion ciclo) {
+        CicloVigente nuevo = new CicloVigente(ciclo.getIdCiclo(), ciclo.getNumeroCiclo(), ciclo.getFechaApertura());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    conmutar(nuevo);
+                }
+            });
+        } else {
+            conmutar(nuevo);
+        }
+    }
+
+    /**
+     * Descarta el valor en memoria y lo relee de la BD en el acto. Se usa cuando una
+     * escritura encuentra que el ciclo en memoria ya fue cortado por otra réplica.
+     */
+    public Optional<CicloVigente> revalidar() {
+        refrescar();
+        return Optional.ofNullable(vigente.get());
+    }
+
+    @Scheduled(fixedDelayString = "${compensacion.ciclo.refresco-ms:2000}")
+    public void refrescar() {
+        try {
+            CicloVigente leido = cicloRepo.findByEstado("ABIERTO")
+                    .map(c -> new CicloVigente(c.getIdCiclo(), c.getNumeroCiclo(), c.getFechaApertura()))
+                    .orElse(null);
+            conmutar(leido);
+            cargado = true;
+        } catch (Exception e) {
+            log.error("No se pudo refrescar el ciclo abierto: {}", e.getMessage());
+        }
+    }
+
+    private void conmutar(CicloVigente nuevo) {
+        CicloVigente anterior = vigente.getAndSet(nuevo);
+        if (!Objects.equals(anterior, nuevo)) {
+            log.info("Ciclo abierto vigente: {} -> {}",
+                    anterior != null ? anterior.numeroCiclo() : "-",
+                    nuevo != null ? nuevo.numeroCiclo() : "-");
+            eventos.publishEvent(new CambioCicloAbierto(anterior, nuevo));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.modelo.DetalleReporte;
+import com.bancario.compensacion.modelo.FiltroDetalles;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import com.lowagie.text.Document;
+import com.lowagie.text.Element;
+import com.lowagie.text.Font;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.Phrase;
+import com.lowagie.text.pdf.PdfPCell;
+import com.lowagie.text.pdf.PdfPTable;
+import com.lowagie.text.pdf.PdfWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Reporte de auditoría con los detalles que componen cada posición neta, en CSV o PDF.
+ *
+ * Los detalles se leen con un único cursor ordenado por BIC y se escriben según llegan;
+ * en memoria solo está el subtotal del BIC en curso y, en el PDF, las filas pendientes
+ * de volcar a la página, así que el consumo no depende del tamaño del ciclo.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReporteDetallesServicio {
+
+    private static final int FILAS_POR_BLOQUE = 200;
+    private static final int BUFFER_CSV = 64 * 1024;
+    private static final Font FUENTE = new Font(Font.HELVETICA, 7);
+    private static final Font FUENTE_GRUPO = new Font(Font.HELVETICA, 9, Font.BOLD);
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final DetalleCompensacionRepositorio detalleRepo;
+
+    /**
+     * Comprueba el ciclo y los filtros antes de escribir la respuesta.
+     */
+    public CicloCompensacion validar(Integer cicloId, FiltroDetalles filtro) {
+        String tipo = filtro.tipoOperacion();
+        if (tipo != null && !"PAGO".equalsIgnoreCase(tipo) && !"REVERSO".equalsIgnoreCase(tipo)) {
+            throw new RuntimeException("tipoOperacion debe ser PAGO o REVERSO");
+        }
+        return cicloRepo.findById(cicloId).orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+    }
+
+    @Transactional(readOnly = true)
+    public long escribirCsv(Integer cicloId, FiltroDetalles filtro, OutputStream salida) {
+        long filas = 0;
+        try (Stream<DetalleReporte> detalles = detalleRepo.streamDetallesPorBic(cicloId, filtro)) {
+            Writer csv = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), BUFFER_CSV);
+            csv.write("bic,rol,idDetalle,idInstruccion,tipoOperacion,contraparte,monto,efecto,"
+                    + "estadoLiquidacion,codigoReferencia\n");
+            for (Iterator<DetalleReporte> it = detalles.iterator(); it.hasNext(); filas++) {
+                DetalleReporte d = it.next();
+                csv.write(campo(d.bic()));
+                csv.write(',');
+                csv.write(d.rol());
+                csv.write(',');
+                csv.write(String.valueOf(d.idDetalle()));
+                csv.write(',');
+                csv.write(d.idInstruccion() != null ? d.idInstruccion().toString() : "");
+                csv.write(',');
+                csv.write(campo(d.tipoOperacion()));
+                csv.write(',');
+                csv.write(campo(d.contraparte()));
+                csv.write(',');
+                csv.write(d.monto() != null ? d.monto().toPlainString() : "");
+                csv.write(',');
+                csv.write(d.esDebito() ? "DEBITO" : "CREDITO");
+                csv.write(',');
+                csv.write(campo(d.estadoLiquidacion()));
+                csv.write(',');
+                csv.write(campo(d.codigoReferencia()));
+                csv.write('\n');
+            }
+            csv.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error escribiendo el reporte CSV", e);
+        }
+        log.info("Reporte de detalles CSV del ciclo {}: {} filas", cicloId, filas);
+        return filas;
+    }
+
+    /**
+     * PDF con una sección por BIC y su subtotal (débitos, créditos y neto de los
+     * detalles liquidables), que debe coincidir con la posición del ciclo cerrado.
+     */
+    @Transactional(readOnly = true)
+    public long escribirPdf(Integer cicloId, FiltroDetalles filtro, OutputStream salida) {
+        CicloCompensacion ciclo = validar(cicloId, filtro);
+        Document document = new Document(PageSize.A4.rotate());
+        long filas = 0;
+        try (Stream<DetalleReporte> detalles = detalleRepo.streamDetallesPorBic(cicloId, filtro)) {
+            PdfWriter.getInstance(document, salida);
+            document.open();
+            document.add(new Paragraph("Detalle de compensación - Ciclo: " + ciclo.getNumeroCiclo()
+                    + " (" + ciclo.getEstado() + ")"));
+
+            Subtotal subtotal = null;
+            PdfPTable tabla = null;
+            for (Iterator<DetalleReporte> it = detalles.iterator(); it.hasNext(); filas++) {
+                DetalleReporte d = it.next();
+                if (subtotal == null || !Objects.equals(subtotal.bic, d.bic())) {
+                    cerrarGrupo(document, tabla, subtotal);
+                    subtotal = new Subtotal(d.bic());
+                    tabla = abrirGrupo(document, d.bic());
+                }
+                subtotal.sumar(d);
+                celdas(tabla, String.valueOf(d.idDetalle()), String.valueOf(d.idInstruccion()), d.rol(),
+                        d.tipoOperacion(), d.contraparte(), d.monto() != null ? d.monto().toPlainString() : null,
+                        d.esDebito() ? "DEBITO" : "CREDITO", d.estadoLiquidacion(), d.codigoReferencia());
+                if (++subtotal.filas % FILAS_POR_BLOQUE == 0) {
+                    // Vuelca las filas acumuladas; las páginas completas se escriben en la salida
+                    document.add(tabla);
+                }
+            }
+            cerrarGrupo(document, tabla, subtotal);
+            if (filas == 0) {
+                document.add(new Paragraph("Sin detalles para los filtros indicados."));
+            }
+            document.close();
+        } catch (Exception e) {
+            throw new RuntimeException("Error generando PDF: " + e.getMessage());
+        }
+        log.info("Reporte de detalles PDF del ciclo {}: {} filas", cicloId, filas);
+        return filas;
+    }
+
+    private PdfPTable abrirGrupo(Document document, String bic) throws Exception {
+        Paragraph titulo = new Paragraph("Banco (BIC): " + bic, FUENTE_GRUPO);
+        titulo.setSpacingBefore(8);
+        document.add(titulo);
+
+        PdfPTable tabla = new PdfPTable(new float[] { 1.2f, 3.2f, 1.1f, 1f, 1.3f, 1.5f, 1f, 1.2f, 1f });
+        tabla.setWidthPercentage(100);
+        tabla.setHeaderRows(1);
+        tabla.setComplete(false);
+        celdas(tabla, "idDetalle", "idInstruccion", "Rol", "Tipo", "Contraparte", "Monto", "Efecto", "Estado",
+                "Referencia");
+        return tabla;
+    }
+
+    private void cerrarGrupo(Document document, PdfPTable tabla, Subtotal subtotal) throws Exception {
+        if (tabla == null) {
+            return;
+        }
+        PdfPCell total = new PdfPCell(new Phrase("Débitos " + subtotal.debitos.toPlainString()
+                + "   Créditos " + subtotal.creditos.toPlainString()
+                + "   Neto " + subtotal.creditos.subtract(subtotal.debitos).toPlainString()
+                + "   (" + subtotal.filas + " detalles)", FUENTE_GRUPO));
+        total.setColspan(9);
+        total.setHorizontalAlignment(Element.ALIGN_RIGHT);
+        tabla.addCell(total);
+        tabla.setComplete(true);
+        document.add(tabla);
+    }
+
+    private static void celdas(PdfPTable tabla, String... valores) {
+        for (String valor : valores) {
+            tabla.addCell(new Phrase(valor != null ? valor : "", FUENTE));
+        }
+    }
+
+    /**
+     * Entrecomilla el valor si contiene separadores o comillas. Los que empiezan como
+     * una fórmula de hoja de cálculo (=, +, -, @, tabulador o retorno de carro) se
+     * prefijan con ' para que Excel o LibreOffice los muestren como texto.
+     */
+    static String campo(String valor) {
+        if (valor == null) {
+            return "";
+        }
+        if (!valor.isEmpty() && "=+-@\t\r".indexOf(valor.charAt(0)) >= 0) {
+            valor = "'" + valor;
+        }
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            return valor;
+        }
+        return "\"" + valor.replace("\"", "\"\"") + "\"";
+    }
+
+    private static final class Subtotal {
+        private final String bic;
+        private BigDecimal debitos = BigDecimal.ZERO;
+        private BigDecimal creditos = BigDecimal.ZERO;
+        private long filas;
+
+        private Subtotal(String bic) {
+            this.bic = bic;
+        }
+
+        private void sumar(DetalleReporte d) {
+            if (!d.esLiquidable() || d.monto() == null) {
+                return;
+            }
+            if (d.esDebito()) {
+                debitos = debitos.add(d.monto());
+            } else {
+                creditos = creditos.add(d.monto());
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.TrabajoCargaDTO;
+import com.bancario.compensacion.mapper.CompensacionMapper;
+import com.bancario.compensacion.modelo.ResultadoCopia;
+import com.bancario.compensacion.modelo.TrabajoCarga;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.TrabajoCargaRepositorio;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Cargas asíncronas de archivos de compensación.
+ *
+ * El upload se guarda en compensacion.carga.directorio y se procesa en segundo
+ * plano con el parser paralelo. Cada tramo se confirma en su propia transacción
+ * junto con el avance del trabajo, de modo que tras un reinicio el trabajo se
+ * retoma desde el último tramo confirmado. El directorio es obligatorio y debe ser
+ * un volumen compartido entre réplicas.
+ *
+ * Cada trabajo registra la réplica que lo procesa (compensacion.nodo) y un arriendo
+ * que se renueva con cada tramo confirmado. Al arrancar, una réplica solo retoma
+ * sus propios trabajos y los de otras cuyo arriendo ha vencido; los que sigue
+ * procesando otra réplica viva no se tocan.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TrabajosCargaServicio {
+
+    private static final List<String> ESTADOS_ACTIVOS = List.of("PENDIENTE", "PROCESANDO");
+    private static final int MAX_ERRORES_REPORTADOS = 100;
+    private static final int INTENTOS_TRAMO = 5;
+    private static final long ESPERA_REINTENTO_MS = 500;
+
+    private final TrabajoCargaRepositorio trabajoRepo;
+    private final DetalleCompensacionRepositorio detalleRepo;
+    private final ArchivosCompensacionServicio archivosServicio;
+    private final FiltroInstrucciones filtroInstrucciones;
+    private final ContadorOperaciones contador;
+    private final CompensacionMapper mapper;
+    private final ThreadPoolTaskExecutor cargaExecutor;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${compensacion.carga.directorio:}")
+    private String directorio;
+
+    @Value("${compensacion.nodo:${HOSTNAME:local}}")
+    private String nodo;
+
+    @Value("${compensacion.carga.arriendo-ms:300000}")
+    private long arriendoMs = 300_000;
+
+    @Value("${compensacion.carga.paralelo.tramo-bytes:33554432}")
+    private long tamanoTramo = 32L << 20;
+
+    // 0 = núcleos disponibles
+    @Value("${compensacion.carga.paralelismo:0}")
+    private int paralelismo;
+
+    /**
+     * Falla el arranque si el directorio de cargas no está configurado: en un
+     * temporal local las cargas no se podrían retomar desde otra réplica.
+     */
+    @PostConstruct
+    void validarDirectorio() {
+        if (directorio == null || directorio.isBlank()) {
+            throw new IllegalStateException("compensacion.carga.directorio es obligatorio: "
+                    + "configure COMPENSACION_CARGA_DIRECTORIO con un volumen persistente compartido");
+        }
+        try {
+            Files.createDirectories(Paths.get(directorio));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo crear el directorio de cargas " + directorio, e);
+        }
+    }
+
+    /**
+     * Guarda el archivo, registra el trabajo y lo encola; no espera al procesamiento.
+     */
+    public TrabajoCargaDTO encolar(MultipartFile file, String compensationDate) {
+        if (file.isEmpty()) {
+            throw new RuntimeException("El archivo está vacío");
+        }
+
+        UUID id = UUID.randomUUID();
+        Path ruta = Paths.get(directorio).resolve(id + ".csv");
+        try {
+            Files.createDirectories(ruta.getParent());
+            file.transferTo(ruta);
+        } catch (IOException e) {
+            log.error("Error guardando archivo de compensación", e);
+            throw new RuntimeException("Error al guardar el archivo: " + e.getMessage());
+        }
+
+        TrabajoCarga trabajo = new TrabajoCarga();
+        trabajo.setIdTrabajo(id);
+        trabajo.setNombreArchivo(file.getOriginalFilename());
+        trabajo.setRutaArchivo(ruta.toString());
+        trabajo.setFechaCompensacion(compensationDate);
+        trabajo.setEstado("PENDIENTE");
+        trabajo.setTamanoArchivo(file.getSize());
+        trabajo.setTamanoTramo(tamanoTramo);
+        trabajo.setNodo(nodo);
+        trabajo.setArrendadoHasta(LocalDateTime.now().plus(Duration.ofMillis(arriendoMs)));
+        trabajo.setBytesConfirmados(0L);
+        trabajo.setLineasConfirmadas(0L);
+        trabajo.setRegistrosLeidos(0L);
+        trabajo.setRegistrosInsertados(0L);
+        trabajo.setRegistrosRechazados(0L);
+        trabajo.setFechaCreacion(LocalDateTime.now());
+        trabajoRepo.save(trabajo);
+
+        try {
+            cargaExecutor.execute(() -> procesar(id));
+        } catch (TaskRejectedException e) {
+            finalizar(id, "FALLIDO", "Cola de cargas llena");
+            borrarArchivo(ruta);
+            throw new RuntimeException("Demasiadas cargas en curso. Reintente más tarde.");
+        }
+        log.info("Carga {} encolada: {} ({} bytes)", id, file.getOriginalFilename(), file.getSize());
+        return mapper.toDTO(trabajo);
+    }
+
+    public TrabajoCargaDTO consultar(UUID idTrabajo) {
+        return trabajoRepo.findById(idTrabajo)
+                .map(mapper::toDTO)
+                .orElseThrow(() -> new RuntimeException("Carga " + idTrabajo + " no existe."));
+    }
+
+    /**
+     * Retoma los trabajos que quedaron pendientes o a medias al detenerse el pod:
+     * los de esta réplica y los de otras cuyo arriendo ha vencido.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reanudarPendientes() {
+        LocalDateTime ahora = LocalDateTime.now();
+        for (TrabajoCarga trabajo : trabajoRepo.findByEstadoIn(ESTADOS_ACTIVOS)) {
+            if (!puedeTomar(trabajo, ahora)) {
+                log.info("Carga {} en curso en la réplica {}; no se retoma", trabajo.getIdTrabajo(), trabajo.getNodo());
+                continue;
+            }
+            log.info("Retomando carga {} desde el byte {}", trabajo.getIdTrabajo(), trabajo.getBytesConfirmados());
+            try {
+                cargaExecutor.execute(() -> procesar(trabajo.getIdTrabajo()));
+            } catch (TaskRejectedException e) {
+                log.warn("Cola de cargas llena; la carga {} se retomará en el próximo arranque",
+                        trabajo.getIdTrabajo());
+            }
+        }
+    }
+
+    private boolean puedeTomar(TrabajoCarga trabajo, LocalDateTime ahora) {
+        return nodo.equals(trabajo.getNodo()) || trabajo.getArrendadoHasta() == null
+                || trabajo.getArrendadoHasta().isBefore(ahora);
+    }
+
+    void procesar(UUID idTrabajo) {
+        // Solo quien tiene el arriendo puede procesar el trabajo o darlo por fallido
+        TrabajoCarga trabajo = reclamar(idTrabajo);
+        if (trabajo == null) {
+            return;
+        }
+        Path ruta = Paths.get(trabajo.getRutaArchivo());
+        if (!Files.exists(ruta)) {
+            finalizar(idTrabajo, "FALLIDO", "Archivo no disponible para retomar la carga");
+            return;
+        }
+
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            ParserParaleloCsv parser = new ParserParaleloCsv(canal, trabajo.getTamanoTramo());
+            int desde = trabajo.getBytesConfirmados() >= canal.size() ? parser.tramos()
+                    : (int) (trabajo.getBytesConfirmados() / parser.tamanoTramo());
+            if (!procesarTramos(idTrabajo, parser, desde)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Carga {} interrumpida; se retomará desde su último tramo confirmado", idTrabajo);
+            return;
+        } catch (Exception e) {
+            // Las instrucciones ya cargadas se omiten si el archivo se vuelve a subir
+            log.error("Carga {} fallida", idTrabajo, e);
+            finalizar(idTrabajo, "FALLIDO", e.getMessage());
+            borrarArchivo(ruta);
+            return;
+        }
+
+        finalizar(idTrabajo, "COMPLETADO", null);
+        borrarArchivo(ruta);
+    }
+
+    private static void borrarArchivo(Path ruta) {
+        try {
+            Files.deleteIfExists(ruta);
+        } catch (IOException e) {
+            log.warn("No se pudo borrar {}: {}", ruta, e.getMessage());
+        }
+    }
+
+    /**
+     * Decodifica los tramos en paralelo con una ventana acotada y los confirma en
+     * orden. Devuelve false si otra réplica tomó el trabajo.
+     */
+    private boolean procesarTramos(UUID idTrabajo, ParserParaleloCsv parser, int desde) throws Exception {
+        int hilos = paralelismo > 0 ? paralelismo : Runtime.getRuntime().availableProcessors();
+        int tramos = parser.tramos();
+        Deque<Future<ParserParaleloCsv.Tramo>> enCurso = new ArrayDeque<>();
+
+        try (ExecutorService pool = Executors.newFixedThreadPool(hilos)) {
+            try {
+                int siguiente = desde;
+                for (int indice = desde; indice < tramos; indice++) {
+                    while (siguiente < tramos && enCurso.size() < hilos * 2) {
+                        int i = siguiente++;
+                        enCurso.add(pool.submit(() -> parser.parsear(i)));
+                    }
+                    ParserParaleloCsv.Tramo tramo = esperar(enCurso.poll());
+                    if (!confirmarConReintentos(idTrabajo, tramo, parser.inicioTramo(indice), parser.finTramo(indice))) {
+                        log.warn("Carga {} tomada por otra réplica; se abandona en este nodo", idTrabajo);
+                        return false;
+                    }
+                }
+            } finally {
+                enCurso.forEach(f -> f.cancel(true));
+            }
+        }
+        return true;
+    }
+
+    private boolean confirmarConReintentos(UUID idTrabajo, ParserParaleloCsv.Tramo tramo, long inicio, long fin)
+            throws InterruptedException {
+        for (int intento = 1; ; intento++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                return confirmarTramo(idTrabajo, tramo, inicio, fin);
+            } catch (RuntimeException e) {
+                // Fallo transitorio de BD
+                if (intento >= INTENTOS_TRAMO) {
+                    throw e;
+                }
+                log.warn("Carga {}: reintento {} del tramo en el byte {}: {}", idTrabajo, intento, inicio,
+                        e.getMessage());
+                Thread.sleep(ESPERA_REINTENTO_MS << (intento - 1));
+            }
+        }
+    }
+
+    /**
+     * Inserta los detalles del tramo y avanza el trabajo en una sola transacción.
+     */
+    private boolean confirmarTramo(UUID idTrabajo, ParserParaleloCsv.Tramo tramo, long inicio, long fin) {
+        Boolean confirmado = new TransactionTemplate(transactionManager).execute(status -> {
+            TrabajoCarga t = trabajoRepo.bloquearPorId(idTrabajo)
+                    .orElseThrow(() -> new RuntimeException("Carga " + idTrabajo + " no existe."));
+            if (!nodo.equals(t.getNodo()) || t.getBytesConfirmados() != inicio) {
+                return false;
+            }
+
+            long insertados = 0;
+            if (tramo.registros() > 0) {
+                Integer idCiclo = archivosServicio.idCicloAbierto();
+                long copiados = detalleRepo.copiarACarga(
+                        destino -> tramo.volcar(destino, id -> filtroInstrucciones.registrar(idCiclo, id)));
+                Integer idCicloDestino = archivosServicio.idCicloParaVolcar();
+                ResultadoCopia resultado = detalleRepo.volcarCarga(idCicloDestino, copiados);
+                insertados = resultado.insertados();
+                contador.registrar(idCicloDestino, insertados);
+            }
+
+            t.setErrores(agregarErrores(t.getErrores(), t.getLineasConfirmadas(), tramo));
+            t.setBytesConfirmados(fin);
+            t.setLineasConfirmadas(t.getLineasConfirmadas() + tramo.lineas());
+            t.setRegistrosLeidos(t.getRegistrosLeidos() + tramo.registros());
+            t.setRegistrosInsertados(t.getRegistrosInsertados() + insertados);
+            t.setRegistrosRechazados(t.getRegistrosRechazados() + tramo.rechazados());
+            t.setArrendadoHasta(LocalDateTime.now().plus(Duration.ofMillis(arriendoMs)));
+            t.setFechaActualizacion(LocalDateTime.now());
+            trabajoRepo.save(t);
+            return true;
+        });
+        return Boolean.TRUE.equals(confirmado);
+    }
+
+    private static String agregarErrores(String previos, long lineasPrevias, ParserParaleloCsv.Tramo tramo) {
+        StringBuilder errores = new StringBuilder(previos != null ? previos : "");
+        long reportados = errores.isEmpty() ? 0 : errores.chars().filter(c -> c == '\n').count() + 1;
+        for (ParserParaleloCsv.ErrorLinea e : tramo.errores()) {
+            if (reportados++ >= MAX_ERRORES_REPORTADOS) {
+                break;
+            }
+            if (!errores.isEmpty()) {
+                errores.append('\n');
+            }
+            errores.append("Línea ").append(lineasPrevias + e.linea()).append(": ").append(e.motivo());
+        }
+        return errores.toString();
+    }
+
+    /**
+     * Toma el arriendo del trabajo para esta réplica y lo pasa a PROCESANDO. Devuelve
+     * null si ya terminó o si otra réplica lo tiene con el arriendo vigente.
+     */
+    private TrabajoCarga reclamar(UUID idTrabajo) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            TrabajoCarga t = trabajoRepo.bloquearPorId(idTrabajo).orElse(null);
+            if (t == null || !ESTADOS_ACTIVOS.contains(t.getEstado())) {
+                return null;
+            }
+            LocalDateTime ahora = LocalDateTime.now();
+            if (!puedeTomar(t, ahora)) {
+                log.info("Carga {} tomada por la réplica {}; se omite en este nodo", idTrabajo, t.getNodo());
+                return null;
+            }
+            t.setNodo(nodo);
+            t.setArrendadoHasta(ahora.plus(Duration.ofMillis(arriendoMs)));
+            t.setEstado("PROCESANDO");
+            if (t.getFechaInicio() == null) {
+                t.setFechaInicio(ahora);
+            }
+            t.setFechaActualizacion(ahora);
+            trabajoRepo.save(t);
+            return t;
+        });
+    }
+
+    private void finalizar(UUID idTrabajo, String estado, String mensajeError) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                trabajoRepo.findById(idTrabajo).ifPresent(t -> {
+                    t.setEstado(estado);
+                    t.setMensajeError(mensajeError != null && mensajeError.length() > 500
+                            ? mensajeError.substring(0, 500) : mensajeError);
+                    t.setFechaActualizacion(LocalDateTime.now());
+                    t.setFechaFin(LocalDateTime.now());
+                    trabajoRepo.save(t);
+                }));
+        log.info("Carga {} finalizada: {}", idTrabajo, estado);
+    }
+
+    private static ParserParaleloCsv.Tramo esperar(Future<ParserParaleloCsv.Tramo> tramo)
+            throws IOException, InterruptedException {
+        try {
+            return tramo.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException("Error decodificando el archivo", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+-- Esquema que Hibernate no gestiona (ddl-auto solo conoce las entidades). Se
+-- ejecuta en cada arranque tras el DDL de Hibernate (spring.sql.init), así que
+-- cada sentencia debe ser idempotente.
+
+-- Contenido de los archivos de liquidación: fuera de la entidad para que JPA no lo
+-- cargue al listar o cerrar ciclos
+ALTER TABLE archivoLiquidacion ADD COLUMN IF NOT EXISTS contenidoXml TEXT;
+ALTER TABLE archivoLiquidacion ADD COLUMN IF NOT EXISTS contenidoGzip BYTEA;
+
+-- Idempotencia: una instrucción se contabiliza una sola vez (NULL no colisiona).
+-- En bases anteriores al índice, cada instrucción repetida conserva su primer
+-- detalle; los demás ceden la clave a idInstruccionDuplicada sin borrarse y, fuera
+-- de ciclos ya CERRADOS, quedan EXCLUIDOS del neteo. El filtro sobre pg_indexes no
+-- depende de la fila: el UPDATE solo recorre la tabla mientras el índice no existe.
+UPDATE detalleCompensacion d
+SET idInstruccionDuplicada = d.idInstruccion,
+    idInstruccion = NULL,
+    estadoLiquidacion = CASE
+        WHEN (SELECT c.estado FROM cicloCompensacion c WHERE c.idCiclo = d.idCiclo) = 'CERRADO'
+            THEN d.estadoLiquidacion
+        ELSE 'EXCLUIDO' END
+WHERE NOT EXISTS (SELECT 1 FROM pg_indexes WHERE indexname = 'uxdetalleinstruccion')
+  AND EXISTS (SELECT 1 FROM detalleCompensacion o
+              WHERE o.idInstruccion = d.idInstruccion AND o.idDetalle < d.idDetalle);
+CREATE UNIQUE INDEX IF NOT EXISTS uxDetalleInstruccion ON detalleCompensacion (idInstruccion);
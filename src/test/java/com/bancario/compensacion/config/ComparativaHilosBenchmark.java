@@ -0,0 +1,141 @@
+package com.bancario.compensacion.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Comparativa sintética de hilos de plataforma y virtuales frente a un pool de 10
+ * conexiones (como Hikari) con 1 s de connection-timeout. No es un test (surefire
+ * no lo ejecuta); no tiene dependencias y se lanza a mano con
+ *
+ *   mvn -q test-compile
+ *   java -cp target/test-classes com.bancario.compensacion.config.ComparativaHilosBenchmark
+ *
+ * Modos:
+ *   plataforma    pool de 200 hilos, como Tomcat por defecto
+ *   virtual       un hilo virtual por petición, sin límite
+ *   virtual+http  7 peticiones concurrentes (el antiguo LimiteConcurrenciaFilter)
+ *   virtual+bd    7 conexiones para peticiones (LimiteConexionesDataSource)
+ *
+ * Resultados (JDK 21, 1 vCPU), peticiones correctas por segundo a 50/200/1000/5000
+ * peticiones concurrentes; entre paréntesis las fallidas:
+ *   5 ms con conexión:
+ *     plataforma    1271 / 1835 / 1894 / 1900
+ *     virtual       1038 / 1608 / 1792 / 1429 (3129)
+ *     virtual+http  1050 / 1308 / 1313 / 1334
+ *     virtual+bd    1120 / 1267 / 1313 / 1342
+ *   50 ms sin conexión:
+ *     plataforma     882 / 2815 /  3757 /  3863
+ *     virtual        873 / 3887 / 16309 / 82117
+ *     virtual+http   124 /  137 /   139 (300) / 137 (4300)
+ *     virtual+bd     992 / 3870 / 19074 / 68143
+ *   mixto, 20 % con 5 ms de conexión y 80 % con 50 ms sin ella:
+ *     plataforma     954 / 3392 / 4293 / 4724
+ *     virtual        951 / 3860 / 9540 / 9543
+ *     virtual+http   163 /  157 /  169 (149) / 169 (4138)
+ *     virtual+bd     994 / 3962 / 6281 / 6429
+ * El límite en la conexión evita los fallos por connection-timeout igual que el
+ * filtro, pero las peticiones que no usan la base de datos ya no esperan tras él.
+ */
+public class ComparativaHilosBenchmark {
+
+    private static final int CONEXIONES = 10;
+    private static final int CUPOS = 7;
+    private static final long TIMEOUT_CONEXION_MS = 1000;
+    private static final long ESPERA_CUPO_MS = 5000;
+
+    private record Escenario(String nombre, double fraccionBd, long conConexionMs, long sinConexionMs) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Escenario> escenarios = List.of(
+                new Escenario("5 ms con conexión", 1.0, 5, 0),
+                new Escenario("50 ms sin conexión", 0.0, 0, 50),
+                new Escenario("mixto 20 % BD", 0.2, 5, 50));
+        for (Escenario escenario : escenarios) {
+            System.out.println(escenario.nombre());
+            for (int concurrencia : new int[] { 50, 200, 1000, 5000 }) {
+                for (String modo : new String[] { "plataforma", "virtual", "virtual+http", "virtual+bd" }) {
+                    System.out.println("  " + ejecutar(modo, concurrencia, escenario));
+                }
+            }
+        }
+    }
+
+    private static String ejecutar(String modo, int concurrencia, Escenario escenario) throws Exception {
+        Semaphore pool = new Semaphore(CONEXIONES, true);
+        Semaphore limiteHttp = "virtual+http".equals(modo) ? new Semaphore(CUPOS, true) : null;
+        Semaphore limiteBd = "virtual+bd".equals(modo) ? new Semaphore(CUPOS, true) : null;
+        ExecutorService hilos = "plataforma".equals(modo)
+                ? Executors.newFixedThreadPool(200)
+                : Executors.newVirtualThreadPerTaskExecutor();
+
+        AtomicInteger correctas = new AtomicInteger();
+        AtomicInteger fallidas = new AtomicInteger();
+        long inicio = System.nanoTime();
+        List<Future<?>> peticiones = new ArrayList<>();
+        for (int i = 0; i < concurrencia; i++) {
+            boolean usaBd = ThreadLocalRandom.current().nextDouble() < escenario.fraccionBd();
+            peticiones.add(hilos.submit(() -> {
+                try {
+                    if (peticion(pool, limiteHttp, limiteBd, usaBd, escenario)) {
+                        correctas.incrementAndGet();
+                    } else {
+                        fallidas.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    fallidas.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> peticion : peticiones) {
+            peticion.get();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        hilos.shutdown();
+        return String.format("%-13s c=%5d %8.0f ok/s  fallidas=%d", modo, concurrencia,
+                correctas.get() / segundos, fallidas.get());
+    }
+
+    private static boolean peticion(Semaphore pool, Semaphore limiteHttp, Semaphore limiteBd, boolean usaBd,
+            Escenario escenario) throws InterruptedException {
+        if (limiteHttp != null && !limiteHttp.tryAcquire(ESPERA_CUPO_MS, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        try {
+            if (!usaBd) {
+                Thread.sleep(escenario.sinConexionMs());
+                return true;
+            }
+            if (limiteBd != null && !limiteBd.tryAcquire(ESPERA_CUPO_MS, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            try {
+                if (!pool.tryAcquire(TIMEOUT_CONEXION_MS, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+                try {
+                    Thread.sleep(escenario.conConexionMs());
+                    return true;
+                } finally {
+                    pool.release();
+                }
+            } finally {
+                if (limiteBd != null) {
+                    limiteBd.release();
+                }
+            }
+        } finally {
+            if (limiteHttp != null) {
+                limiteHttp.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.bancario.compensacion.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LimiteConexionesDataSourceTest {
+
+        @Mock
+        private DataSource pool;
+
+        private LimiteConexionesDataSource limite;
+
+        @BeforeEach
+        void setUp() throws SQLException {
+                MockitoAnnotations.openMocks(this);
+                when(pool.getConnection()).thenAnswer(i -> mock(Connection.class));
+                limite = new LimiteConexionesDataSource(pool, 2, 50);
+        }
+
+        @AfterEach
+        void tearDown() {
+                RequestContextHolder.resetRequestAttributes();
+        }
+
+        @Test
+        void testPeticionHttp_SinCupoRechazaTrasLaEspera() throws SQLException {
+                enPeticionHttp();
+                limite.getConnection();
+                limite.getConnection();
+
+                assertThrows(SQLTransientConnectionException.class, limite::getConnection);
+                verify(pool, times(2)).getConnection();
+        }
+
+        @Test
+        void testPeticionHttp_CerrarDevuelveElCupoUnaSolaVez() throws SQLException {
+                enPeticionHttp();
+                Connection conexion = limite.getConnection();
+                assertEquals(1, limite.cuposLibres());
+
+                conexion.close();
+                conexion.close();
+
+                assertEquals(2, limite.cuposLibres());
+        }
+
+        @Test
+        void testPeticionHttp_FalloDelPoolDevuelveElCupo() throws SQLException {
+                enPeticionHttp();
+                when(pool.getConnection()).thenThrow(new SQLException("pool agotado"));
+
+                assertThrows(SQLException.class, limite::getConnection);
+                assertEquals(2, limite.cuposLibres());
+        }
+
+        @Test
+        void testFueraDePeticion_NoConsumeCupo() throws SQLException {
+                for (int i = 0; i < 5; i++) {
+                        limite.getConnection();
+                }
+
+                assertEquals(2, limite.cuposLibres());
+                verify(pool, times(5)).getConnection();
+        }
+
+        private void enPeticionHttp() {
+                RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        }
+}
@@ -0,0 +1,31 @@
+package com.bancario.compensacion.config;
+
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.util.TimeValue;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RestTemplateConfigTest {
+
+        private final ConnectionKeepAliveStrategy keepAlive = RestTemplateConfig.keepAliveAcotado(30_000);
+
+        @Test
+        void testKeepAlive_RespetaElServidorHastaElMaximo() {
+                assertEquals(TimeValue.ofSeconds(5), duracion("timeout=5, max=100"));
+                assertEquals(TimeValue.ofSeconds(0), duracion("timeout=0"));
+                assertEquals(TimeValue.ofMilliseconds(30_000), duracion("timeout=120"));
+                assertEquals(TimeValue.ofMilliseconds(30_000), duracion(null));
+        }
+
+        private TimeValue duracion(String cabecera) {
+                BasicClassicHttpResponse respuesta = new BasicClassicHttpResponse(200);
+                if (cabecera != null) {
+                        respuesta.addHeader(HttpHeaders.KEEP_ALIVE, cabecera);
+                }
+                return keepAlive.getKeepAliveDuration(respuesta, HttpClientContext.create());
+        }
+}
@@ -0,0 +1,157 @@
+package com.bancario.compensacion.repositorio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.modelo.DetalleCompensacion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tasa de inserción de detalles antes y después de la ruta masiva, contra un
+ * PostgreSQL con el esquema de la aplicación. No es un test (surefire no lo
+ * ejecuta); se lanza a mano con
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *       com.bancario.compensacion.repositorio.InsercionDetallesBenchmark \
+ *       jdbc:postgresql://localhost:5432/compensacion_db postgres admin
+ *
+ * Modos, cada uno en una transacción que se deshace al terminar:
+ *   fila-a-fila   un INSERT por detalle devolviendo la clave, como hace Hibernate
+ *                 con IDENTITY (sin batching): la ruta anterior
+ *   multi-fila    DetalleCompensacionRepositorioImpl.insertarLote, 1000 filas por
+ *                 sentencia (listener, API y lotes)
+ *   copy          copiarACarga + volcarCarga (cargas de archivos)
+ *
+ * Imprime filas por segundo para 1.000, 10.000 y 100.000 detalles tras una
+ * pasada de calentamiento. El resultado depende sobre todo de la latencia de red
+ * con la base de datos: fila-a-fila paga un viaje por detalle y multi-fila uno
+ * por cada 1000.
+ *
+ * Resultados (filas/s, mínimo y máximo de 3 ejecuciones): PostgreSQL 16.4 en la
+ * misma máquina por TCP local, 1 vCPU compartida entre cliente y servidor, esquema
+ * creado por la aplicación (ddl-auto=update + db/esquema.sql).
+ *
+ *   n         fila-a-fila      multi-fila       copy
+ *   1.000      2.520 -  4.846   7.558 - 11.730  10.435 - 15.376
+ *   10.000     4.033 -  5.801  16.632 - 23.442  23.486 - 31.288
+ *   100.000    8.443 - 12.170  21.169 - 28.947  21.501 - 26.551
+ *
+ * Con latencia casi nula la ventaja de multi-fila (x2-4) y copy (x2-5) es la
+ * cota baja: ambos quitan viajes, que aquí apenas cuestan. A 100.000 filas copy
+ * y multi-fila se igualan porque domina el mantenimiento de los índices de
+ * detalleCompensacion (uxDetalleInstruccion, ixDetalleCiclo*) en la única CPU.
+ */
+public class InsercionDetallesBenchmark {
+
+    private static final String INSERT_FILA = "INSERT INTO detalleCompensacion "
+            + "(idInstruccion, idInstruccionOriginal, idCiclo, tipoOperacion, bicEmisor, bicReceptor, "
+            + "monto, estadoLiquidacion, codigoReferencia) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String[] BICS = { "BANKAAAA", "BANKBBBB", "BANKCCCC", "BANKDDDD", "BANKEEEE" };
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "jdbc:postgresql://localhost:5432/compensacion_db";
+        String usuario = args.length > 1 ? args[1] : "postgres";
+        String clave = args.length > 2 ? args[2] : "admin";
+
+        SingleConnectionDataSource origen = new SingleConnectionDataSource(url, usuario, clave, true);
+        origen.setAutoCommit(false);
+        try {
+            JdbcTemplate jdbc = new JdbcTemplate(origen);
+            DetalleCompensacionRepositorioImpl repo = new DetalleCompensacionRepositorioImpl(jdbc,
+                    new SimpleMeterRegistry());
+            Connection conexion = origen.getConnection();
+
+            for (String modo : new String[] { "fila-a-fila", "multi-fila", "copy" }) {
+                ejecutar(modo, 1_000, jdbc, repo, conexion);
+            }
+            for (int filas : new int[] { 1_000, 10_000, 100_000 }) {
+                for (String modo : new String[] { "fila-a-fila", "multi-fila", "copy" }) {
+                    double porSegundo = ejecutar(modo, filas, jdbc, repo, conexion);
+                    System.out.printf("%-12s n=%7d %10.0f filas/s%n", modo, filas, porSegundo);
+                }
+            }
+        } finally {
+            origen.destroy();
+        }
+    }
+
+    private static double ejecutar(String modo, int filas, JdbcTemplate jdbc, DetalleCompensacionRepositorioImpl repo,
+            Connection conexion) throws Exception {
+        try {
+            Integer idCiclo = jdbc.queryForObject("INSERT INTO cicloCompensacion (numeroCiclo, estado) "
+                    + "VALUES ((SELECT coalesce(max(numeroCiclo), 0) + 1 FROM cicloCompensacion), 'ABIERTO') "
+                    + "RETURNING idCiclo", Integer.class);
+            CicloCompensacion ciclo = new CicloCompensacion();
+            ciclo.setIdCiclo(idCiclo);
+            List<DetalleCompensacion> detalles = detalles(ciclo, filas);
+
+            long inicio = System.nanoTime();
+            switch (modo) {
+                case "fila-a-fila" -> filaAFila(conexion, detalles);
+                case "multi-fila" -> repo.insertarLote(detalles);
+                default -> {
+                    long copiados = repo.copiarACarga(destino -> {
+                        for (DetalleCompensacion d : detalles) {
+                            destino.write(d.getIdInstruccion() + ",," + d.getTipoOperacion() + "," + d.getBicEmisor()
+                                    + "," + d.getBicReceptor() + "," + d.getMonto() + ",\n");
+                        }
+                    });
+                    repo.volcarCarga(idCiclo, copiados);
+                }
+            }
+            long nanos = System.nanoTime() - inicio;
+            return filas * 1e9 / nanos;
+        } finally {
+            conexion.rollback();
+        }
+    }
+
+    private static void filaAFila(Connection conexion, List<DetalleCompensacion> detalles) throws Exception {
+        try (PreparedStatement ps = conexion.prepareStatement(INSERT_FILA, Statement.RETURN_GENERATED_KEYS)) {
+            for (DetalleCompensacion d : detalles) {
+                ps.setObject(1, d.getIdInstruccion());
+                ps.setObject(2, d.getIdInstruccionOriginal());
+                ps.setInt(3, d.getCiclo().getIdCiclo());
+                ps.setString(4, d.getTipoOperacion());
+                ps.setString(5, d.getBicEmisor());
+                ps.setString(6, d.getBicReceptor());
+                ps.setBigDecimal(7, d.getMonto());
+                ps.setString(8, d.getEstadoLiquidacion());
+                ps.setString(9, d.getCodigoReferencia());
+                ps.executeUpdate();
+                try (ResultSet clave = ps.getGeneratedKeys()) {
+                    clave.next();
+                }
+            }
+        }
+    }
+
+    private static List<DetalleCompensacion> detalles(CicloCompensacion ciclo, int filas) {
+        Random random = new Random(filas);
+        List<DetalleCompensacion> detalles = new ArrayList<>(filas);
+        for (int i = 0; i < filas; i++) {
+            DetalleCompensacion d = new DetalleCompensacion();
+            d.setIdInstruccion(UUID.randomUUID());
+            d.setCiclo(ciclo);
+            d.setTipoOperacion(random.nextInt(10) == 0 ? "REVERSO" : "PAGO");
+            d.setBicEmisor(BICS[random.nextInt(BICS.length)]);
+            d.setBicReceptor(BICS[random.nextInt(BICS.length)]);
+            d.setMonto(BigDecimal.valueOf(random.nextLong(1, 10_000_000L), 2));
+            d.setEstadoLiquidacion("INCLUIDO");
+            detalles.add(d);
+        }
+        return detalles;
+    }
+}
@@ -0,0 +1,115 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.modelo.DeltaPosicion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.PosicionInstitucionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AcumuladorPosicionesTest {
+
+        @Mock
+        private PosicionInstitucionRepositorio posicionRepo;
+        @Mock
+        private CicloCompensacionRepositorio cicloRepo;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        @InjectMocks
+        private AcumuladorPosiciones acumulador;
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+                when(cicloRepo.bloquearCompartidosSinEspera(any())).thenReturn(List.of(ciclo(1, "ABIERTO")));
+        }
+
+        private CicloCompensacion ciclo(Integer id, String estado) {
+                CicloCompensacion ciclo = new CicloCompensacion();
+                ciclo.setIdCiclo(id);
+                ciclo.setEstado(estado);
+                return ciclo;
+        }
+
+        @Test
+        void testRegistroConcurrente_NoPierdeDeltas() throws Exception {
+                int hilos = 16;
+                int operacionesPorHilo = 10_000;
+                ExecutorService pool = Executors.newFixedThreadPool(hilos);
+                for (int h = 0; h < hilos; h++) {
+                        pool.submit(() -> {
+                                for (int i = 0; i < operacionesPorHilo; i++) {
+                                        acumulador.registrar(1, "BANKA", new BigDecimal("1.25"), BigDecimal.ZERO);
+                                        acumulador.registrar(1, "BANKB", BigDecimal.ZERO, new BigDecimal("1.25"));
+                                }
+                        });
+                }
+                pool.shutdown();
+                assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+                Map<String, long[]> pendientes = acumulador.pendientes(1);
+                assertEquals(125L * hilos * operacionesPorHilo, pendientes.get("BANKA")[0]);
+                assertEquals(125L * hilos * operacionesPorHilo, pendientes.get("BANKB")[1]);
+        }
+
+        @Test
+        void testVolcarCiclo_AplicaDeltaYVaciaPendientes() {
+                acumulador.registrar(1, "BANKA", new BigDecimal("2.50"), new BigDecimal("1.00"));
+                acumulador.registrar(1, "BANKA", new BigDecimal("0.50"), BigDecimal.ZERO);
+                acumulador.volcarCiclo(1);
+
+                verify(posicionRepo).acumularLote(eq(1), eq(List.of(
+                                new DeltaPosicion("BANKA", new BigDecimal("3.00"), new BigDecimal("1.00")))));
+                assertTrue(acumulador.pendientes(1).isEmpty());
+        }
+
+        @Test
+        void testVolcadoFallido_ConservaDeltas() {
+                when(posicionRepo.acumularLote(any(), any())).thenThrow(new RuntimeException("BD caída"));
+
+                acumulador.registrar(1, "BANKA", new BigDecimal("3.00"), BigDecimal.ZERO);
+                acumulador.volcarCiclo(1);
+
+                assertEquals(300L, acumulador.pendientes(1).get("BANKA")[0]);
+        }
+
+        @Test
+        void testVolcado_CicloYaNeteadoDescartaDeltas() {
+                when(cicloRepo.bloquearCompartidosSinEspera(any())).thenReturn(List.of(ciclo(1, "LIQUIDANDO")));
+
+                acumulador.registrar(1, "BANKA", new BigDecimal("3.00"), BigDecimal.ZERO);
+                acumulador.volcarCiclo(1);
+
+                // Las posiciones del ciclo ya se recalcularon desde los detalles
+                verify(posicionRepo, never()).acumularLote(any(), any());
+                assertTrue(acumulador.pendientes(1).isEmpty());
+        }
+
+        @Test
+        void testVolcado_CicloBloqueadoPorElCorteRetieneDeltas() {
+                when(cicloRepo.bloquearCompartidosSinEspera(any())).thenReturn(List.of());
+
+                acumulador.registrar(1, "BANKA", new BigDecimal("3.00"), BigDecimal.ZERO);
+                acumulador.volcarCiclo(1);
+
+                verify(posicionRepo, never()).acumularLote(any(), any());
+                assertEquals(300L, acumulador.pendientes(1).get("BANKA")[0]);
+        }
+}
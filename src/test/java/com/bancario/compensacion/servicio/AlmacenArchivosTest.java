@@ -0,0 +1,96 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.ArchivoAlmacenado;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlmacenArchivosTest {
+
+        @TempDir
+        Path directorio;
+
+        private AlmacenArchivos almacen;
+
+        @BeforeEach
+        void setUp() {
+                almacen = new AlmacenArchivos();
+                ReflectionTestUtils.setField(almacen, "directorio", directorio.toString());
+        }
+
+        @Test
+        void testGuardar_CalculaTamanoYChecksum() throws Exception {
+                byte[] contenido = "<SettlementFile/>".getBytes(StandardCharsets.UTF_8);
+
+                ArchivoAlmacenado almacenado = almacen.guardar("ciclo-1/LIQ.xml", false, salida -> salida.write(contenido));
+
+                Path ruta = almacen.resolver(almacenado.ruta());
+                assertArrayEquals(contenido, Files.readAllBytes(ruta));
+                assertEquals(contenido.length, almacenado.tamanoBytes());
+                assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contenido)),
+                                almacenado.checksumSha256());
+        }
+
+        @Test
+        void testGuardar_ComprimidoConservaTamanoYChecksumDelOriginal() throws Exception {
+                byte[] contenido = "<Tx><BankBIC>BANKA</BankBIC></Tx>\n".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+
+                ArchivoAlmacenado almacenado = almacen.guardar("ciclo-1/LIQ.xml.gz", true, salida -> salida.write(contenido));
+
+                Path ruta = almacen.resolver(almacenado.ruta());
+                try (InputStream entrada = new GZIPInputStream(Files.newInputStream(ruta))) {
+                        assertArrayEquals(contenido, entrada.readAllBytes());
+                }
+                assertEquals(AlmacenArchivos.GZIP, almacenado.compresion());
+                assertEquals(contenido.length, almacenado.tamanoBytes());
+                assertTrue(Files.size(ruta) < contenido.length / 10);
+                assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contenido)),
+                                almacenado.checksumSha256());
+        }
+
+        @Test
+        void testGuardar_FalloNoDejaArchivos() throws Exception {
+                assertThrows(RuntimeException.class, () -> almacen.guardar("ciclo-1/LIQ.xml", false, salida -> {
+                        salida.write(new byte[100_000]);
+                        throw new IOException("disco lleno");
+                }));
+
+                try (var archivos = Files.list(directorio.resolve("ciclo-1"))) {
+                        assertEquals(0, archivos.count());
+                }
+        }
+
+        @Test
+        void testResolver_RechazaRutasFueraDelDirectorio() {
+                assertThrows(IllegalArgumentException.class, () -> almacen.resolver("../otro.xml"));
+        }
+
+        @Test
+        void testValidarDirectorio_SinConfigurarFallaElArranque() {
+                AlmacenArchivos sinDirectorio = new AlmacenArchivos();
+                ReflectionTestUtils.setField(sinDirectorio, "directorio", "");
+
+                assertThrows(IllegalStateException.class, sinDirectorio::validarDirectorio);
+        }
+
+        @Test
+        void testValidarDirectorio_CreaElDirectorioConfigurado() {
+                ReflectionTestUtils.setField(almacen, "directorio", directorio.resolve("almacen").toString());
+
+                almacen.validarDirectorio();
+
+                assertTrue(Files.isDirectory(directorio.resolve("almacen")));
+        }
+}
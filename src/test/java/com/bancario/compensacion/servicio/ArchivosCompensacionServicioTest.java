@@ -0,0 +1,129 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.ResultadoCopia;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ArchivosCompensacionServicioTest {
+
+        @Mock
+        private DetalleCompensacionRepositorio detalleRepo;
+        @Mock
+        private RegistroCicloAbierto registroCiclo;
+        @Mock
+        private FiltroInstrucciones filtroInstrucciones;
+        @Mock
+        private ContadorOperaciones contador;
+
+        @InjectMocks
+        private ArchivosCompensacionServicio servicio;
+
+        private final StringWriter copiado = new StringWriter();
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+                RegistroCicloAbierto.CicloVigente ciclo = new RegistroCicloAbierto.CicloVigente(7, 7,
+                                LocalDateTime.now());
+                when(registroCiclo.obtener()).thenReturn(Optional.of(ciclo));
+                when(registroCiclo.revalidar()).thenReturn(Optional.of(ciclo));
+                when(detalleRepo.copiarACarga(any())).thenAnswer(i -> {
+                        i.<com.bancario.compensacion.repositorio.DetalleCompensacionRepositorioCustom.EscritorCopia>getArgument(0)
+                                        .escribir(copiado);
+                        return copiado.toString().lines().count();
+                });
+                when(detalleRepo.volcarCarga(eq(7), anyLong()))
+                                .thenAnswer(i -> new ResultadoCopia(i.getArgument(1), i.<Long>getArgument(1) - 1, 2));
+        }
+
+        private static final String CSV = String.join("\n",
+                                "idInstruccion,idInstruccionOriginal,tipoOperacion,bicEmisor,bicReceptor,monto,codigoReferencia",
+                                "11111111-1111-1111-1111-111111111111,,pago,BANKA,BANKB,100.50,123456",
+                                "22222222-2222-2222-2222-222222222222,11111111-1111-1111-1111-111111111111,REVERSO,BANKB,BANKA,10",
+                                "no-es-uuid,,PAGO,BANKA,BANKB,1.00",
+                                "33333333-3333-3333-3333-333333333333,,PAGO,BANKA,BANKB,1.005",
+                                "",
+                                "44444444-4444-4444-4444-444444444444,,TRANSFER,BANKA,BANKB,5.00");
+
+        @Test
+        void testProcesarArchivo_CopiaSoloRegistrosValidos() {
+                Map<String, Object> resumen = servicio.procesarArchivo(archivo(), null);
+
+                assertEquals(List.of(
+                                "11111111-1111-1111-1111-111111111111,,PAGO,BANKA,BANKB,100.50,123456",
+                                "22222222-2222-2222-2222-222222222222,11111111-1111-1111-1111-111111111111,REVERSO,BANKB,BANKA,10.00,"),
+                                copiado.toString().lines().toList());
+                assertEquals("STREAMING", resumen.get("parser"));
+                assertResumen(resumen);
+        }
+
+        @Test
+        void testProcesarArchivo_ParserParaleloEquivalente() {
+                ReflectionTestUtils.setField(servicio, "umbralParalelo", 0L);
+
+                Map<String, Object> resumen = servicio.procesarArchivo(archivo(), null);
+
+                assertEquals(List.of(
+                                "11111111-1111-1111-1111-111111111111,,PAGO,BANKA,BANKB,100.50,123456",
+                                "22222222-2222-2222-2222-222222222222,11111111-1111-1111-1111-111111111111,REVERSO,BANKB,BANKA,10.00,"),
+                                copiado.toString().lines().toList());
+                assertEquals("PARALLEL", resumen.get("parser"));
+                assertResumen(resumen);
+        }
+
+        private MockMultipartFile archivo() {
+                return new MockMultipartFile("file", "cierre.csv", "text/csv", CSV.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void assertResumen(Map<String, Object> resumen) {
+                assertEquals(2L, resumen.get("processedRecords"));
+                assertEquals(1L, resumen.get("duplicateRecords"));
+                assertEquals(3L, resumen.get("rejectedRecords"));
+                assertEquals(List.of("Línea 4: idInstruccion inválido", "Línea 5: monto fuera de rango",
+                                "Línea 7: tipoOperacion debe ser PAGO o REVERSO"), resumen.get("errors"));
+                assertEquals(5, ((List<?>) resumen.get("preview")).size());
+                verify(filtroInstrucciones, times(2)).registrar(eq(7), any());
+        }
+
+        @Test
+        void testProcesarArchivo_CorteDuranteElCopyCargaEnElCicloNuevo() {
+                when(registroCiclo.revalidar()).thenReturn(Optional.of(
+                                new RegistroCicloAbierto.CicloVigente(8, 8, LocalDateTime.now())));
+                when(detalleRepo.volcarCarga(eq(8), anyLong())).thenReturn(new ResultadoCopia(2, 2, 2));
+
+                Map<String, Object> resumen = servicio.procesarArchivo(archivo(), null);
+
+                InOrder orden = inOrder(detalleRepo, registroCiclo);
+                orden.verify(detalleRepo).copiarACarga(any());
+                orden.verify(registroCiclo).revalidar();
+                orden.verify(detalleRepo).volcarCarga(eq(8), anyLong());
+                verify(detalleRepo, never()).volcarCarga(eq(7), anyLong());
+                assertEquals(8, resumen.get("cycleId"));
+        }
+
+        @Test
+        void testProcesarArchivo_SinCicloAbiertoAlVolcarRechazaLaCarga() {
+                when(registroCiclo.revalidar()).thenReturn(Optional.empty());
+
+                assertThrows(RuntimeException.class, () -> servicio.procesarArchivo(archivo(), null));
+                verify(detalleRepo, never()).volcarCarga(any(), anyLong());
+        }
+}
@@ -0,0 +1,36 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.ReportePdf;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheReportesTest {
+
+        @Test
+        void testGuardar_DesalojaElMenosUsadoAlSuperarLaCapacidad() {
+                CacheReportes cache = new CacheReportes();
+                ReflectionTestUtils.setField(cache, "capacidadBytes", 250L);
+
+                cache.guardar(1, new ReportePdf(new byte[100], "\"1\""));
+                cache.guardar(2, new ReportePdf(new byte[100], "\"2\""));
+                cache.obtener(1);
+                cache.guardar(3, new ReportePdf(new byte[100], "\"3\""));
+
+                assertNotNull(cache.obtener(1));
+                assertNull(cache.obtener(2));
+                assertNotNull(cache.obtener(3));
+        }
+
+        @Test
+        void testGuardar_ConservaElReporteExistente() {
+                CacheReportes cache = new CacheReportes();
+                ReportePdf primero = cache.guardar(1, new ReportePdf(new byte[10], "\"a\""));
+
+                ReportePdf segundo = cache.guardar(1, new ReportePdf(new byte[10], "\"b\""));
+
+                assertSame(primero, segundo);
+                assertEquals("\"a\"", cache.obtener(1).etag());
+        }
+}
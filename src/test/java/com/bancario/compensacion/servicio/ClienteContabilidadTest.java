@@ -0,0 +1,163 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.config.CircuitoHttp;
+import com.bancario.compensacion.config.RestTemplateConfig;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cliente de Contabilidad contra un servidor simulado que inyecta fallos:
+ * respuestas lentas, errores 5xx y cuerpos comprimidos.
+ */
+class ClienteContabilidadTest {
+
+        private HttpServer contabilidad;
+        private String url;
+        // Fallo a inyectar por petición: "lento", un código HTTP o ninguno (200)
+        private final Queue<String> fallos = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger peticiones = new AtomicInteger();
+        private final Queue<String> cuerposRecibidos = new ConcurrentLinkedQueue<>();
+
+        private RestTemplateConfig config;
+        private CloseableHttpClient cliente;
+        private CircuitoHttp circuito;
+
+        @BeforeEach
+        void setUp() throws Exception {
+                contabilidad = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+                contabilidad.setExecutor(Executors.newCachedThreadPool());
+                contabilidad.createContext("/api/v1/ledger/compensar", intercambio -> {
+                        peticiones.incrementAndGet();
+                        boolean gzip = "gzip".equals(intercambio.getRequestHeaders().getFirst("Content-Encoding"));
+                        try (InputStream cuerpo = gzip ? new GZIPInputStream(intercambio.getRequestBody())
+                                        : intercambio.getRequestBody()) {
+                                cuerposRecibidos.add((gzip ? "gzip:" : "") + new String(cuerpo.readAllBytes(),
+                                                StandardCharsets.UTF_8));
+                        }
+                        String fallo = fallos.poll();
+                        if ("lento".equals(fallo)) {
+                                try {
+                                        Thread.sleep(2_000);
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                        }
+                        int estado = fallo != null && !"lento".equals(fallo) ? Integer.parseInt(fallo) : 200;
+                        intercambio.sendResponseHeaders(estado, -1);
+                        intercambio.close();
+                });
+                contabilidad.start();
+                url = "http://127.0.0.1:" + contabilidad.getAddress().getPort() + "/api/v1/ledger/compensar";
+
+                config = new RestTemplateConfig();
+                ReflectionTestUtils.setField(config, "timeoutLecturaMs", 300L);
+                ReflectionTestUtils.setField(config, "fallosCircuito", 2);
+                ReflectionTestUtils.setField(config, "circuitoAbiertoMs", 200L);
+        }
+
+        @AfterEach
+        void tearDown() throws Exception {
+                contabilidad.stop(0);
+                if (cliente != null) {
+                        cliente.close();
+                }
+        }
+
+        private RestTemplate restTemplate() {
+                cliente = config.clienteHttp();
+                circuito = config.circuitoContabilidad(new SimpleMeterRegistry());
+                return config.restTemplate(new RestTemplateBuilder(), cliente, circuito);
+        }
+
+        private void enviar(RestTemplate restTemplate, String json) {
+                HttpHeaders cabeceras = new HttpHeaders();
+                cabeceras.setContentType(MediaType.APPLICATION_JSON);
+                restTemplate.postForEntity(url, new HttpEntity<>(json, cabeceras), Void.class);
+        }
+
+        @Test
+        void testTimeoutDeLectura_NoRetieneElHilo() {
+                RestTemplate restTemplate = restTemplate();
+                fallos.add("lento");
+
+                long inicio = System.nanoTime();
+                assertThrows(ResourceAccessException.class, () -> enviar(restTemplate, "{}"));
+                long ms = (System.nanoTime() - inicio) / 1_000_000;
+
+                assertTrue(ms < 1_500, "Esperó " + ms + " ms pese al timeout de lectura");
+        }
+
+        @Test
+        void testCircuito_AbreTrasFallosYSeCierraConLaPrueba() throws Exception {
+                RestTemplate restTemplate = restTemplate();
+                fallos.add("503");
+                fallos.add("503");
+
+                assertThrows(HttpServerErrorException.class, () -> enviar(restTemplate, "{}"));
+                assertThrows(HttpServerErrorException.class, () -> enviar(restTemplate, "{}"));
+                assertEquals(CircuitoHttp.Estado.ABIERTO, circuito.estado());
+
+                // Abierto: falla de inmediato sin llegar al servidor
+                ResourceAccessException rechazo = assertThrows(ResourceAccessException.class,
+                                () -> enviar(restTemplate, "{}"));
+                assertInstanceOf(CircuitoHttp.CircuitoAbiertoException.class, rechazo.getCause());
+                assertEquals(2, peticiones.get());
+
+                Thread.sleep(250);
+                assertEquals(CircuitoHttp.Estado.SEMIABIERTO, circuito.estado());
+                enviar(restTemplate, "{}");
+                assertEquals(CircuitoHttp.Estado.CERRADO, circuito.estado());
+                assertEquals(3, peticiones.get());
+        }
+
+        @Test
+        void testCircuito_PruebaFallidaVuelveAAbrir() throws Exception {
+                RestTemplate restTemplate = restTemplate();
+                fallos.add("500");
+                fallos.add("500");
+                fallos.add("500");
+                assertThrows(HttpServerErrorException.class, () -> enviar(restTemplate, "{}"));
+                assertThrows(HttpServerErrorException.class, () -> enviar(restTemplate, "{}"));
+
+                Thread.sleep(250);
+                assertThrows(HttpServerErrorException.class, () -> enviar(restTemplate, "{}"));
+
+                assertEquals(CircuitoHttp.Estado.ABIERTO, circuito.estado());
+        }
+
+        @Test
+        void testGzip_ComprimeSoloCuerposSobreElUmbral() {
+                ReflectionTestUtils.setField(config, "gzipUmbralBytes", 100);
+                RestTemplate restTemplate = restTemplate();
+                String grande = "{\"posiciones\":\"" + "X".repeat(1_000) + "\"}";
+
+                enviar(restTemplate, "{}");
+                enviar(restTemplate, grande);
+
+                assertEquals("{}", cuerposRecibidos.poll());
+                assertEquals("gzip:" + grande, cuerposRecibidos.poll());
+        }
+}
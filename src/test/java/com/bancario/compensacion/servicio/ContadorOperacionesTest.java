@@ -0,0 +1,60 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ContadorOperacionesTest {
+
+        @Mock
+        private DetalleCompensacionRepositorio detalleRepo;
+
+        @InjectMocks
+        private ContadorOperaciones contador;
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+        }
+
+        @Test
+        void testOperaciones_SiembraUnaVezYSumaTrasElCommit() {
+                when(detalleRepo.contarPorCiclo(1)).thenReturn(100L);
+
+                assertEquals(100L, contador.operaciones(1));
+                TransactionSynchronizationManager.initSynchronization();
+                try {
+                        contador.registrar(1, 5);
+                        assertEquals(100L, contador.operaciones(1));
+                        TransactionSynchronizationManager.getSynchronizations()
+                                        .forEach(TransactionSynchronization::afterCommit);
+                } finally {
+                        TransactionSynchronizationManager.clearSynchronization();
+                }
+
+                assertEquals(105L, contador.operaciones(1));
+                verify(detalleRepo, times(1)).contarPorCiclo(1);
+        }
+
+        @Test
+        void testAlCambiarCiclo_DescartaLosCiclosAnteriores() {
+                when(detalleRepo.contarPorCiclo(1)).thenReturn(10L, 20L);
+                contador.operaciones(1);
+                contador.alCambiarCiclo(new RegistroCicloAbierto.CambioCicloAbierto(
+                                new RegistroCicloAbierto.CicloVigente(1, 1, LocalDateTime.now()),
+                                new RegistroCicloAbierto.CicloVigente(2, 2, LocalDateTime.now())));
+
+                assertEquals(20L, contador.operaciones(1));
+                verify(detalleRepo, times(2)).contarPorCiclo(1);
+        }
+}
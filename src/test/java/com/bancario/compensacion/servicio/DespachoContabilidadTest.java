@@ -0,0 +1,183 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.MensajeSalida;
+import com.bancario.compensacion.modelo.PosicionInstitucion;
+import com.bancario.compensacion.repositorio.MensajeSalidaRepositorio;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DespachoContabilidadTest {
+
+        @Mock
+        private MensajeSalidaRepositorio mensajeRepo;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final SimpleMeterRegistry metricas = new SimpleMeterRegistry();
+        private DespachoContabilidad despacho;
+
+        // Contabilidad simulada: responde con los estados encolados (200 cuando se agotan)
+        private HttpServer contabilidad;
+        private final Queue<Integer> respuestas = new ConcurrentLinkedQueue<>();
+        private final Queue<String> clavesRecibidas = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger peticiones = new AtomicInteger();
+
+        @BeforeEach
+        void setUp() throws Exception {
+                MockitoAnnotations.openMocks(this);
+                contabilidad = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+                contabilidad.createContext("/api/v1/ledger/compensar", intercambio -> {
+                        peticiones.incrementAndGet();
+                        clavesRecibidas.add(intercambio.getRequestHeaders().getFirst("Idempotency-Key"));
+                        intercambio.getRequestBody().readAllBytes();
+                        Integer estado = respuestas.poll();
+                        intercambio.sendResponseHeaders(estado != null ? estado : 200, -1);
+                        intercambio.close();
+                });
+                contabilidad.start();
+
+                despacho = new DespachoContabilidad(mensajeRepo, new RestTemplate(), objectMapper,
+                                transactionManager, metricas);
+                ReflectionTestUtils.setField(despacho, "contabilidadUrl",
+                                "http://127.0.0.1:" + contabilidad.getAddress().getPort());
+        }
+
+        @AfterEach
+        void tearDown() {
+                contabilidad.stop(0);
+        }
+
+        @Test
+        void testEncolarLiquidacion_PartePosicionesEnMensajesIdempotentes() throws Exception {
+                ReflectionTestUtils.setField(despacho, "posicionesPorMensaje", 2);
+
+                int total = despacho.encolarLiquidacion(7, IntStream.range(0, 5).mapToObj(i -> posicion("BANCO" + i)));
+
+                @SuppressWarnings("unchecked")
+                ArgumentCaptor<List<MensajeSalida>> captor = ArgumentCaptor.forClass(List.class);
+                verify(mensajeRepo).saveAll(captor.capture());
+                List<MensajeSalida> mensajes = captor.getValue();
+                assertEquals(3, total);
+                assertEquals(3, mensajes.size());
+                assertEquals(DespachoContabilidad.claveIdempotencia(7, 1), mensajes.get(0).getIdMensaje());
+                assertNotEquals(mensajes.get(0).getIdMensaje(), mensajes.get(1).getIdMensaje());
+
+                JsonNode ultima = objectMapper.readTree(mensajes.get(2).getCarga());
+                assertEquals(7, ultima.get("cicloId").asInt());
+                assertEquals(3, ultima.get("parte").asInt());
+                assertEquals(3, ultima.get("totalPartes").asInt());
+                assertEquals(1, ultima.get("posiciones").size());
+                assertEquals("BANCO4", ultima.get("posiciones").get(0).get("bic").asText());
+                assertTrue(mensajes.stream().allMatch(m -> "PENDIENTE".equals(m.getEstado())));
+        }
+
+        @Test
+        void testDespachar_EnviaLoteConClaveDeIdempotencia() {
+                MensajeSalida primero = mensaje(1);
+                MensajeSalida segundo = mensaje(2);
+                when(mensajeRepo.bloquearPendientes(any(), anyInt())).thenReturn(List.of(primero, segundo));
+
+                despacho.despachar();
+
+                assertEquals(2, peticiones.get());
+                assertEquals(List.of(primero.getIdMensaje().toString(), segundo.getIdMensaje().toString()),
+                                List.copyOf(clavesRecibidas));
+                verify(mensajeRepo).reservar(eq(List.of(primero.getIdMensaje(), segundo.getIdMensaje())), any());
+                verify(mensajeRepo).marcarEnviado(eq(primero.getIdMensaje()), any());
+                verify(mensajeRepo).marcarEnviado(eq(segundo.getIdMensaje()), any());
+                assertEquals(2, metricas.get("compensacion.contabilidad.entrega").timer().count());
+        }
+
+        @Test
+        void testDespachar_ContabilidadCaidaAplazaElRestoDelLote() {
+                respuestas.add(HttpStatus.SERVICE_UNAVAILABLE.value());
+                MensajeSalida primero = mensaje(1);
+                MensajeSalida segundo = mensaje(2);
+                when(mensajeRepo.bloquearPendientes(any(), anyInt())).thenReturn(List.of(primero, segundo));
+
+                despacho.despachar();
+
+                // Un solo intento: el segundo no se envía mientras Contabilidad no responde
+                assertEquals(1, peticiones.get());
+                verify(mensajeRepo).reprogramar(eq(primero.getIdMensaje()), eq("PENDIENTE"), eq(1),
+                                argThat(p -> p.isAfter(LocalDateTime.now().minusMinutes(1))), contains("503"));
+                verify(mensajeRepo).reprogramar(eq(segundo.getIdMensaje()), eq("PENDIENTE"), eq(0), any(), isNull());
+                verify(mensajeRepo, never()).marcarEnviado(any(), any());
+                assertEquals(1.0, metricas.get("compensacion.contabilidad.errores").counter().count());
+        }
+
+        @Test
+        void testDespachar_SolicitudRechazadaQuedaFallida() {
+                respuestas.add(HttpStatus.BAD_REQUEST.value());
+                MensajeSalida primero = mensaje(1);
+                MensajeSalida segundo = mensaje(2);
+                when(mensajeRepo.bloquearPendientes(any(), anyInt())).thenReturn(List.of(primero, segundo));
+
+                despacho.despachar();
+
+                // Un 400 no se reintenta y no detiene al resto del lote
+                verify(mensajeRepo).reprogramar(eq(primero.getIdMensaje()), eq("FALLIDO"), eq(1), isNull(),
+                                contains("400"));
+                verify(mensajeRepo).marcarEnviado(eq(segundo.getIdMensaje()), any());
+        }
+
+        @Test
+        void testEspera_CreceExponencialmenteHastaElMaximo() {
+                ReflectionTestUtils.setField(despacho, "backoffMs", 1000L);
+                ReflectionTestUtils.setField(despacho, "backoffMaxMs", 60_000L);
+
+                assertTrue(despacho.espera(1) >= 800 && despacho.espera(1) <= 1200);
+                assertTrue(despacho.espera(4) >= 6400 && despacho.espera(4) <= 9600);
+                assertTrue(despacho.espera(30) <= 72_000);
+                assertTrue(DespachoContabilidad.esReintentable(HttpStatus.TOO_MANY_REQUESTS));
+                assertFalse(DespachoContabilidad.esReintentable(HttpStatus.UNPROCESSABLE_ENTITY));
+        }
+
+        private MensajeSalida mensaje(int parte) {
+                MensajeSalida m = new MensajeSalida();
+                m.setIdMensaje(DespachoContabilidad.claveIdempotencia(1, parte));
+                m.setIdCiclo(1);
+                m.setParte(parte);
+                m.setTotalPartes(2);
+                m.setCarga("{\"cicloId\":1,\"posiciones\":[]}");
+                m.setEstado("PENDIENTE");
+                m.setIntentos(0);
+                m.setFechaCreacion(LocalDateTime.now());
+                return m;
+        }
+
+        private PosicionInstitucion posicion(String bic) {
+                PosicionInstitucion p = new PosicionInstitucion();
+                p.setBic(bic);
+                p.setTotalDebitos(BigDecimal.ONE);
+                p.setTotalCredits(BigDecimal.TEN);
+                p.setPosicionNeta(new BigDecimal("9"));
+                return p;
+        }
+}
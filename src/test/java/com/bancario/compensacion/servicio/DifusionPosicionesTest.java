@@ -0,0 +1,163 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.PosicionDTO;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DifusionPosicionesTest {
+
+        @Mock
+        private CompensacionServicio compensacionServicio;
+        @Mock
+        private CicloCompensacionRepositorio cicloRepo;
+
+        @InjectMocks
+        private DifusionPosiciones difusion;
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+        }
+
+        @Test
+        void testCambios_SoloBicsNuevosOModificados() {
+                Map<String, PosicionDTO> anterior = Map.of(
+                                "BANCOA", posicion("BANCOA", "100.00", "50.00"),
+                                "BANCOB", posicion("BANCOB", "10.00", "0.00"));
+                List<PosicionDTO> actual = List.of(
+                                posicion("BANCOA", "100.0", "50"),
+                                posicion("BANCOB", "10.00", "25.00"),
+                                posicion("BANCOC", "0.00", "5.00"));
+
+                List<PosicionDTO> cambios = DifusionPosiciones.cambios(anterior, actual);
+
+                assertEquals(List.of("BANCOB", "BANCOC"), cambios.stream().map(PosicionDTO::getCodigoBic).toList());
+        }
+
+        @Test
+        void testCambios_SinAnteriorEnviaTodo() {
+                List<PosicionDTO> actual = List.of(posicion("BANCOA", "1.00", "0.00"));
+
+                assertEquals(actual, DifusionPosiciones.cambios(null, actual));
+        }
+
+        @Test
+        void testSuscribir_CicloInexistente() {
+                when(cicloRepo.existsById(99)).thenReturn(false);
+
+                assertThrows(RuntimeException.class, () -> difusion.suscribir(99));
+                verifyNoInteractions(compensacionServicio);
+        }
+
+        @Test
+        void testPublicar_UnaConsultaPorCicloAunqueHayaVariosSuscriptores() {
+                when(cicloRepo.existsById(1)).thenReturn(true);
+                when(compensacionServicio.obtenerPosicionesCiclo(1)).thenReturn(
+                                List.of(posicion("BANCOA", "1.00", "0.00")));
+                difusion.suscribir(1);
+                difusion.suscribir(1);
+                difusion.suscribir(1);
+
+                difusion.publicar();
+
+                // Una lectura para el snapshot compartido y otra por el intervalo
+                verify(compensacionServicio, times(2)).obtenerPosicionesCiclo(1);
+                difusion.detener();
+        }
+
+        @Test
+        void testSuscribir_CanalRetiradoEnParaleloNoPierdeElEmisor() throws Exception {
+                when(cicloRepo.existsById(1)).thenReturn(true);
+                when(compensacionServicio.obtenerPosicionesCiclo(1)).thenReturn(
+                                List.of(posicion("BANCOA", "1.00", "0.00")));
+                Map<Integer, Object> canales = canales();
+                difusion.suscribir(1);
+                Object viejo = canales.get(1);
+                // El único dashboard se desconecta: el canal queda vacío
+                ((List<?>) ReflectionTestUtils.getField(viejo, "emisores")).clear();
+                ReentrantLock candado = (ReentrantLock) ReflectionTestUtils.getField(viejo, "candado");
+
+                // Un alta toma el canal viejo y espera su candado mientras publicar() lo retira
+                candado.lock();
+                AtomicReference<SseEmitter> alta = new AtomicReference<>();
+                Thread suscriptor = new Thread(() -> alta.set(difusion.suscribir(1)));
+                try {
+                        suscriptor.start();
+                        while (!candado.hasQueuedThread(suscriptor)) {
+                                Thread.onSpinWait();
+                        }
+                        difusion.publicar();
+                } finally {
+                        candado.unlock();
+                }
+                suscriptor.join(5_000);
+
+                Object nuevo = canales.get(1);
+                assertNotNull(nuevo);
+                assertNotSame(viejo, nuevo);
+                assertTrue(((List<?>) ReflectionTestUtils.getField(nuevo, "emisores")).contains(alta.get()));
+                difusion.detener();
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void testPublicar_CadaEmisorRecibeElMismoEvento() throws Exception {
+                when(cicloRepo.existsById(1)).thenReturn(true);
+                when(compensacionServicio.obtenerPosicionesCiclo(1)).thenReturn(
+                                List.of(posicion("BANCOA", "1.00", "0.00")),
+                                List.of(posicion("BANCOA", "2.00", "0.00")));
+                difusion.suscribir(1);
+                List<SseEmitter> emisores = (List<SseEmitter>) ReflectionTestUtils.getField(canales().get(1), "emisores");
+                Capturador primero = new Capturador();
+                Capturador segundo = new Capturador();
+                emisores.clear();
+                emisores.addAll(List.of(primero, segundo));
+
+                difusion.publicar();
+                ((java.util.concurrent.ExecutorService) ReflectionTestUtils.getField(difusion, "difusion"))
+                                .submit(() -> { }).get();
+
+                // Un builder compartido acumularía un salto de línea extra por cada build()
+                assertEquals(1, primero.enviados.size());
+                assertEquals(primero.enviados, segundo.enviados);
+                difusion.detener();
+        }
+
+        private static class Capturador extends SseEmitter {
+                private final List<String> enviados = new java.util.ArrayList<>();
+
+                @Override
+                public void send(SseEventBuilder evento) {
+                        enviados.add(evento.build().stream().map(d -> String.valueOf(d.getData()))
+                                        .collect(java.util.stream.Collectors.joining()));
+                }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<Integer, Object> canales() {
+                return (Map<Integer, Object>) ReflectionTestUtils.getField(difusion, "canales");
+        }
+
+        private PosicionDTO posicion(String bic, String debitos, String creditos) {
+                return PosicionDTO.builder()
+                                .codigoBic(bic)
+                                .totalDebitos(new BigDecimal(debitos))
+                                .totalCreditos(new BigDecimal(creditos))
+                                .build();
+        }
+}
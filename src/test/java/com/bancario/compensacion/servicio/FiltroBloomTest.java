@@ -0,0 +1,34 @@
+package com.bancario.compensacion.servicio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FiltroBloomTest {
+
+        @Test
+        void testSinFalsosNegativosYTasaDeFalsosPositivosAcotada() {
+                FiltroBloom filtro = new FiltroBloom(100_000, 0.001);
+                List<UUID> agregados = new ArrayList<>();
+                for (int i = 0; i < 100_000; i++) {
+                        UUID id = UUID.randomUUID();
+                        filtro.agregar(id);
+                        agregados.add(id);
+                }
+
+                agregados.forEach(id -> assertTrue(filtro.puedeContener(id)));
+
+                int falsosPositivos = 0;
+                for (int i = 0; i < 100_000; i++) {
+                        if (filtro.puedeContener(UUID.randomUUID())) {
+                                falsosPositivos++;
+                        }
+                }
+                // 0.1% esperado; margen amplio para evitar fallos aleatorios
+                assertTrue(falsosPositivos < 500, "Falsos positivos: " + falsosPositivos);
+        }
+}
@@ -0,0 +1,69 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.EstadoMonitorDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MonitorSistemaTest {
+
+        @Mock
+        private RegistroCicloAbierto registroCiclo;
+        @Mock
+        private ContadorOperaciones contador;
+        @Mock
+        private ObjectProvider<AmqpAdmin> amqpAdmin;
+        @Mock
+        private AmqpAdmin admin;
+
+        @InjectMocks
+        private MonitorSistema monitor;
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+                when(amqpAdmin.getIfAvailable()).thenReturn(admin);
+        }
+
+        @Test
+        void testRefrescar_CalculaRitmoYRetrasoEntreInstantaneas() throws Exception {
+                when(registroCiclo.obtener()).thenReturn(Optional.of(
+                                new RegistroCicloAbierto.CicloVigente(3, 30, LocalDateTime.now())));
+                when(contador.operaciones(3)).thenReturn(1_000L, 2_000L);
+                when(admin.getQueueInfo("q.switch.compensacion.in")).thenReturn(new QueueInformation("q", 0, 1));
+
+                EstadoMonitorDTO primero = monitor.refrescar();
+                Thread.sleep(20);
+                EstadoMonitorDTO segundo = monitor.refrescar();
+
+                assertEquals(1_000L, primero.getOperaciones());
+                assertNull(primero.getOperacionesPorSegundo());
+                assertEquals(2_000L, segundo.getOperaciones());
+                assertTrue(segundo.getOperacionesPorSegundo() > 0);
+                assertEquals(0.0, segundo.getRetrasoIngestaSeg());
+                assertEquals("VERDE", segundo.getColorSemaforo());
+                assertSame(segundo, monitor.obtener());
+        }
+
+        @Test
+        void testRefrescar_SinCicloAbiertoNoConsultaDetalles() {
+                when(registroCiclo.obtener()).thenReturn(Optional.empty());
+
+                EstadoMonitorDTO estado = monitor.refrescar();
+
+                assertEquals("ROJO", estado.getColorSemaforo());
+                assertNull(estado.getCicloActivo());
+                verifyNoInteractions(contador);
+        }
+}
@@ -0,0 +1,105 @@
+package com.bancario.compensacion.servicio;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.RepetitionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Propiedades del motor en centavos contra el algoritmo de referencia en BigDecimal.
+ */
+class MotorNeteoTest {
+
+        private static final String[] BICS = { "BANKA", "BANKB", "BANKC", "BANKD", "BANKE", "BANKF" };
+
+        @RepeatedTest(200)
+        void testMismoResultadoQueBigDecimal(RepetitionInfo info) {
+                Random random = new Random(info.getCurrentRepetition());
+                int operaciones = 1 + random.nextInt(2_000);
+
+                MotorNeteo motor = new MotorNeteo();
+                Map<String, BigDecimal[]> referencia = new HashMap<>();
+
+                for (int i = 0; i < operaciones; i++) {
+                        String tipo = random.nextInt(5) == 0 ? "REVERSO" : "PAGO";
+                        String emisor = BICS[random.nextInt(BICS.length)];
+                        String receptor = BICS[random.nextInt(BICS.length)];
+                        BigDecimal monto = BigDecimal.valueOf(random.nextLong(1, 1_000_000_000_00L), 2);
+
+                        motor.registrar(tipo, emisor, receptor, MotorNeteo.aCentavos(monto));
+                        netearReferencia(referencia, tipo, emisor, receptor, monto);
+                }
+
+                assertEquals(referencia.keySet(), motor.totales().keySet());
+                BigDecimal sumaReferencia = BigDecimal.ZERO;
+                for (Map.Entry<String, BigDecimal[]> e : referencia.entrySet()) {
+                        long[] t = motor.totales().get(e.getKey());
+                        BigDecimal neto = e.getValue()[1].subtract(e.getValue()[0]);
+                        assertEquals(0, e.getValue()[0].compareTo(MotorNeteo.aDecimal(MotorNeteo.debitos(t))));
+                        assertEquals(0, e.getValue()[1].compareTo(MotorNeteo.aDecimal(MotorNeteo.creditos(t))));
+                        assertEquals(0, neto.compareTo(MotorNeteo.aDecimal(MotorNeteo.neto(t))));
+                        sumaReferencia = sumaReferencia.add(neto);
+                }
+                assertEquals(0, sumaReferencia.compareTo(MotorNeteo.aDecimal(motor.sumaNetos())));
+                assertEquals(0L, motor.sumaNetos());
+        }
+
+        @RepeatedTest(50)
+        void testCombinarParcialesEquivaleASecuencial(RepetitionInfo info) {
+                Random random = new Random(1_000L + info.getCurrentRepetition());
+                MotorNeteo secuencial = new MotorNeteo();
+                MotorNeteo[] parciales = { new MotorNeteo(), new MotorNeteo(), new MotorNeteo() };
+
+                for (int i = 0; i < 1_000; i++) {
+                        String tipo = random.nextBoolean() ? "PAGO" : "REVERSO";
+                        String emisor = BICS[random.nextInt(BICS.length)];
+                        String receptor = BICS[random.nextInt(BICS.length)];
+                        long centavos = random.nextLong(1, 10_000_000L);
+                        secuencial.registrar(tipo, emisor, receptor, centavos);
+                        parciales[random.nextInt(parciales.length)].registrar(tipo, emisor, receptor, centavos);
+                }
+
+                MotorNeteo combinado = new MotorNeteo();
+                for (MotorNeteo p : parciales) {
+                        combinado.combinar(p);
+                }
+
+                assertEquals(secuencial.operaciones(), combinado.operaciones());
+                assertEquals(secuencial.totales().keySet(), combinado.totales().keySet());
+                secuencial.totales().forEach((bic, t) -> assertArrayEquals(t, combinado.totales().get(bic)));
+        }
+
+        @Test
+        void testConversionRedondeaComoNumeric() {
+                assertEquals(10050L, MotorNeteo.aCentavos(new BigDecimal("100.5")));
+                assertEquals(101L, MotorNeteo.aCentavos(new BigDecimal("1.005")));
+                assertEquals(-101L, MotorNeteo.aCentavos(new BigDecimal("-1.005")));
+                assertEquals(new BigDecimal("-80.00"), MotorNeteo.aDecimal(-8000L));
+        }
+
+        @Test
+        void testDesbordamientoDetectado() {
+                MotorNeteo motor = new MotorNeteo();
+                motor.registrar("PAGO", "BANKA", "BANKB", Long.MAX_VALUE);
+                assertThrows(ArithmeticException.class, () -> motor.registrar("PAGO", "BANKA", "BANKB", 1L));
+        }
+
+        private static void netearReferencia(Map<String, BigDecimal[]> ref, String tipo, String emisor, String receptor,
+                        BigDecimal monto) {
+                BigDecimal[] posEmisor = ref.computeIfAbsent(emisor, k -> new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO });
+                BigDecimal[] posReceptor = ref.computeIfAbsent(receptor, k -> new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO });
+                if ("REVERSO".equalsIgnoreCase(tipo)) {
+                        posEmisor[1] = posEmisor[1].add(monto);
+                        posReceptor[0] = posReceptor[0].add(monto);
+                } else {
+                        posEmisor[0] = posEmisor[0].add(monto);
+                        posReceptor[1] = posReceptor[1].add(monto);
+                }
+        }
+}
@@ -0,0 +1,80 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.DetalleNeteo;
+import com.bancario.compensacion.modelo.RangoDetalles;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class NeteoServicioTest {
+
+        @Mock
+        private DetalleCompensacionRepositorio detalleRepo;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        @InjectMocks
+        private NeteoServicio neteoServicio;
+
+        private final List<DetalleNeteo> detalles = new ArrayList<>();
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+                String[] bics = { "BANKA", "BANKB", "BANKC", "BANKD" };
+                Random random = new Random(7);
+                for (int i = 0; i < 10_000; i++) {
+                        detalles.add(new DetalleNeteo(random.nextInt(4) == 0 ? "REVERSO" : "PAGO",
+                                        bics[random.nextInt(bics.length)], bics[random.nextInt(bics.length)],
+                                        random.nextLong(1, 1_000_000L)));
+                }
+                // idDetalle = posición + 1
+                when(detalleRepo.rangoPorCiclo(1)).thenReturn(new RangoDetalles(1L, (long) detalles.size()));
+                when(detalleRepo.streamNeteoPorTramo(eq(1), anyLong(), anyLong())).thenAnswer(i -> {
+                        long desde = i.getArgument(1);
+                        long hasta = i.getArgument(2);
+                        return LongStream.rangeClosed(desde, hasta).mapToObj(id -> detalles.get((int) id - 1));
+                });
+        }
+
+        @Test
+        void testNeteoPorTramos_IgualAlSecuencial() {
+                ReflectionTestUtils.setField(neteoServicio, "paralelismo", 4);
+                ReflectionTestUtils.setField(neteoServicio, "tamanoTramo", 700L);
+
+                MotorNeteo paralelo = neteoServicio.netear(1);
+
+                MotorNeteo secuencial = new MotorNeteo();
+                detalles.forEach(d -> secuencial.registrar(d.tipoOperacion(), d.bicEmisor(), d.bicReceptor(),
+                                d.montoCentavos()));
+
+                assertEquals(secuencial.operaciones(), paralelo.operaciones());
+                secuencial.totales().forEach((bic, t) -> assertArrayEquals(t, paralelo.totales().get(bic)));
+                assertEquals(0L, paralelo.sumaNetos());
+                verify(detalleRepo, atLeast(2)).streamNeteoPorTramo(eq(1), anyLong(), anyLong());
+        }
+
+        @Test
+        void testCicloSinDetalles() {
+                when(detalleRepo.rangoPorCiclo(2)).thenReturn(new RangoDetalles(null, null));
+
+                MotorNeteo motor = neteoServicio.netear(2);
+
+                assertTrue(motor.totales().isEmpty());
+                verify(detalleRepo, never()).streamNeteoPorTramo(eq(2), anyLong(), anyLong());
+        }
+}
@@ -0,0 +1,112 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.IncidenciaLoteDTO;
+import com.bancario.compensacion.dto.RegistroOperacionDTO;
+import com.bancario.compensacion.dto.ResumenLoteDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OperacionesLoteServicioTest {
+
+        @Mock
+        private CompensacionServicio compensacionServicio;
+
+        private OperacionesLoteServicio servicio;
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+                servicio = new OperacionesLoteServicio(compensacionServicio, new ObjectMapper());
+                ReflectionTestUtils.setField(servicio, "tamanoLote", 2);
+        }
+
+        @Test
+        void testNdjson_ConfirmaPorLotesYReportaIncidencias() throws Exception {
+                // Segundo registro del primer lote duplicado
+                when(compensacionServicio.registrarLote(anyList())).thenAnswer(i -> {
+                        List<RegistroOperacionDTO> lote = i.getArgument(0);
+                        BitSet registradas = new BitSet();
+                        registradas.set(0, lote.size());
+                        if (lote.get(0).getMonto().intValue() == 1) {
+                                registradas.clear(1);
+                        }
+                        return registradas;
+                });
+
+                String cuerpo = String.join("\n",
+                                operacion("1.00"),
+                                operacion("2.00"),
+                                "{\"idInstruccion\":\"no-uuid\",\"monto\":1}",
+                                operacion("0"),
+                                operacion("5.00"),
+                                "");
+
+                ResumenLoteDTO resumen = servicio.registrar(cuerpo(cuerpo));
+
+                assertEquals(5, resumen.getRecibidos());
+                assertEquals(2, resumen.getAceptados());
+                assertEquals(1, resumen.getDuplicados());
+                assertEquals(2, resumen.getRechazados());
+                assertEquals(2, resumen.getLotes());
+                assertNull(resumen.getError());
+                assertEquals(List.of(1L, 2L, 3L),
+                                resumen.getIncidencias().stream().map(IncidenciaLoteDTO::getIndice).toList());
+                assertEquals(List.of("DUPLICADO", "RECHAZADO", "RECHAZADO"),
+                                resumen.getIncidencias().stream().map(IncidenciaLoteDTO::getEstado).toList());
+        }
+
+        @Test
+        void testArrayJson_LoteFallidoSeReprocesaIndividualmente() throws Exception {
+                when(compensacionServicio.registrarLote(anyList()))
+                                .thenThrow(new DataIntegrityViolationException("uxDetalleInstruccion"));
+                when(compensacionServicio.registrarOperacion(any()))
+                                .thenReturn(true)
+                                .thenThrow(new DataIntegrityViolationException("uxDetalleInstruccion"));
+                when(compensacionServicio.existeInstruccion(any())).thenReturn(true);
+
+                ResumenLoteDTO resumen = servicio.registrar(cuerpo("[" + operacion("1.00") + "," + operacion("2.00") + "]"));
+
+                assertEquals(2, resumen.getRecibidos());
+                assertEquals(1, resumen.getAceptados());
+                assertEquals(1, resumen.getDuplicados());
+                verify(compensacionServicio, times(2)).registrarOperacion(any());
+        }
+
+        @Test
+        void testJsonMalFormado_ConservaLoConfirmado() throws Exception {
+                when(compensacionServicio.registrarLote(anyList())).thenAnswer(i -> {
+                        BitSet registradas = new BitSet();
+                        registradas.set(0, i.<List<?>>getArgument(0).size());
+                        return registradas;
+                });
+
+                ResumenLoteDTO resumen = servicio.registrar(cuerpo(operacion("1.00") + "\n{\"idInstruccion\":"));
+
+                assertEquals(1, resumen.getAceptados());
+                assertNotNull(resumen.getError());
+        }
+
+        private static String operacion(String monto) {
+                return "{\"idInstruccion\":\"" + UUID.randomUUID() + "\",\"bicEmisor\":\"BANKA\",\"bicReceptor\":\"BANKB\","
+                                + "\"monto\":" + monto + ",\"tipoOperacion\":\"PAGO\"}";
+        }
+
+        private static ByteArrayInputStream cuerpo(String contenido) {
+                return new ByteArrayInputStream(contenido.getBytes(StandardCharsets.UTF_8));
+        }
+}
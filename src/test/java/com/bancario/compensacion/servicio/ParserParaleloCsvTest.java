@@ -0,0 +1,146 @@
+package com.bancario.compensacion.servicio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserParaleloCsvTest {
+
+        @TempDir
+        Path directorio;
+
+        @Test
+        void testTramos_CubrenCadaLineaUnaVezConNumeracionGlobal() throws Exception {
+                Random random = new Random(11);
+                StringBuilder csv = new StringBuilder("idInstruccion,idInstruccionOriginal,tipoOperacion,bicEmisor,bicReceptor,monto,codigoReferencia\r\n");
+                List<String> esperadas = new ArrayList<>();
+                List<Long> lineasInvalidas = new ArrayList<>();
+                for (int linea = 2; linea <= 5_000; linea++) {
+                        if (linea % 97 == 0) {
+                                csv.append("roto,,PAGO,BANKA,BANKB,1.00\r\n");
+                                lineasInvalidas.add((long) linea);
+                                continue;
+                        }
+                        UUID id = UUID.randomUUID();
+                        String tipo = random.nextBoolean() ? "PAGO" : "reverso";
+                        String emisor = "BANK" + (char) ('A' + random.nextInt(26));
+                        String receptor = "BANK" + (char) ('A' + random.nextInt(26));
+                        BigDecimal monto = BigDecimal.valueOf(random.nextLong(1, 10_000_000L), 2);
+                        String codigo = random.nextBoolean() ? String.format("%06d", random.nextInt(1000)) : "";
+                        csv.append(id).append(",,").append(tipo).append(',').append(emisor).append(',')
+                                        .append(receptor).append(',').append(monto).append(',').append(codigo).append("\r\n");
+                        esperadas.add(id + ",," + tipo.toUpperCase() + "," + emisor + "," + receptor + "," + monto + ","
+                                        + codigo);
+                }
+                Path archivo = directorio.resolve("carga.csv");
+                Files.writeString(archivo, csv, StandardCharsets.UTF_8);
+
+                StringWriter salida = new StringWriter();
+                List<Long> errores = new ArrayList<>();
+                long lineasPrevias = 0;
+                try (FileChannel canal = FileChannel.open(archivo)) {
+                        ParserParaleloCsv parser = new ParserParaleloCsv(canal, 4096);
+                        assertTrue(parser.tramos() > 50);
+                        // Orden inverso: los tramos no dependen entre sí
+                        List<ParserParaleloCsv.Tramo> tramos = new ArrayList<>();
+                        for (int i = parser.tramos() - 1; i >= 0; i--) {
+                                tramos.add(0, parser.parsear(i));
+                        }
+                        for (ParserParaleloCsv.Tramo tramo : tramos) {
+                                tramo.volcar(salida, id -> {
+                                });
+                                for (ParserParaleloCsv.ErrorLinea e : tramo.errores()) {
+                                        errores.add(lineasPrevias + e.linea());
+                                }
+                                lineasPrevias += tramo.lineas();
+                        }
+                }
+
+                assertEquals(esperadas, salida.toString().lines().toList());
+                assertEquals(lineasInvalidas, errores);
+                assertEquals(5_000, lineasPrevias);
+        }
+
+        @Test
+        void testFlujoYMapeo_AceptanYRechazanLasMismasLineas() throws Exception {
+                String valida = "11111111-1111-1111-1111-111111111111,,PAGO,BANKA,BANKB,";
+                StringBuilder csv = new StringBuilder();
+                for (int i = 0; i < 15; i++) {
+                        csv.append(valida).append("+5\n")
+                                        .append(valida).append("1e2\n")
+                                        .append(valida).append("\t5.00\n")
+                                        .append(valida).append("5.00").append(" ".repeat(1100)).append('\n')
+                                        .append(valida).append("5.00,").append("9".repeat(i % 2 == 0 ? 5000 : 20)).append('\n')
+                                        .append(valida).append(" 7.5 ,000001\r\n")
+                                        .append("\t\r\n");
+                }
+                csv.append(valida).append("9.99");
+                byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+                Path archivo = directorio.resolve("mixto.csv");
+                Files.write(archivo, bytes);
+
+                Resultado mapeado = mapeado(archivo, 1024);
+                assertEquals(List.of("Línea 1: monto no numérico", "Línea 2: monto no numérico",
+                                "Línea 3: monto no numérico", "Línea 4: Línea demasiado larga",
+                                "Línea 5: Línea demasiado larga"), mapeado.errores().subList(0, 5));
+                assertEquals(List.of(valida + "7.50,000001"), mapeado.filas().subList(0, 1));
+                assertEquals(106, mapeado.lineas());
+                assertEquals(mapeado, mapeado(archivo, 1 << 20));
+                assertEquals(mapeado, flujo(bytes, 2048));
+                assertEquals(mapeado, flujo(bytes, 1 << 20));
+        }
+
+        private record Resultado(List<String> filas, List<String> errores, long lineas) {
+        }
+
+        private static Resultado mapeado(Path archivo, long tamanoTramo) throws IOException {
+                List<ParserParaleloCsv.Tramo> tramos = new ArrayList<>();
+                try (FileChannel canal = FileChannel.open(archivo)) {
+                        ParserParaleloCsv parser = new ParserParaleloCsv(canal, tamanoTramo);
+                        for (int i = 0; i < parser.tramos(); i++) {
+                                tramos.add(parser.parsear(i));
+                        }
+                }
+                return resultado(tramos);
+        }
+
+        private static Resultado flujo(byte[] bytes, int tamanoBloque) throws IOException {
+                List<ParserParaleloCsv.Tramo> tramos = new ArrayList<>();
+                ParserParaleloCsv.Bloques bloques = new ParserParaleloCsv.Bloques(new ByteArrayInputStream(bytes),
+                                tamanoBloque);
+                ParserParaleloCsv.Bloque bloque;
+                while ((bloque = bloques.siguiente()) != null) {
+                        tramos.add(bloque.parsear());
+                }
+                return resultado(tramos);
+        }
+
+        private static Resultado resultado(List<ParserParaleloCsv.Tramo> tramos) throws IOException {
+                StringWriter salida = new StringWriter();
+                List<String> errores = new ArrayList<>();
+                long lineas = 0;
+                for (ParserParaleloCsv.Tramo tramo : tramos) {
+                        tramo.volcar(salida, id -> {
+                        });
+                        for (ParserParaleloCsv.ErrorLinea e : tramo.errores()) {
+                                errores.add("Línea " + (lineas + e.linea()) + ": " + e.motivo());
+                        }
+                        lineas += tramo.lineas();
+                }
+                return new Resultado(salida.toString().lines().toList(), errores, lineas);
+        }
+}
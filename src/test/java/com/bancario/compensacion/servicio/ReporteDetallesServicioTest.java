@@ -0,0 +1,98 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.modelo.DetalleReporte;
+import com.bancario.compensacion.modelo.FiltroDetalles;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+class ReporteDetallesServicioTest {
+
+        @Mock
+        private CicloCompensacionRepositorio cicloRepo;
+        @Mock
+        private DetalleCompensacionRepositorio detalleRepo;
+
+        @InjectMocks
+        private ReporteDetallesServicio servicio;
+
+        private final FiltroDetalles sinFiltro = new FiltroDetalles(null, null, null);
+
+        @BeforeEach
+        void setUp() {
+                MockitoAnnotations.openMocks(this);
+                CicloCompensacion ciclo = new CicloCompensacion();
+                ciclo.setIdCiclo(1);
+                ciclo.setNumeroCiclo(7);
+                ciclo.setEstado("CERRADO");
+                when(cicloRepo.findById(1)).thenReturn(Optional.of(ciclo));
+        }
+
+        @Test
+        void testEscribirCsv_UnaFilaPorDetalleYRolConSuEfecto() {
+                UUID id = UUID.randomUUID();
+                when(detalleRepo.streamDetallesPorBic(eq(1), any())).thenReturn(Stream.of(
+                                new DetalleReporte("BANKA", "EMISOR", 1L, id, "PAGO", "BANKB", new BigDecimal("100.00"),
+                                                "INCLUIDO", "123456"),
+                                new DetalleReporte("BANKB", "RECEPTOR", 1L, id, "PAGO", "BANKA", new BigDecimal("100.00"),
+                                                "INCLUIDO", "123456")));
+                ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+                long filas = servicio.escribirCsv(1, sinFiltro, salida);
+
+                String[] lineas = salida.toString(StandardCharsets.UTF_8).split("\n");
+                assertEquals(2, filas);
+                assertEquals(3, lineas.length);
+                assertEquals("BANKA,EMISOR,1," + id + ",PAGO,BANKB,100.00,DEBITO,INCLUIDO,123456", lineas[1]);
+                assertEquals("BANKB,RECEPTOR,1," + id + ",PAGO,BANKA,100.00,CREDITO,INCLUIDO,123456", lineas[2]);
+        }
+
+        @Test
+        void testCampo_NeutralizaFormulasDeHojaDeCalculo() {
+                assertEquals("'=1+1", ReporteDetallesServicio.campo("=1+1"));
+                assertEquals("'+1", ReporteDetallesServicio.campo("+1"));
+                assertEquals("'-1", ReporteDetallesServicio.campo("-1"));
+                assertEquals("'@SUM(A1)", ReporteDetallesServicio.campo("@SUM(A1)"));
+                assertEquals("'\tx", ReporteDetallesServicio.campo("\tx"));
+                assertEquals("\"'\rx\"", ReporteDetallesServicio.campo("\rx"));
+                assertEquals("\"'=1,2\"", ReporteDetallesServicio.campo("=1,2"));
+                assertEquals("BANKA", ReporteDetallesServicio.campo("BANKA"));
+        }
+
+        @Test
+        void testEscribirPdf_AgrupaPorBicSinAcumularFilas() {
+                when(detalleRepo.streamDetallesPorBic(eq(1), any())).thenReturn(IntStream.range(0, 2_000)
+                                .mapToObj(n -> new DetalleReporte(n < 1_000 ? "BANKA" : "BANKB", "EMISOR", (long) n,
+                                                UUID.randomUUID(), "PAGO", "BANKC", BigDecimal.ONE, null, null)));
+                ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+                long filas = servicio.escribirPdf(1, sinFiltro, salida);
+
+                assertEquals(2_000, filas);
+                assertTrue(salida.toString(StandardCharsets.ISO_8859_1).startsWith("%PDF"));
+        }
+
+        @Test
+        void testValidar_RechazaTipoDesconocido() {
+                assertThrows(RuntimeException.class,
+                                () -> servicio.validar(1, new FiltroDetalles(null, "TRANSFER", null)));
+        }
+}
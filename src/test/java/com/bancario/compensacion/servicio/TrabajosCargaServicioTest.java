@@ -0,0 +1,188 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.mapper.CompensacionMapper;
+import com.bancario.compensacion.modelo.ResultadoCopia;
+import com.bancario.compensacion.modelo.TrabajoCarga;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorioCustom;
+import com.bancario.compensacion.repositorio.TrabajoCargaRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TrabajosCargaServicioTest {
+
+        @Mock
+        private TrabajoCargaRepositorio trabajoRepo;
+        @Mock
+        private DetalleCompensacionRepositorio detalleRepo;
+        @Mock
+        private ArchivosCompensacionServicio archivosServicio;
+        @Mock
+        private FiltroInstrucciones filtroInstrucciones;
+        @Mock
+        private ContadorOperaciones contador;
+        @Mock
+        private CompensacionMapper mapper;
+        @Mock
+        private ThreadPoolTaskExecutor cargaExecutor;
+        @Mock
+        private PlatformTransactionManager transactionManager;
+
+        @InjectMocks
+        private TrabajosCargaServicio servicio;
+
+        @TempDir
+        Path directorio;
+
+        private final StringWriter copiado = new StringWriter();
+        private final TrabajoCarga trabajo = new TrabajoCarga();
+        private Path archivo;
+
+        @BeforeEach
+        void setUp() throws Exception {
+                MockitoAnnotations.openMocks(this);
+                ReflectionTestUtils.setField(servicio, "paralelismo", 2);
+                ReflectionTestUtils.setField(servicio, "nodo", "nodo-a");
+
+                // 40 líneas de 100 bytes: tramos de 1024 bytes cortan a mitad de línea
+                StringBuilder csv = new StringBuilder();
+                for (int i = 1; i <= 40; i++) {
+                        String linea = String.format("%08d-0000-0000-0000-000000000000,,PAGO,BANKA,BANKB,%d.00,", i, i);
+                        csv.append(linea).append(" ".repeat(99 - linea.length())).append('\n');
+                }
+                archivo = directorio.resolve("carga.csv");
+                Files.writeString(archivo, csv, StandardCharsets.UTF_8);
+
+                trabajo.setIdTrabajo(UUID.randomUUID());
+                trabajo.setRutaArchivo(archivo.toString());
+                trabajo.setEstado("PROCESANDO");
+                trabajo.setNodo("nodo-a");
+                trabajo.setTamanoArchivo(4000L);
+                trabajo.setTamanoTramo(1024L);
+                trabajo.setLineasConfirmadas(0L);
+                trabajo.setRegistrosLeidos(0L);
+                trabajo.setRegistrosInsertados(0L);
+                trabajo.setRegistrosRechazados(0L);
+                when(trabajoRepo.findById(trabajo.getIdTrabajo())).thenReturn(Optional.of(trabajo));
+                when(trabajoRepo.bloquearPorId(trabajo.getIdTrabajo())).thenReturn(Optional.of(trabajo));
+
+                when(archivosServicio.idCicloAbierto()).thenReturn(3);
+                when(archivosServicio.idCicloParaVolcar()).thenReturn(3);
+                when(detalleRepo.copiarACarga(any())).thenAnswer(i -> {
+                        StringWriter tramo = new StringWriter();
+                        i.<DetalleCompensacionRepositorioCustom.EscritorCopia>getArgument(0).escribir(tramo);
+                        copiado.append(tramo.toString());
+                        return tramo.toString().lines().count();
+                });
+                when(detalleRepo.volcarCarga(eq(3), anyLong()))
+                                .thenAnswer(i -> new ResultadoCopia(i.getArgument(1), i.getArgument(1), 1));
+        }
+
+        @Test
+        void testProcesar_RetomaDesdeElUltimoTramoConfirmado() {
+                // Reinicio tras confirmar el primer tramo: líneas 1-11 (la 11 empieza en el byte 1000)
+                trabajo.setBytesConfirmados(1024L);
+                trabajo.setLineasConfirmadas(11L);
+                trabajo.setRegistrosLeidos(11L);
+                trabajo.setRegistrosInsertados(11L);
+
+                servicio.procesar(trabajo.getIdTrabajo());
+
+                assertTrue(copiado.toString().startsWith("00000012-0000-0000-0000-000000000000,"));
+                assertEquals(29, copiado.toString().lines().count());
+                assertEquals("COMPLETADO", trabajo.getEstado());
+                assertEquals(4000L, trabajo.getBytesConfirmados());
+                assertEquals(40L, trabajo.getLineasConfirmadas());
+                assertEquals(40L, trabajo.getRegistrosLeidos());
+                assertEquals(40L, trabajo.getRegistrosInsertados());
+                assertFalse(Files.exists(archivo));
+        }
+
+        @Test
+        void testProcesar_AbandonaSiOtraReplicaAvanzoElTrabajo() {
+                trabajo.setBytesConfirmados(0L);
+                // Otra réplica confirma el primer tramo mientras este nodo lo decodificaba
+                when(trabajoRepo.bloquearPorId(trabajo.getIdTrabajo())).thenReturn(Optional.of(trabajo)).then(i -> {
+                        trabajo.setBytesConfirmados(1024L);
+                        return Optional.of(trabajo);
+                });
+
+                servicio.procesar(trabajo.getIdTrabajo());
+
+                verify(detalleRepo, never()).copiarACarga(any());
+                assertEquals("PROCESANDO", trabajo.getEstado());
+                assertTrue(Files.exists(archivo));
+        }
+
+        @Test
+        void testProcesar_NoTocaCargasDeOtraReplicaConArriendoVigente() throws Exception {
+                trabajo.setBytesConfirmados(0L);
+                trabajo.setNodo("nodo-b");
+                trabajo.setArrendadoHasta(LocalDateTime.now().plusMinutes(5));
+                // El archivo aún no es visible desde este nodo
+                Files.delete(archivo);
+
+                servicio.procesar(trabajo.getIdTrabajo());
+
+                assertEquals("PROCESANDO", trabajo.getEstado());
+                assertEquals("nodo-b", trabajo.getNodo());
+                verify(detalleRepo, never()).copiarACarga(any());
+        }
+
+        @Test
+        void testProcesar_RetomaCargaDeOtraReplicaConArriendoVencido() {
+                trabajo.setBytesConfirmados(0L);
+                trabajo.setNodo("nodo-b");
+                trabajo.setArrendadoHasta(LocalDateTime.now().minusSeconds(1));
+
+                servicio.procesar(trabajo.getIdTrabajo());
+
+                assertEquals("COMPLETADO", trabajo.getEstado());
+                assertEquals("nodo-a", trabajo.getNodo());
+                assertEquals(40, copiado.toString().lines().count());
+        }
+
+        @Test
+        void testReanudarPendientes_SoloPropiasOVencidas() {
+                TrabajoCarga ajena = new TrabajoCarga();
+                ajena.setIdTrabajo(UUID.randomUUID());
+                ajena.setNodo("nodo-b");
+                ajena.setArrendadoHasta(LocalDateTime.now().plusMinutes(5));
+                TrabajoCarga vencida = new TrabajoCarga();
+                vencida.setIdTrabajo(UUID.randomUUID());
+                vencida.setNodo("nodo-b");
+                vencida.setArrendadoHasta(LocalDateTime.now().minusMinutes(1));
+                when(trabajoRepo.findByEstadoIn(any())).thenReturn(List.of(trabajo, ajena, vencida));
+
+                servicio.reanudarPendientes();
+
+                verify(cargaExecutor, times(2)).execute(any());
+        }
+
+        @Test
+        void testValidarDirectorio_SinConfigurarFallaElArranque() {
+                ReflectionTestUtils.setField(servicio, "directorio", " ");
+
+                assertThrows(IllegalStateException.class, servicio::validarDirectorio);
+        }
+}